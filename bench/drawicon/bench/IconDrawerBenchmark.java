@@ -0,0 +1,540 @@
+package drawicon.bench;
+
+import drawicon.drawable.IconDrawer;
+import drawicon.image.Resampler;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Benchmarks {@code IconDrawer} parsing, rasterization and saving. Each
+ * benchmark runs on generated icx scenes for every element type and every
+ * icon size, and reports throughput, latency percentiles and allocation rate.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp DrawIcon.jar:bench drawicon.bench.IconDrawerBenchmark [options]
+ *   --benchmarks read,readIncremental,getImage,getImageSoftware,
+ *                getImageTiled,renderInto,renderIntoSoftware,draw,save,
+ *                saveParallel,saveResampled,compareSoftware
+ *                                     benchmarks to run
+ *   --shapes Line,Circle,...,Mixed    element types in generated scenes
+ *   --elements 10,1000,100000         number of elements in scenes
+ *   --sizes 36,48,...                 icon sizes for getImage and draw benchmarks
+ *   --tile 256                        tile size for getImageTiled benchmark
+ *   --warmup 1                        warmup time per benchmark, in seconds
+ *   --time 2                          measurement time per benchmark, in seconds
+ *   --cache 0                         render cache limit, in MB (0 disables it)
+ * </pre>
+ * The draw benchmark renders the scene again and again into one image, so
+ * its allocation column shows what steady-state rendering allocates, without
+ * the new image each getImage call makes. The renderInto benchmarks do the
+ * same through {@code IconDrawer.renderInto()}, which also clears the image;
+ * with the software renderer they should allocate close to zero bytes. The getImageSoftware benchmark
+ * renders with the software rasterizer instead of Java2D, and getImageTiled
+ * renders in parallel tiles; run it with large sizes, such as 4096.
+ * <p>
+ * compareSoftware isn't timed: it renders each scene at every size with both
+ * backends and prints mean and largest channel difference between them,
+ * failing if the mean difference is over {@code MAX_MEAN_DIFFERENCE}. The
+ * backends antialias differently, so a few edge pixels always differ; the
+ * mean catches a shape drawn in the wrong place or not at all.
+ * <p>
+ * Results are printed as a table, one line per benchmark. Allocation is
+ * measured with per-thread allocation counters, the same source used by
+ * JMH's GC profiler, so numbers are comparable between releases run on the
+ * same JVM.
+ *
+ * @author thiago
+ */
+public class IconDrawerBenchmark {
+
+    /**
+     * Maximum number of latency samples kept for percentiles.
+     */
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    /**
+     * Largest mean channel difference, from 0 to 255, allowed between
+     * software and Java2D images in compareSoftware benchmark.
+     */
+    private static final double MAX_MEAN_DIFFERENCE = 2;
+
+    /**
+     * Benchmarks to run.
+     */
+    private String[] benchmarks = {"read", "readIncremental", "getImage",
+        "getImageSoftware", "getImageTiled", "renderInto", "renderIntoSoftware",
+        "draw", "save", "saveParallel", "saveResampled", "compareSoftware"};
+
+    /**
+     * Thread pool for saveParallel benchmark.
+     */
+    private final ExecutorService pool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Element types in generated scenes.
+     */
+    private String[] shapes = SceneGenerator.SHAPES;
+
+    /**
+     * Number of elements in generated scenes.
+     */
+    private int[] elementCounts = {10, 1000, 100000};
+
+    /**
+     * Icon sizes for getImage and draw benchmarks.
+     */
+    private int[] sizes = new IconDrawer().getSizes();
+
+    /**
+     * Tile size for getImageTiled benchmark.
+     */
+    private int tileSize = 256;
+
+    /**
+     * Render cache memory limit, in bytes. Disabled by default, so getImage
+     * and save benchmarks measure rendering.
+     */
+    private long cacheBytes = 0;
+
+    /**
+     * Warmup time, in nanoseconds.
+     */
+    private long warmupNanos = 1_000_000_000L;
+
+    /**
+     * Measurement time, in nanoseconds.
+     */
+    private long measureNanos = 2_000_000_000L;
+
+    /**
+     * Main method. Parses options and runs benchmarks.
+     *
+     * @param args command line options.
+     * @throws IOException if a temporary directory cannot be created.
+     */
+    public static void main(String[] args) throws IOException {
+        IconDrawerBenchmark benchmark = new IconDrawerBenchmark();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--benchmarks":
+                    benchmark.benchmarks = value.split(",");
+                    break;
+                case "--shapes":
+                    benchmark.shapes = value.split(",");
+                    break;
+                case "--elements":
+                    benchmark.elementCounts = parseInts(value);
+                    break;
+                case "--sizes":
+                    benchmark.sizes = parseInts(value);
+                    break;
+                case "--tile":
+                    benchmark.tileSize = Integer.parseInt(value);
+                    break;
+                case "--warmup":
+                    benchmark.warmupNanos = (long) (Double.parseDouble(value) * 1e9);
+                    break;
+                case "--cache":
+                    benchmark.cacheBytes = (long) (Double.parseDouble(value) * (1 << 20));
+                    break;
+                case "--time":
+                    benchmark.measureNanos = (long) (Double.parseDouble(value) * 1e9);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        try {
+            benchmark.run();
+        } finally {
+            benchmark.pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs all selected benchmarks.
+     *
+     * @throws IOException if a temporary directory cannot be created.
+     */
+    public void run() throws IOException {
+        printHeader();
+        for (String shape : shapes) {
+            for (int count : elementCounts) {
+                String scene = new SceneGenerator(count).makeScene(shape, count);
+                IconDrawer drawer = new IconDrawer();
+                drawer.getRenderCache().setMaxBytes(cacheBytes);
+                drawer.read(scene);
+                for (String name : benchmarks) {
+                    switch (name) {
+                        case "read":
+                            print(measure(name, shape, count, 0, () -> drawer.read(scene)));
+                            break;
+                        case "readIncremental":
+                            String edited = editMiddleLine(scene);
+                            boolean[] flip = new boolean[1];
+                            print(measure(name, shape, count, 0, () -> {
+                                flip[0] = !flip[0];
+                                drawer.readIncremental(flip[0] ? edited : scene);
+                            }));
+                            break;
+                        case "getImage":
+                            for (int size : sizes) {
+                                print(measure(name, shape, count, size, () -> drawer.getImage(size)));
+                            }
+                            break;
+                        case "getImageSoftware":
+                            drawer.setRenderer(IconDrawer.RENDERER_SOFTWARE);
+                            for (int size : sizes) {
+                                print(measure(name, shape, count, size, () -> drawer.getImage(size)));
+                            }
+                            drawer.setRenderer(IconDrawer.RENDERER_JAVA2D);
+                            break;
+                        case "getImageTiled":
+                            drawer.setTileSize(tileSize);
+                            for (int size : sizes) {
+                                print(measure(name, shape, count, size, () -> drawer.getImage(size)));
+                            }
+                            drawer.setTileSize(0);
+                            break;
+                        case "renderInto":
+                        case "renderIntoSoftware":
+                            drawer.setRenderer(name.equals("renderInto")
+                                    ? IconDrawer.RENDERER_JAVA2D : IconDrawer.RENDERER_SOFTWARE);
+                            for (int size : sizes) {
+                                BufferedImage image = new BufferedImage(size, size,
+                                        BufferedImage.TYPE_INT_ARGB);
+                                print(measure(name, shape, count, size, () -> drawer.renderInto(image)));
+                            }
+                            drawer.setRenderer(IconDrawer.RENDERER_JAVA2D);
+                            break;
+                        case "draw":
+                            for (int size : sizes) {
+                                BufferedImage image = new BufferedImage(size, size,
+                                        BufferedImage.TYPE_INT_ARGB);
+                                Graphics2D g = image.createGraphics();
+                                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                        RenderingHints.VALUE_ANTIALIAS_ON);
+                                print(measure(name, shape, count, size, () -> drawer.draw(g, size)));
+                                g.dispose();
+                            }
+                            break;
+                        case "save":
+                            File dir = Files.createTempDirectory("drawicon-bench").toFile();
+                            print(measure(name, shape, count, 0, () -> drawer.save(dir, "icon.png")));
+                            deleteTree(dir);
+                            break;
+                        case "saveParallel":
+                            File pdir = Files.createTempDirectory("drawicon-bench").toFile();
+                            print(measure(name, shape, count, 0, () -> drawer.save(pdir, "icon.png", pool)));
+                            deleteTree(pdir);
+                            break;
+                        case "saveResampled":
+                            File rdir = Files.createTempDirectory("drawicon-bench").toFile();
+                            int[] iconSizes = drawer.getSizes();
+                            drawer.setResampleSize(iconSizes[iconSizes.length - 1]);
+                            print(measure(name, shape, count, 0, () -> drawer.save(rdir, "icon.png")));
+                            drawer.setResampleSize(0);
+                            deleteTree(rdir);
+                            break;
+                        case "compareSoftware":
+                            compare(drawer, shape, count);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown benchmark: " + name);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders a scene with both backends at every size and prints how much
+     * the images differ.
+     *
+     * @param drawer drawer holding the scene.
+     * @param shape element type in scene.
+     * @param count number of elements in scene.
+     * @throws IllegalStateException if mean difference is over
+     * {@code MAX_MEAN_DIFFERENCE}.
+     */
+    private void compare(IconDrawer drawer, String shape, int count) {
+        for (int size : sizes) {
+            drawer.setRenderer(IconDrawer.RENDERER_JAVA2D);
+            BufferedImage java2d = drawer.getImage(size);
+            drawer.setRenderer(IconDrawer.RENDERER_SOFTWARE);
+            BufferedImage software = drawer.getImage(size);
+            drawer.setRenderer(IconDrawer.RENDERER_JAVA2D);
+            double mean = Resampler.meanDifference(java2d, software);
+            int max = Resampler.maxDifference(java2d, software);
+            System.out.println(String.format(Locale.ROOT,
+                    "%-15s %-15s %8d %5d   mean diff %.3f, max diff %d",
+                    "compareSoftware", shape, count, size, mean, max));
+            if (mean > MAX_MEAN_DIFFERENCE) {
+                throw new IllegalStateException("Software image of " + shape
+                        + " scene at size " + size + " differs from Java2D image by "
+                        + mean + " on average");
+            }
+        }
+    }
+
+    /**
+     * Runs an operation repeatedly, first to warm up and then to measure it.
+     *
+     * @param name benchmark name.
+     * @param shape element type in scene.
+     * @param count number of elements in scene.
+     * @param size icon size, or zero if not applicable.
+     * @param op operation to measure.
+     * @return measured results.
+     */
+    private Result measure(String name, String shape, int count, int size, Runnable op) {
+        long end = System.nanoTime() + warmupNanos;
+        do {
+            op.run();
+        } while (System.nanoTime() < end);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long gcCount = gcCount();
+        long gcTime = gcTime();
+        long allocated = allocatedBytes(threads);
+        long[] samples = new long[1024];
+        int ops = 0;
+        long start = System.nanoTime();
+        end = start + measureNanos;
+        long now = start;
+        do {
+            op.run();
+            long t = System.nanoTime();
+            if (ops == samples.length && ops < MAX_SAMPLES) {
+                samples = Arrays.copyOf(samples, ops * 2);
+            }
+            if (ops < samples.length) {
+                samples[ops] = t - now;
+            }
+            ops++;
+            now = t;
+        } while (now < end);
+
+        Result r = new Result(name, shape, count, size);
+        r.ops = ops;
+        r.elapsed = now - start;
+        r.allocated = allocatedBytes(threads) - allocated;
+        r.gcCount = gcCount() - gcCount;
+        r.gcTime = gcTime() - gcTime;
+        long[] sorted = Arrays.copyOf(samples, Math.min(ops, samples.length));
+        Arrays.sort(sorted);
+        r.p50 = percentile(sorted, 0.50);
+        r.p90 = percentile(sorted, 0.90);
+        r.p99 = percentile(sorted, 0.99);
+        r.max = sorted[sorted.length - 1];
+        return r;
+    }
+
+    /**
+     * Returns bytes allocated by current thread, or -1 if JVM doesn't support
+     * allocation counters.
+     *
+     * @param threads thread management bean.
+     * @return bytes allocated by current thread.
+     */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Returns total number of garbage collections.
+     *
+     * @return total number of garbage collections.
+     */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Returns total garbage collection time, in milliseconds.
+     *
+     * @return total garbage collection time.
+     */
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * Returns a percentile from sorted samples.
+     *
+     * @param sorted sorted samples.
+     * @param p percentile, between 0 and 1.
+     * @return sample at percentile {@code p}.
+     */
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    /**
+     * Parses a list of integers separated by commas.
+     *
+     * @param value list of integers.
+     * @return parsed integers.
+     */
+    private static int[] parseInts(String value) {
+        String[] parts = value.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * Changes the middle line of a scene, as an editor would, so that
+     * incremental reading has to parse one line again.
+     *
+     * @param scene icx scene.
+     * @return scene with its middle line changed.
+     */
+    private static String editMiddleLine(String scene) {
+        String[] lines = scene.split("\n");
+        lines[lines.length / 2] = "Circle[x:50 y:50 r:25 draw:on fill:on colorFill:red]";
+        return String.join("\n", lines) + "\n";
+    }
+
+    /**
+     * Deletes a directory and all files under it.
+     *
+     * @param file file or directory to delete.
+     */
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Prints results table header.
+     */
+    private static void printHeader() {
+        System.out.println(String.format(Locale.ROOT,
+                "%-15s %-15s %8s %5s %12s %10s %10s %10s %10s %12s %10s %5s %7s",
+                "bench", "shape", "elements", "size", "ops/s", "p50(us)",
+                "p90(us)", "p99(us)", "max(us)", "alloc(B/op)", "MB/s", "gc", "gc(ms)"));
+    }
+
+    /**
+     * Prints a result line.
+     *
+     * @param r result to print.
+     */
+    private static void print(Result r) {
+        double seconds = r.elapsed / 1e9;
+        System.out.println(String.format(Locale.ROOT,
+                "%-15s %-15s %8d %5s %12.1f %10.1f %10.1f %10.1f %10.1f %12s %10.1f %5d %7d",
+                r.name, r.shape, r.count, r.size == 0 ? "-" : Integer.toString(r.size),
+                r.ops / seconds, r.p50 / 1e3, r.p90 / 1e3, r.p99 / 1e3, r.max / 1e3,
+                r.allocated < 0 ? "n/a" : Long.toString(r.allocated / r.ops),
+                r.allocated < 0 ? 0.0 : r.allocated / seconds / (1 << 20),
+                r.gcCount, r.gcTime));
+    }
+
+    /**
+     * Results of a benchmark run.
+     */
+    private static class Result {
+
+        /**
+         * Benchmark name.
+         */
+        private final String name;
+
+        /**
+         * Element type in scene.
+         */
+        private final String shape;
+
+        /**
+         * Number of elements in scene.
+         */
+        private final int count;
+
+        /**
+         * Icon size, or zero if not applicable.
+         */
+        private final int size;
+
+        /**
+         * Number of measured operations.
+         */
+        private int ops;
+
+        /**
+         * Measurement time, in nanoseconds.
+         */
+        private long elapsed;
+
+        /**
+         * Bytes allocated while measuring, or -1 if unknown.
+         */
+        private long allocated;
+
+        /**
+         * Garbage collections while measuring.
+         */
+        private long gcCount;
+
+        /**
+         * Garbage collection time while measuring, in milliseconds.
+         */
+        private long gcTime;
+
+        /**
+         * Latency percentiles and maximum latency, in nanoseconds.
+         */
+        private long p50, p90, p99, max;
+
+        /**
+         * Constructor. Builds an empty result.
+         *
+         * @param name benchmark name.
+         * @param shape element type in scene.
+         * @param count number of elements in scene.
+         * @param size icon size, or zero if not applicable.
+         */
+        Result(String name, String shape, int count, int size) {
+            this.name = name;
+            this.shape = shape;
+            this.count = count;
+            this.size = size;
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package drawicon.bench;
+
+import java.util.Random;
+
+/**
+ * Generates icx scenes used by benchmarks. Scenes are built from a fixed seed,
+ * so two runs with the same arguments always get the same text.
+ *
+ * @author thiago
+ */
+public class SceneGenerator {
+
+    /**
+     * Element types that can be generated. {@code "Mixed"} cycles through all
+     * other types.
+     */
+    public static final String[] SHAPES = {"Line", "Circle", "Ellipse",
+        "Rectangle", "Poligon", "RegularPoligon", "Mixed"};
+
+    /**
+     * Color names used by generated elements, including hexadecimal colors.
+     */
+    private static final String[] COLORS = {"black", "white", "blue", "red",
+        "green", "yellow", "cyan", "magenta", "pink", "orange", "gray",
+        "_1E90FF", "_FF7F50", "_2E8B57", "_800080"};
+
+    /**
+     * Random generator for coordinates and colors.
+     */
+    private final Random random;
+
+    /**
+     * Constructor. Builds a scene generator.
+     *
+     * @param seed seed for random numbers.
+     */
+    public SceneGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Makes an icx scene.
+     *
+     * @param shape element type, one of {@code SHAPES}.
+     * @param count number of elements in scene.
+     * @return icx text with {@code count} lines.
+     */
+    public String makeScene(String shape, int count) {
+        StringBuilder sb = new StringBuilder(count * 80);
+        for (int i = 0; i < count; i++) {
+            String type = shape.equals("Mixed") ? SHAPES[i % (SHAPES.length - 1)] : shape;
+            appendElement(sb, type);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends an element to scene.
+     *
+     * @param sb string builder to append element to.
+     * @param type element type.
+     */
+    private void appendElement(StringBuilder sb, String type) {
+        switch (type) {
+            case "Line":
+                sb.append("Line[x:[").append(coord()).append(' ').append(coord())
+                        .append("] y:[").append(coord()).append(' ').append(coord())
+                        .append("] colorDraw:").append(color()).append(']');
+                break;
+            case "Circle":
+                sb.append("Circle[x:").append(coord()).append(" y:").append(coord())
+                        .append(" r:").append(radius());
+                appendAttributes(sb);
+                break;
+            case "Ellipse":
+                sb.append("Ellipse[x:").append(coord()).append(" y:").append(coord())
+                        .append(" rw:").append(radius()).append(" rh:").append(radius());
+                appendAttributes(sb);
+                break;
+            case "Rectangle":
+                sb.append("Rectangle[x:[").append(coord()).append(' ').append(coord())
+                        .append("] y:[").append(coord()).append(' ').append(coord())
+                        .append(']');
+                appendAttributes(sb);
+                break;
+            case "Poligon":
+                int n = 3 + random.nextInt(8);
+                sb.append("Poligon[x:[");
+                appendCoords(sb, n);
+                sb.append("] y:[");
+                appendCoords(sb, n);
+                sb.append(']');
+                appendAttributes(sb);
+                break;
+            case "RegularPoligon":
+                sb.append("RegularPoligon[x:").append(coord()).append(" y:").append(coord())
+                        .append(" r:").append(radius()).append(" n:").append(3 + random.nextInt(10))
+                        .append(" dir:").append(random.nextBoolean() ? 'a' : 'v');
+                appendAttributes(sb);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown element type: " + type);
+        }
+    }
+
+    /**
+     * Appends draw, fill and color attributes, and closes element.
+     *
+     * @param sb string builder to append attributes to.
+     */
+    private void appendAttributes(StringBuilder sb) {
+        sb.append(" draw:").append(random.nextInt(4) == 0 ? "off" : "on")
+                .append(" fill:").append(random.nextBoolean() ? "on" : "off")
+                .append(" colorDraw:").append(color())
+                .append(" colorFill:").append(color()).append(']');
+    }
+
+    /**
+     * Appends {@code n} coordinates separated by spaces.
+     *
+     * @param sb string builder to append coordinates to.
+     * @param n number of coordinates.
+     */
+    private void appendCoords(StringBuilder sb, int n) {
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(coord());
+        }
+    }
+
+    /**
+     * Returns a random coordinate.
+     *
+     * @return a coordinate between 0 and 100.
+     */
+    private int coord() {
+        return random.nextInt(101);
+    }
+
+    /**
+     * Returns a random radius.
+     *
+     * @return a radius between 1 and 40.
+     */
+    private int radius() {
+        return 1 + random.nextInt(40);
+    }
+
+    /**
+     * Returns a random color name.
+     *
+     * @return a color name.
+     */
+    private String color() {
+        return COLORS[random.nextInt(COLORS.length)];
+    }
+
+}
@@ -1,5 +1,6 @@
 package drawicon;
 
+import drawicon.batch.BatchRenderer;
 import drawicon.gui.MainWindow;
 
 /**
@@ -10,10 +11,16 @@ public class DrawIcon {
 
     /**
      * Main method to launch this application.
-     * Makes a main window and displays it.
+     * Makes a main window and displays it. If some arguments are given, runs
+     * without a window instead, rendering icx files named in arguments (see
+     * {@code BatchRenderer}).
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            BatchRenderer.main(args);
+            return;
+        }
         MainWindow window = new MainWindow();
         window.setVisible(true);
     }
@@ -0,0 +1,599 @@
+package drawicon.batch;
+
+import drawicon.drawable.IconDrawer;
+import drawicon.image.PngEncoder;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * Exports many icons as texture atlases: for each density, all icons are
+ * packed in one or a few sheets, instead of one file per icon and density.
+ * Sheets are saved in the usual mipmap subdirectories, named after the atlas
+ * and numbered from 0, and an index of the rectangle of each icon is saved
+ * in the output directory, as JSON or CSV.
+ * <p>
+ * All icons of a density have the same size, so sheets are grids of equal
+ * cells, filled row by row, which packs them as tightly as any bin packing
+ * would. A sheet is as square as its number of icons allows, and never
+ * wider nor taller than the maximum sheet size. Cells are separated by
+ * transparent padding, so that filtering never mixes pixels of neighbour
+ * icons.
+ * <p>
+ * Each icon is rendered into a pooled image and copied into its cell, on a
+ * pool, so icons in sheets are pixel by pixel the same as icons saved by
+ * {@code IconDrawer.save()}.
+ *
+ * @author thiago
+ */
+public class AtlasExporter {
+
+    /**
+     * Index is saved as JSON.
+     */
+    public static final int INDEX_JSON = 0;
+
+    /**
+     * Index is saved as CSV, one icon per line.
+     */
+    public static final int INDEX_CSV = 1;
+
+    /**
+     * Default maximum sheet width and height, in pixels.
+     */
+    public static final int DEFAULT_MAX_SHEET_SIZE = 2048;
+
+    /**
+     * Pool that renders icons and saves sheets.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * Maximum sheet width and height, in pixels.
+     */
+    private int maxSheetSize = DEFAULT_MAX_SHEET_SIZE;
+
+    /**
+     * Transparent pixels around each cell.
+     */
+    private int padding = 1;
+
+    /**
+     * Index format, one of {@code INDEX_} constants.
+     */
+    private int indexFormat = INDEX_JSON;
+
+    /**
+     * Encoder used to save sheets.
+     */
+    private PngEncoder pngEncoder = new PngEncoder();
+
+    /**
+     * Constructor. Builds an atlas exporter.
+     *
+     * @param pool pool to render icons and save sheets on.
+     */
+    public AtlasExporter(ExecutorService pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets maximum sheet width and height. Icons that don't fit in one sheet
+     * go to more sheets.
+     *
+     * @param size maximum size, in pixels. It must hold at least one icon of
+     * the largest density, with padding.
+     */
+    public void setMaxSheetSize(int size) {
+        int largest = new IconDrawer().getLargestSize();
+        if (size < largest + 2 * padding) {
+            throw new IllegalArgumentException("Sheets must be at least "
+                    + (largest + 2 * padding) + " pixels wide");
+        }
+        maxSheetSize = size;
+    }
+
+    /**
+     * Returns maximum sheet width and height.
+     *
+     * @return maximum size, in pixels.
+     */
+    public int getMaxSheetSize() {
+        return maxSheetSize;
+    }
+
+    /**
+     * Sets transparent pixels around each cell.
+     *
+     * @param padding padding, in pixels.
+     */
+    public void setPadding(int padding) {
+        if (padding < 0) {
+            throw new IllegalArgumentException("Padding must not be negative");
+        }
+        this.padding = padding;
+    }
+
+    /**
+     * Returns transparent pixels around each cell.
+     *
+     * @return padding, in pixels.
+     */
+    public int getPadding() {
+        return padding;
+    }
+
+    /**
+     * Sets index format.
+     *
+     * @param format {@code INDEX_JSON} or {@code INDEX_CSV}.
+     */
+    public void setIndexFormat(int format) {
+        if (format != INDEX_JSON && format != INDEX_CSV) {
+            throw new IllegalArgumentException("Unknown index format: " + format);
+        }
+        indexFormat = format;
+    }
+
+    /**
+     * Returns index format.
+     *
+     * @return {@code INDEX_JSON} or {@code INDEX_CSV}.
+     */
+    public int getIndexFormat() {
+        return indexFormat;
+    }
+
+    /**
+     * Sets encoder used to save sheets.
+     *
+     * @param encoder PNG encoder.
+     */
+    public void setPngEncoder(PngEncoder encoder) {
+        pngEncoder = encoder;
+    }
+
+    /**
+     * Renders icons into sheets and saves sheets and index.
+     *
+     * @param drawers drawers of icons, with elements already read. They must
+     * not be used by other threads until this method returns.
+     * @param names icon names, one for each drawer, as written in index.
+     * @param outDir directory to save sheets and index. A subdirectory to
+     * each density will be created.
+     * @param atlasName atlas name: sheets are named after it, with sheet
+     * number and png extension, and so is index, with json or csv extension.
+     * @return sheets, index and errors. If the calling thread is interrupted,
+     * export stops with an error, before writing any sheet if icons were
+     * still being rendered, or before writing index. If an icon can't be
+     * rendered, no sheet is written either, since sheets would miss it; a
+     * sheet that can't be written is an error of its own.
+     */
+    public Result export(List<IconDrawer> drawers, List<String> names, File outDir,
+            String atlasName) {
+        if (drawers.size() != names.size()) {
+            throw new IllegalArgumentException("Each icon must have a name");
+        }
+        IconDrawer any = new IconDrawer();
+        int[] sizes = any.getSizes();
+        String[] pathNames = any.getPathNames();
+        int count = drawers.size();
+        Result result = new Result();
+
+        List<Sheet> sheets = new ArrayList<>();
+        Sheet[][] sheetOf = new Sheet[sizes.length][count];
+        int[][] xs = new int[sizes.length][count];
+        int[][] ys = new int[sizes.length][count];
+        for (int d = 0; d < sizes.length; d++) {
+            int cell = sizes[d] + padding;
+            int perLine = Math.max(1, (maxSheetSize - padding) / cell);
+            int perSheet = perLine * perLine;
+            for (int first = 0; first < count; first += perSheet) {
+                int n = Math.min(perSheet, count - first);
+                int columns = Math.min(perLine, (int) Math.ceil(Math.sqrt(n)));
+                int rows = (n + columns - 1) / columns;
+                Sheet sheet = new Sheet(d, sizes[d], sheets.size(),
+                        pathNames[d] + "/" + atlasName + "_" + (first / perSheet) + ".png",
+                        padding + columns * cell, padding + rows * cell);
+                sheets.add(sheet);
+                for (int j = 0; j < n; j++) {
+                    sheetOf[d][first + j] = sheet;
+                    xs[d][first + j] = padding + (j % columns) * cell;
+                    ys[d][first + j] = padding + (j / columns) * cell;
+                }
+            }
+        }
+
+        List<Callable<Void>> renders = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            IconDrawer drawer = drawers.get(i);
+            int icon = i;
+            renders.add(() -> {
+                for (int d = 0; d < sizes.length; d++) {
+                    BufferedImage image = drawer.acquireImage(sizes[d]);
+                    try {
+                        sheetOf[d][icon].copy(image, xs[d][icon], ys[d][icon]);
+                    } finally {
+                        drawer.releaseImage(image);
+                    }
+                }
+                return null;
+            });
+        }
+        int failed = invokeAll(renders, i -> "couldn't render icon " + names.get(i), result);
+        if (failed < 0) {
+            result.addError("interrupted while rendering icons: no sheet was written");
+            return result;
+        }
+        if (failed > 0) {
+            result.addError(failed + " icons couldn't be rendered: no sheet was written");
+            return result;
+        }
+        result.iconCount = count * sizes.length;
+
+        List<Callable<Void>> saves = new ArrayList<>();
+        for (Sheet sheet : sheets) {
+            saves.add(() -> {
+                File file = new File(outDir, sheet.fileName);
+                file.getParentFile().mkdirs();
+                try {
+                    Files.write(file.toPath(), pngEncoder.encode(sheet.image));
+                    result.addSheet(file);
+                } catch (IOException ioe) {
+                    result.addError("couldn't write " + file.getPath() + ": " + ioe.getMessage());
+                }
+                sheet.image = null;
+                return null;
+            });
+        }
+        if (invokeAll(saves, i -> "couldn't write " + new File(outDir,
+                sheets.get(i).fileName).getPath(), result) < 0) {
+            result.addError("interrupted while writing sheets: index was not written");
+            return result;
+        }
+
+        File index = new File(outDir, atlasName
+                + (indexFormat == INDEX_JSON ? ".json" : ".csv"));
+        try (PrintWriter pw = new PrintWriter(index, StandardCharsets.UTF_8.name())) {
+            if (indexFormat == INDEX_JSON) {
+                writeJson(pw, sheets, names, sizes, pathNames, sheetOf, xs, ys, atlasName);
+            } else {
+                writeCsv(pw, names, sizes, pathNames, sheetOf, xs, ys);
+            }
+            if (pw.checkError()) {
+                throw new IOException("write failed");
+            }
+            result.index = index;
+        } catch (IOException ioe) {
+            result.addError("couldn't write " + index.getPath() + ": " + ioe.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Runs tasks on pool and waits for all of them. A task that fails doesn't
+     * stop the others: its failure is added to result errors.
+     *
+     * @param tasks tasks.
+     * @param what describes the work of a task, by task index, for errors.
+     * @param result result to add errors to.
+     * @return number of failed tasks, or -1 if interrupted while waiting. In
+     * this case, tasks not yet done are cancelled and the interrupt status
+     * is kept.
+     */
+    private int invokeAll(List<Callable<Void>> tasks, IntFunction<String> what, Result result) {
+        int failed = 0;
+        try {
+            List<Future<Void>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException ee) {
+                    result.addError(what.apply(i) + ": " + ee.getCause());
+                    failed++;
+                }
+            }
+            return failed;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    /**
+     * Writes JSON index: atlas name, padding, list of sheets and list of
+     * icons, each with its sheet number in list of sheets.
+     *
+     * @param pw writer.
+     * @param sheets all sheets.
+     * @param names icon names.
+     * @param sizes icon sizes, by density.
+     * @param pathNames density directories.
+     * @param sheetOf sheet of each icon, by density.
+     * @param xs x-position of each icon, by density.
+     * @param ys y-position of each icon, by density.
+     * @param atlasName atlas name.
+     */
+    private void writeJson(PrintWriter pw, List<Sheet> sheets, List<String> names,
+            int[] sizes, String[] pathNames, Sheet[][] sheetOf, int[][] xs, int[][] ys,
+            String atlasName) {
+        pw.println("{");
+        pw.println("  \"atlas\": " + quote(atlasName) + ",");
+        pw.println("  \"padding\": " + padding + ",");
+        pw.println("  \"sheets\": [");
+        for (int k = 0; k < sheets.size(); k++) {
+            Sheet s = sheets.get(k);
+            pw.println("    {\"density\": " + quote(pathNames[s.density]) + ", \"size\": " + s.size
+                    + ", \"file\": " + quote(s.fileName) + ", \"width\": " + s.width
+                    + ", \"height\": " + s.height + "}" + (k + 1 < sheets.size() ? "," : ""));
+        }
+        pw.println("  ],");
+        pw.println("  \"icons\": [");
+        for (int i = 0; i < names.size(); i++) {
+            for (int d = 0; d < sizes.length; d++) {
+                boolean last = i + 1 == names.size() && d + 1 == sizes.length;
+                pw.println("    {\"name\": " + quote(names.get(i)) + ", \"density\": "
+                        + quote(pathNames[d]) + ", \"sheet\": " + sheetOf[d][i].number
+                        + ", \"x\": " + xs[d][i] + ", \"y\": " + ys[d][i]
+                        + ", \"width\": " + sizes[d] + ", \"height\": " + sizes[d] + "}"
+                        + (last ? "" : ","));
+            }
+        }
+        pw.println("  ]");
+        pw.println("}");
+    }
+
+    /**
+     * Writes CSV index, with a header line and one line for each icon and
+     * density.
+     *
+     * @param pw writer.
+     * @param names icon names.
+     * @param sizes icon sizes, by density.
+     * @param pathNames density directories.
+     * @param sheetOf sheet of each icon, by density.
+     * @param xs x-position of each icon, by density.
+     * @param ys y-position of each icon, by density.
+     */
+    private static void writeCsv(PrintWriter pw, List<String> names, int[] sizes,
+            String[] pathNames, Sheet[][] sheetOf, int[][] xs, int[][] ys) {
+        pw.print("name,density,file,x,y,width,height\r\n");
+        for (int i = 0; i < names.size(); i++) {
+            for (int d = 0; d < sizes.length; d++) {
+                pw.print(csv(names.get(i)) + "," + pathNames[d] + "," + csv(sheetOf[d][i].fileName)
+                        + "," + xs[d][i] + "," + ys[d][i] + "," + sizes[d] + "," + sizes[d]
+                        + "\r\n");
+            }
+        }
+    }
+
+    /**
+     * Quotes a JSON string.
+     *
+     * @param s string.
+     * @return quoted and escaped string.
+     */
+    static String quote(String s) {
+        StringBuilder b = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                b.append('\\').append(c);
+            } else if (c < 0x20) {
+                b.append(String.format("\\u%04x", (int) c));
+            } else {
+                b.append(c);
+            }
+        }
+        return b.append('"').toString();
+    }
+
+    /**
+     * Quotes a CSV field if needed.
+     *
+     * @param s field.
+     * @return field, quoted if it has commas, quotes or line breaks.
+     */
+    static String csv(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0
+                && s.indexOf('\r') < 0) {
+            return s;
+        }
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * One sheet of one density.
+     */
+    private static final class Sheet {
+
+        /**
+         * Density index in {@code IconDrawer.getSizes()}.
+         */
+        private final int density;
+
+        /**
+         * Icon size, in pixels.
+         */
+        private final int size;
+
+        /**
+         * Sheet file name, relative to output directory.
+         */
+        private final String fileName;
+
+        /**
+         * Sheet width, in pixels.
+         */
+        private final int width;
+
+        /**
+         * Sheet height, in pixels.
+         */
+        private final int height;
+
+        /**
+         * Sheet number in index, among sheets of all densities.
+         */
+        private final int number;
+
+        /**
+         * Sheet pixels, or null once saved.
+         */
+        private BufferedImage image;
+
+        /**
+         * Constructor. Builds a transparent sheet.
+         *
+         * @param density density index.
+         * @param size icon size, in pixels.
+         * @param number sheet number in index.
+         * @param fileName file name, relative to output directory.
+         * @param width sheet width, in pixels.
+         * @param height sheet height, in pixels.
+         */
+        private Sheet(int density, int size, int number, String fileName, int width,
+                int height) {
+            this.density = density;
+            this.size = size;
+            this.number = number;
+            this.fileName = fileName;
+            this.width = width;
+            this.height = height;
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        /**
+         * Copies an icon into its cell. Cells don't overlap, so icons are
+         * copied concurrently.
+         *
+         * @param icon icon image, of type {@code TYPE_INT_ARGB} and not a
+         * subimage.
+         * @param x x-position of cell.
+         * @param y y-position of cell.
+         */
+        private void copy(BufferedImage icon, int x, int y) {
+            int[] src = ((DataBufferInt) icon.getRaster().getDataBuffer()).getData();
+            int[] dst = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for (int row = 0; row < size; row++) {
+                System.arraycopy(src, row * size, dst, (y + row) * width + x, size);
+            }
+        }
+    }
+
+    /**
+     * Files saved by an export and errors found.
+     */
+    public static class Result {
+
+        /**
+         * Saved sheet files.
+         */
+        private final List<File> sheets = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * Errors writing sheets or index.
+         */
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * Saved index file, or null if it couldn't be written.
+         */
+        private File index;
+
+        /**
+         * Number of icons placed in sheets, of all densities.
+         */
+        private int iconCount;
+
+        /**
+         * Adds a saved sheet.
+         *
+         * @param file sheet file.
+         */
+        private void addSheet(File file) {
+            sheets.add(file);
+        }
+
+        /**
+         * Adds an error.
+         *
+         * @param error error message.
+         */
+        private void addError(String error) {
+            errors.add(error);
+        }
+
+        /**
+         * Returns saved sheet files.
+         *
+         * @return sheet files, in the order they were saved.
+         */
+        public List<File> getSheets() {
+            return new ArrayList<>(sheets);
+        }
+
+        /**
+         * Returns saved index file.
+         *
+         * @return index file, or null if it couldn't be written.
+         */
+        public File getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns number of icons placed in sheets.
+         *
+         * @return number of icons, of all densities.
+         */
+        public int getIconCount() {
+            return iconCount;
+        }
+
+        /**
+         * Returns errors writing sheets or index.
+         *
+         * @return error messages, empty if all files were saved.
+         */
+        public List<String> getErrors() {
+            return new ArrayList<>(errors);
+        }
+
+        /**
+         * Returns true if all sheets and index were saved.
+         *
+         * @return true if all files were saved.
+         */
+        public boolean isSaved() {
+            return errors.isEmpty();
+        }
+
+        /**
+         * Prints saved files and errors.
+         *
+         * @param out stream to print to.
+         */
+        void print(PrintStream out) {
+            out.println((isSaved() ? "OK     " : "FAILED ") + "atlas: " + iconCount
+                    + " icons in " + sheets.size() + " sheets, index "
+                    + (index == null ? "not saved" : index.getPath()));
+            for (String error : getErrors()) {
+                out.println("  write error:  " + error);
+            }
+        }
+    }
+}
@@ -0,0 +1,1015 @@
+package drawicon.batch;
+
+import drawicon.drawable.IcbFile;
+import drawicon.drawable.IconDrawer;
+import drawicon.drawable.IconProject;
+import drawicon.drawable.ImagePool;
+import drawicon.drawable.RenderProfile;
+import drawicon.drawable.SaveResult;
+import drawicon.image.PngEncoder;
+import drawicon.metrics.IconMetrics;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.management.ObjectName;
+
+/**
+ * Renders icx files without a display. Each icx file is read by its own
+ * {@code IconDrawer} and all its icons are saved in the output directory,
+ * under the usual mipmap subdirectories, with the icx file name and png
+ * extension. Files and icon sizes are rendered on a work-stealing pool, so
+ * many small files and a few large ones keep all processors busy. Project
+ * files, with icp extension, hold many icons (see {@code IconProject}): each
+ * one is parsed once and all sizes of all its icons are saved as tasks of
+ * the same pool, each icon named after its header.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -jar DrawIcon.jar [-o resDir] [-t threads] [-s] [-r size [-d]]
+ *     [-c fastest|default|smallest] [-q] [-m] [-p count] [-b]
+ *     [-a name [-i json|csv]] file.icx|file.icb|file.icp|dir ...
+ *   -o resDir    directory to save icons (default: directory of each icx file)
+ *   -t threads   number of worker threads (default: number of processors)
+ *   -s           strict: exit with error if some icx line has errors
+ *   -r size      render each file once at size and downscale smaller icons
+ *   -d           with -r, print difference of each resampled icon from
+ *                direct rendering
+ *   -c mode      PNG compression: fastest (previews), default or smallest
+ *                (release builds)
+ *   -q           quantize icons with more than 256 colors, so all icons are
+ *                saved as indexed PNG (lossy)
+ *   -m           print parse, render, encode and write metrics; while
+ *                running, they are also a JMX MBean
+ *   -p count     profile largest icon of each file and print its count
+ *                slowest elements, with their icx lines
+ *   -b           keep a compiled icb file next to each icx file, and load it
+ *                instead of parsing the icx file while it is current
+ *   -a name      save all icons of each density in atlas sheets named after
+ *                name, with an index of their rectangles, instead of one
+ *                file per icon (not with -r); see {@code AtlasExporter}
+ *   -i format    with -a, index format: json (default) or csv
+ * </pre>
+ * Directories are searched recursively for files with icx or icp extension.
+ * Icb files given on command line are loaded as they are. Options -b and -p
+ * apply to icx files only.
+ *
+ * @author thiago
+ */
+public class BatchRenderer {
+
+    /**
+     * Exit status if all icons were saved.
+     */
+    public static final int OK = 0;
+
+    /**
+     * Exit status if some file couldn't be read or some icon couldn't be saved,
+     * or, in strict mode, if some file has errors.
+     */
+    public static final int FAILED = 1;
+
+    /**
+     * Exit status if command line is not valid.
+     */
+    public static final int USAGE = 2;
+
+    /**
+     * Directory to save icons, or null to save them next to each icx file.
+     */
+    private final File outDir;
+
+    /**
+     * Pool that reads files and saves icons.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * Size of master image icons are downscaled from, or zero to render each
+     * icon directly.
+     */
+    private int resampleSize;
+
+    /**
+     * If true, resampled icons are compared with directly rendered ones.
+     */
+    private boolean resampleCheck;
+
+    /**
+     * Encoder used to save icons.
+     */
+    private PngEncoder pngEncoder = new PngEncoder();
+
+    /**
+     * Images shared by drawers of all files, so that icons of each file
+     * reuse the rasters of previous files.
+     */
+    private final ImagePool imagePool = new ImagePool(ImagePool.DEFAULT_MAX_BYTES);
+
+    /**
+     * Metrics shared by drawers of all files, or null to measure nothing.
+     */
+    private IconMetrics metrics;
+
+    /**
+     * Number of slowest elements of each file to report, or zero to
+     * profile nothing.
+     */
+    private int hotElements;
+
+    /**
+     * If true, icx files are loaded from compiled icb files next to them.
+     */
+    private boolean compiled;
+
+    /**
+     * Atlas name, or null to save one file per icon.
+     */
+    private String atlasName;
+
+    /**
+     * Atlas index format, one of {@code AtlasExporter.INDEX_} constants.
+     */
+    private int atlasIndex = AtlasExporter.INDEX_JSON;
+
+    /**
+     * Constructor. Builds a batch renderer.
+     *
+     * @param outDir directory to save icons, or null to save them in directory
+     * of each icx file.
+     * @param threads number of worker threads.
+     */
+    public BatchRenderer(File outDir, int threads) {
+        this.outDir = outDir;
+        this.pool = Executors.newWorkStealingPool(threads);
+    }
+
+    /**
+     * Sets resampling of icons. See {@code IconDrawer.setResampleSize()} and
+     * {@code IconDrawer.setResampleCheck()}.
+     *
+     * @param size master image size, or zero to render each icon directly.
+     * @param check if true, resampled icons are compared with directly
+     * rendered ones.
+     */
+    public void setResample(int size, boolean check) {
+        resampleSize = size;
+        resampleCheck = check;
+    }
+
+    /**
+     * Sets encoder used to save icons.
+     *
+     * @param encoder PNG encoder.
+     */
+    public void setPngEncoder(PngEncoder encoder) {
+        pngEncoder = encoder;
+    }
+
+    /**
+     * Sets metrics that drawers of all files report to.
+     *
+     * @param metrics metrics, or null to measure nothing.
+     */
+    public void setMetrics(IconMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets profiling of files. The largest icon of each file is rendered
+     * again, timing each element, after icons are saved.
+     *
+     * @param count number of slowest elements of each file to report, or
+     * zero to profile nothing.
+     */
+    public void setHotElements(int count) {
+        hotElements = count;
+    }
+
+    /**
+     * Sets use of compiled icb files. Each icx file is loaded from the icb
+     * file next to it if that was compiled from its current contents;
+     * otherwise icx file is parsed and icb file is compiled again.
+     *
+     * @param compiled true to use icb files.
+     */
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+    }
+
+    /**
+     * Sets atlas export. Files are read but their icons aren't saved by
+     * {@code render()}; they are saved in atlas sheets by
+     * {@code exportAtlas()} instead.
+     *
+     * @param name atlas name, or null to save one file per icon.
+     * @param indexFormat {@code AtlasExporter.INDEX_JSON} or
+     * {@code AtlasExporter.INDEX_CSV}.
+     */
+    public void setAtlas(String name, int indexFormat) {
+        atlasName = name;
+        atlasIndex = indexFormat;
+    }
+
+    /**
+     * Runs batch renderer from command line and exits.
+     *
+     * @param args command line arguments.
+     */
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs batch renderer from command line.
+     *
+     * @param args command line arguments.
+     * @param out stream to print file results and report.
+     * @param err stream to print errors.
+     * @return exit status: {@code OK}, {@code FAILED} or {@code USAGE}.
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        System.setProperty("java.awt.headless", "true");
+        File outDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean strict = false;
+        int resampleSize = 0;
+        boolean resampleCheck = false;
+        PngEncoder encoder = new PngEncoder();
+        boolean quantize = false;
+        boolean measure = false;
+        int hotElements = 0;
+        boolean compiled = false;
+        String atlasName = null;
+        int atlasIndex = AtlasExporter.INDEX_JSON;
+        List<String> paths = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-o":
+                        outDir = new File(args[++i]);
+                        break;
+                    case "-t":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-s":
+                        strict = true;
+                        break;
+                    case "-r":
+                        resampleSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "-d":
+                        resampleCheck = true;
+                        break;
+                    case "-c":
+                        encoder = encoder(args[++i]);
+                        break;
+                    case "-q":
+                        quantize = true;
+                        break;
+                    case "-m":
+                        measure = true;
+                        break;
+                    case "-p":
+                        hotElements = Integer.parseInt(args[++i]);
+                        break;
+                    case "-b":
+                        compiled = true;
+                        break;
+                    case "-a":
+                        atlasName = args[++i];
+                        break;
+                    case "-i":
+                        atlasIndex = indexFormat(args[++i]);
+                        break;
+                    default:
+                        paths.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            paths.clear();
+        }
+        int largest = new IconDrawer().getLargestSize();
+        if (paths.isEmpty() || threads < 1 || hotElements < 0
+                || (resampleSize != 0 && resampleSize < largest)
+                || (resampleCheck && resampleSize == 0)
+                || (atlasName != null && (atlasName.isEmpty() || resampleSize != 0))) {
+            err.println("Usage: java -jar DrawIcon.jar [-o resDir] [-t threads] [-s]"
+                    + " [-r size [-d]] [-c fastest|default|smallest] [-q] [-m] [-p count] [-b]"
+                    + " [-a name [-i json|csv]] file.icx|file.icb|file.icp|dir ...");
+            err.println("  -r size must be at least " + largest);
+            return USAGE;
+        }
+        if (outDir != null && !outDir.isDirectory() && !outDir.mkdirs()) {
+            err.println("Error: couldn't create directory " + outDir.getPath());
+            return FAILED;
+        }
+
+        int status = OK;
+        for (String path : paths) {
+            if (!new File(path).exists()) {
+                err.println("Error: " + path + " doesn't exist.");
+                status = FAILED;
+            }
+        }
+        List<File> files = collect(paths);
+        BatchRenderer renderer = new BatchRenderer(outDir, threads);
+        renderer.setResample(resampleSize, resampleCheck);
+        renderer.setHotElements(hotElements);
+        renderer.setCompiled(compiled);
+        renderer.setAtlas(atlasName, atlasIndex);
+        renderer.setPngEncoder(quantize
+                ? encoder.withPalette(PngEncoder.PALETTE_QUANTIZE) : encoder);
+        IconMetrics metrics = measure ? new IconMetrics() : null;
+        ObjectName metricsName = null;
+        if (metrics != null) {
+            renderer.setMetrics(metrics);
+            metricsName = metrics.register("batch");
+        }
+        long start = System.nanoTime();
+        List<FileResult> results;
+        AtlasExporter.Result atlas = null;
+        try {
+            results = renderer.render(files);
+            if (atlasName != null) {
+                atlas = renderer.exportAtlas(results);
+            }
+        } finally {
+            renderer.shutdown();
+            if (metricsName != null) {
+                IconMetrics.unregister(metricsName);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int icons = 0;
+        int withErrors = 0;
+        for (FileResult r : results) {
+            r.print(out, hotElements);
+            icons += r.getSavedIcons();
+            if (r.hasErrors()) {
+                withErrors++;
+            }
+            if (!r.isSaved() || (strict && r.hasErrors())) {
+                status = FAILED;
+            }
+        }
+        if (atlas != null) {
+            atlas.print(out);
+            icons = atlas.getIconCount();
+            if (!atlas.isSaved()) {
+                status = FAILED;
+            }
+        }
+        double seconds = elapsed / 1e9;
+        out.println(String.format(Locale.ROOT,
+                "%d files, %d icons, %d files with errors in %.2f s"
+                + " (%.1f files/s, %.1f icons/s, %d threads)",
+                results.size(), icons, withErrors, seconds,
+                results.size() / seconds, icons / seconds, threads));
+        if (metrics != null) {
+            printMetrics(metrics, out);
+        }
+        return status;
+    }
+
+    /**
+     * Prints metrics totals. Times are summed over all threads, so they can
+     * exceed elapsed time.
+     *
+     * @param metrics metrics of all files.
+     * @param out stream to print to.
+     */
+    static void printMetrics(IconMetrics metrics, PrintStream out) {
+        out.println(String.format(Locale.ROOT,
+                "parse:  %d texts in %.1f ms, elements %s, %d syntax errors, %d not elements",
+                metrics.getParseCount(), metrics.getParseNanos() / 1e6,
+                metrics.getElementCounts(), metrics.getSyntaxErrorCount(),
+                metrics.getNotElementCount()));
+        StringBuilder bySize = new StringBuilder();
+        Map<Integer, Long> counts = metrics.getRenderCountBySize();
+        for (Map.Entry<Integer, Long> e : metrics.getRenderNanosBySize().entrySet()) {
+            bySize.append(String.format(Locale.ROOT, " %dpx %d in %.1f ms;",
+                    e.getKey(), counts.get(e.getKey()), e.getValue() / 1e6));
+        }
+        out.println(String.format(Locale.ROOT, "render: %d images in %.1f ms:%s",
+                metrics.getRenderCount(), metrics.getRenderNanos() / 1e6, bySize));
+        out.println(String.format(Locale.ROOT,
+                "encode: %d icons in %.1f ms; write: %d files, %d bytes in %.1f ms,"
+                + " %d failures",
+                metrics.getEncodeCount(), metrics.getEncodeNanos() / 1e6,
+                metrics.getWriteCount(), metrics.getBytesWritten(),
+                metrics.getWriteNanos() / 1e6, metrics.getWriteFailureCount()));
+    }
+
+    /**
+     * Renders icx files and saves their icons. Icon names are checked before
+     * icons are saved: a file whose icon would overwrite an icon of an
+     * earlier file, in the same directory or atlas, fails without being
+     * saved. Names are compared ignoring case, since file systems may do so.
+     *
+     * @param files icx files.
+     * @return results, in the same order as {@code files}. A file whose task
+     * failed unexpectedly gets a failed result with the cause. If the calling
+     * thread is interrupted, files not yet rendered get a result that failed
+     * with an {@code InterruptedIOException}.
+     */
+    public List<FileResult> render(List<File> files) {
+        FileResult[] results = new FileResult[files.size()];
+        Map<String, File> iconNames = new HashMap<>();
+        List<Callable<FileResult>> tasks = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            if (!isProject(file)) {
+                String clash = claimNames(file,
+                        Collections.singletonList(iconName(file, "")), iconNames);
+                if (clash != null) {
+                    results[i] = new FileResult(file);
+                    results[i].failure = clash;
+                    continue;
+                }
+            }
+            indexes.add(i);
+            tasks.add(() -> render(file, iconNames));
+        }
+        try {
+            List<Future<FileResult>> futures = pool.invokeAll(tasks);
+            for (int t = 0; t < futures.size(); t++) {
+                int i = indexes.get(t);
+                try {
+                    results[i] = futures.get(t).get();
+                } catch (ExecutionException ee) {
+                    results[i] = new FileResult(files.get(i));
+                    results[i].failure = "couldn't render file: " + ee.getCause();
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) {
+                    results[i] = new FileResult(files.get(i));
+                    results[i].readError = new InterruptedIOException("Interrupted while rendering files");
+                }
+            }
+        }
+        return new ArrayList<>(Arrays.asList(results));
+    }
+
+    /**
+     * Reserves icon names of a file, unless an icon of another file already
+     * has one of them. Names are reserved in output directory of the file,
+     * or in the atlas with atlas export.
+     *
+     * @param file icx or project file.
+     * @param names icon names, without extension.
+     * @param iconNames names reserved so far, by key, with the file that
+     * reserved each one. It is shared by tasks, which lock it.
+     * @return null if names were reserved, or a message naming the icon that
+     * is already used.
+     */
+    private String claimNames(File file, List<String> names, Map<String, File> iconNames) {
+        synchronized (iconNames) {
+            for (String name : names) {
+                File other = iconNames.get(iconKey(file, name));
+                if (other != null) {
+                    return "icon " + name + " would overwrite icon of " + other.getPath();
+                }
+            }
+            for (String name : names) {
+                iconNames.put(iconKey(file, name), file);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns key of an icon name: its name in lower case, in output
+     * directory of its file unless icons go to an atlas.
+     *
+     * @param file icx or project file.
+     * @param name icon name, without extension.
+     * @return key of icon name.
+     */
+    private String iconKey(File file, String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        return atlasName != null ? key
+                : outputDir(file).getAbsolutePath() + File.separator + key;
+    }
+
+    /**
+     * Returns directory where icons of a file are saved: output directory,
+     * or directory of the file if there is none.
+     *
+     * @param file icx or project file.
+     * @return output directory of file.
+     */
+    private File outputDir(File file) {
+        return outDir != null ? outDir : file.getAbsoluteFile().getParentFile();
+    }
+
+    /**
+     * Returns true if a file is a project file, by its extension.
+     *
+     * @param file file.
+     * @return true if file has project extension.
+     */
+    private static boolean isProject(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(IconProject.EXTENSION);
+    }
+
+    /**
+     * Saves icons of read files in atlas sheets and index, in output
+     * directory, or in current directory if there is none. Icons of a
+     * project file are named after their headers. Files that couldn't be
+     * read, or whose icon names were already used, are left out.
+     *
+     * @param results results of {@code render()} with atlas export set.
+     * @return atlas sheets, index and errors.
+     */
+    public AtlasExporter.Result exportAtlas(List<FileResult> results) {
+        if (atlasName == null) {
+            throw new IllegalStateException("Atlas export is not set");
+        }
+        List<IconDrawer> drawers = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (FileResult r : results) {
+            if (r.drawer != null) {
+                drawers.add(r.drawer);
+                names.add(iconName(r.file, ""));
+                r.drawer = null;
+            } else if (r.project != null) {
+                drawers.addAll(r.project.getDrawers());
+                names.addAll(r.project.getNames());
+                r.project = null;
+            }
+        }
+        AtlasExporter exporter = new AtlasExporter(pool);
+        exporter.setIndexFormat(atlasIndex);
+        exporter.setPngEncoder(pngEncoder);
+        return exporter.export(drawers, names, outDir != null ? outDir : new File("."),
+                atlasName);
+    }
+
+    /**
+     * Renders an icx file and saves its icons. Large files are parsed in
+     * chunks and icon sizes are saved as separate tasks, all on this
+     * renderer's pool. With atlas export, icons aren't saved and the drawer
+     * is kept in the result for {@code exportAtlas()}.
+     *
+     * @param file icx file.
+     * @param iconNames icon names reserved so far, see {@code claimNames()}.
+     * Names of icx files are reserved before their tasks start.
+     * @return file result.
+     */
+    private FileResult render(File file, Map<String, File> iconNames) {
+        if (isProject(file)) {
+            return renderProject(file, iconNames);
+        }
+        FileResult result = new FileResult(file);
+        IconDrawer drawer = new IconDrawer();
+        configure(drawer);
+        try {
+            read(drawer, file.toPath());
+        } catch (IOException ioe) {
+            result.readError = ioe;
+            return result;
+        }
+        result.elementCount = drawer.getElementCount();
+        result.syntaxErrors = drawer.getSyntaxErrorLines();
+        result.notElements = drawer.getNotElementLines();
+        if (atlasName != null) {
+            result.drawer = drawer;
+        } else {
+            result.saveResult = drawer.save(outputDir(file), iconName(file), pool);
+        }
+        int[] sizes = drawer.getSizes();
+        result.largestSize = sizes[sizes.length - 1];
+        result.removedElements = drawer.getRemovedElementCount(result.largestSize);
+        if (hotElements > 0) {
+            result.profile = drawer.profile(result.largestSize);
+        }
+        return result;
+    }
+
+    /**
+     * Reads a project file and saves icons of all its icons. Sizes of all
+     * icons are saved as separate tasks on this renderer's pool, largest
+     * first. With atlas export, icons aren't saved and the project is kept
+     * in the result for {@code exportAtlas()}.
+     *
+     * @param file project file.
+     * @param iconNames icon names reserved so far, see {@code claimNames()}.
+     * Icon names of the project are reserved once it is read; if one of them
+     * is already used, no icon of the project is saved.
+     * @return file result.
+     */
+    private FileResult renderProject(File file, Map<String, File> iconNames) {
+        FileResult result = new FileResult(file);
+        IconProject project = new IconProject();
+        project.setMetricsSink(metrics);
+        try {
+            project.read(file.toPath());
+        } catch (IOException ioe) {
+            result.readError = ioe;
+            return result;
+        }
+        for (IconDrawer drawer : project.getDrawers()) {
+            configure(drawer);
+        }
+        result.iconCount = project.getIconCount();
+        result.elementCount = project.getElementCount();
+        result.syntaxErrors = project.getSyntaxErrorLines();
+        result.notElements = project.getNotElementLines();
+        result.failure = claimNames(file, project.getNames(), iconNames);
+        if (result.failure != null) {
+            return result;
+        }
+        if (atlasName != null) {
+            result.project = project;
+        } else {
+            result.saveResult = project.save(outputDir(file), pool);
+        }
+        return result;
+    }
+
+    /**
+     * Applies settings of this renderer to a drawer.
+     *
+     * @param drawer drawer of a file or of a project icon.
+     */
+    private void configure(IconDrawer drawer) {
+        drawer.setResampleSize(resampleSize);
+        drawer.setResampleCheck(resampleCheck);
+        drawer.setPngEncoder(pngEncoder);
+        drawer.setImagePool(imagePool);
+        drawer.setMetricsSink(metrics);
+    }
+
+    /**
+     * Reads elements of a file. Icb files are loaded; icx files are parsed
+     * in chunks on this renderer's pool, unless compiled files are used. In
+     * that case, icx file is read once: its icb file is loaded if it was
+     * compiled from these bytes; otherwise the bytes are compiled, loaded
+     * and written as new icb file, so it always matches the rendered scene.
+     *
+     * @param drawer drawer to read elements.
+     * @param path icx or icb file.
+     * @throws IOException if file can't be read.
+     */
+    private void read(IconDrawer drawer, Path path) throws IOException {
+        if (path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(IcbFile.EXTENSION)) {
+            drawer.readCompiled(path);
+            return;
+        }
+        if (!compiled) {
+            drawer.read(path, pool);
+            return;
+        }
+        byte[] source = Files.readAllBytes(path);
+        Path icb = path.resolveSibling(iconName(path.toFile(), IcbFile.EXTENSION));
+        try {
+            byte[] data = Files.readAllBytes(icb);
+            if (IcbFile.isCurrent(data, source)) {
+                drawer.readCompiled(data);
+                return;
+            }
+        } catch (IOException ioe) {
+            // Missing or unreadable icb file is compiled again
+        }
+        byte[] data = IcbFile.compile(source);
+        drawer.readCompiled(data);
+        try {
+            Files.write(icb, data);
+        } catch (IOException ioe) {
+            // Icb file is only a cache: icx file is compiled again next time
+        }
+    }
+
+    /**
+     * Stops worker threads.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Returns PNG encoder for a compression mode name.
+     *
+     * @param mode fastest, default or smallest.
+     * @return PNG encoder.
+     */
+    static PngEncoder encoder(String mode) {
+        switch (mode) {
+            case "fastest":
+                return PngEncoder.fastest();
+            case "default":
+                return new PngEncoder();
+            case "smallest":
+                return PngEncoder.smallest();
+            default:
+                throw new IllegalArgumentException("Unknown compression mode: " + mode);
+        }
+    }
+
+    /**
+     * Returns atlas index format for a format name.
+     *
+     * @param format json or csv.
+     * @return {@code AtlasExporter.INDEX_JSON} or
+     * {@code AtlasExporter.INDEX_CSV}.
+     */
+    static int indexFormat(String format) {
+        switch (format) {
+            case "json":
+                return AtlasExporter.INDEX_JSON;
+            case "csv":
+                return AtlasExporter.INDEX_CSV;
+            default:
+                throw new IllegalArgumentException("Unknown index format: " + format);
+        }
+    }
+
+    /**
+     * Returns icon file name for an icx file: icx file name with png extension.
+     *
+     * @param file icx file.
+     * @return icon file name.
+     */
+    static String iconName(File file) {
+        return iconName(file, ".png");
+    }
+
+    /**
+     * Returns name of a file with the same name of an icx file and other
+     * extension.
+     *
+     * @param file icx file.
+     * @param extension new extension, with dot.
+     * @return file name.
+     */
+    static String iconName(File file, String extension) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + extension;
+    }
+
+    /**
+     * Lists icx files from command line paths. Files are taken as they are;
+     * directories are searched recursively for files with icx or icp
+     * extension.
+     *
+     * Paths that don't exist are skipped.
+     *
+     * @param paths files and directories.
+     * @return icx files, sorted by path inside each directory.
+     */
+    static List<File> collect(List<String> paths) {
+        List<File> files = new ArrayList<>();
+        for (String path : paths) {
+            File f = new File(path);
+            if (f.isDirectory()) {
+                collectDir(f, files);
+            } else if (f.isFile()) {
+                files.add(f);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Adds icx and project files under a directory.
+     *
+     * @param dir directory to search.
+     * @param files list to add files to.
+     */
+    private static void collectDir(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectDir(child, files);
+            } else {
+                String name = child.getName().toLowerCase(Locale.ROOT);
+                if (name.endsWith(".icx") || name.endsWith(IconProject.EXTENSION)) {
+                    files.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Result of rendering one icx file.
+     */
+    public static class FileResult {
+
+        /**
+         * Icx file.
+         */
+        private final File file;
+
+        /**
+         * Error reading file, or null if file was read.
+         */
+        private IOException readError;
+
+        /**
+         * Reason none of file icons was saved, other than a read error, such
+         * as an icon name already used by another file or an unexpected
+         * exception, or null.
+         */
+        private String failure;
+
+        /**
+         * Number of icons of a project file, or zero for icx files.
+         */
+        private int iconCount;
+
+        /**
+         * Number of drawable elements read.
+         */
+        private int elementCount;
+
+        /**
+         * Largest icon size, in pixels.
+         */
+        private int largestSize;
+
+        /**
+         * Number of elements left out of largest icon by scene optimization.
+         */
+        private int removedElements;
+
+        /**
+         * Lines with syntax errors.
+         */
+        private String[] syntaxErrors = new String[0];
+
+        /**
+         * Lines not recognized as drawable elements.
+         */
+        private String[] notElements = new String[0];
+
+        /**
+         * Result of saving icons, or null if file wasn't read or its icons
+         * go to an atlas.
+         */
+        private SaveResult saveResult;
+
+        /**
+         * Drawer with elements read, kept until icons are saved in an atlas,
+         * or null.
+         */
+        private IconDrawer drawer;
+
+        /**
+         * Project with icons read, kept until they are saved in an atlas, or
+         * null.
+         */
+        private IconProject project;
+
+        /**
+         * Profile of largest icon, or null if it wasn't profiled.
+         */
+        private RenderProfile profile;
+
+        /**
+         * Constructor. Builds an empty file result.
+         *
+         * @param file icx file.
+         */
+        FileResult(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Returns icx file.
+         *
+         * @return icx file.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns number of elements left out of largest icon, because they
+         * don't change any of its pixels.
+         *
+         * @return number of elements left out.
+         */
+        public int getRemovedElements() {
+            return removedElements;
+        }
+
+        /**
+         * Returns profile of largest icon.
+         *
+         * @return profile, or null if file wasn't profiled.
+         */
+        public RenderProfile getProfile() {
+            return profile;
+        }
+
+        /**
+         * Returns true if file was read and all its icons were saved. Icons
+         * that go to an atlas are saved by {@code exportAtlas()}.
+         *
+         * @return true if all icons were saved.
+         */
+        public boolean isSaved() {
+            return readError == null && failure == null && (saveResult == null || saveResult.isSaved());
+        }
+
+        /**
+         * Returns true if some line in file has errors.
+         *
+         * @return true if some line has errors.
+         */
+        public boolean hasErrors() {
+            return syntaxErrors.length > 0 || notElements.length > 0;
+        }
+
+        /**
+         * Returns number of saved icons.
+         *
+         * @return number of saved icons.
+         */
+        public int getSavedIcons() {
+            return saveResult == null ? 0
+                    : saveResult.getEntries().size() - saveResult.getFailures().size();
+        }
+
+        /**
+         * Prints a summary of this result, followed by error lines and, if
+         * profiled, slowest elements.
+         *
+         * @param out stream to print to.
+         * @param hotElements number of slowest elements to print.
+         */
+        void print(PrintStream out, int hotElements) {
+            if (readError != null) {
+                out.println("FAILED " + file.getPath() + ": couldn't read file: "
+                        + readError.getMessage());
+                return;
+            }
+            if (failure != null) {
+                out.println("FAILED " + file.getPath() + ": " + failure);
+                return;
+            }
+            out.println((isSaved() ? "OK     " : "FAILED ") + file.getPath() + ": "
+                    + (iconCount > 0 ? iconCount + " icons, " : "")
+                    + elementCount + " elements, " + syntaxErrors.length
+                    + " syntax errors, " + notElements.length + " not elements");
+            if (removedElements > 0) {
+                out.println("  not drawn:    " + removedElements + " elements change no pixel at "
+                        + largestSize + "x" + largestSize);
+            }
+            for (String line : syntaxErrors) {
+                out.println("  syntax error: " + line);
+            }
+            for (String line : notElements) {
+                out.println("  not element:  " + line);
+            }
+            if (saveResult != null) {
+                for (SaveResult.Entry e : saveResult.getFailures()) {
+                    out.println("  write error:  " + e);
+                }
+                for (SaveResult.Entry e : saveResult.getEntries()) {
+                    if (e.getMaxDifference() >= 0) {
+                        out.println(String.format(Locale.ROOT,
+                                "  resampled:    %dx%d mean difference %.2f, max %d",
+                                e.getSize(), e.getSize(), e.getMeanDifference(),
+                                e.getMaxDifference()));
+                    }
+                }
+            }
+            if (profile != null) {
+                long total = profile.getTotalNanos();
+                for (int i : profile.getHotElements(hotElements)) {
+                    out.println(String.format(Locale.ROOT,
+                            "  hot element:  line %d %s %.3f ms (%.1f%%), %d px at %dx%d",
+                            profile.getLine(i), profile.getType(i), profile.getNanos(i) / 1e6,
+                            total > 0 ? 100.0 * profile.getNanos(i) / total : 0,
+                            profile.getArea(i), largestSize, largestSize));
+                }
+            }
+        }
+    }
+}
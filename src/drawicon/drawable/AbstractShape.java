@@ -44,4 +44,50 @@ public abstract class AbstractShape implements Drawer {
         fillColor = fColor == null ? Color.WHITE : ColorDic.getColor(fColor);        
     }
 
+    /**
+     * Sets color attributes from already parsed values.
+     * @param draw if true, draws this shape.
+     * @param fill if true, fills this shape.
+     * @param dColor draw color, or null to draw in black.
+     * @param fColor fill color, or null to fill in white.
+     */
+    protected final void setColorAttributes(boolean draw, boolean fill,
+            Color dColor, Color fColor){
+        toDraw = draw;
+        toFill = fill;
+        drawColor = dColor == null ? Color.BLACK : dColor;
+        fillColor = fColor == null ? Color.WHITE : fColor;
+    }
+
+    /**
+     * Adds this shape to a display list. By default, shape is kept as an
+     * element that draws itself; built-in shapes add compiled opcodes.
+     * @param b display list builder.
+     */
+    void compile(DisplayList.Builder b){
+        b.addDrawer(this);
+    }
+
+    /**
+     * Tests if color attributes of this shape are equal to color attributes
+     * of other shape.
+     * @param other shape to compare to.
+     * @return true if both shapes have same color attributes.
+     */
+    protected final boolean colorAttributesEqual(AbstractShape other){
+        return toDraw == other.toDraw && toFill == other.toFill
+                && drawColor.equals(other.drawColor)
+                && fillColor.equals(other.fillColor);
+    }
+
+    /**
+     * Returns a hash code of color attributes of this shape.
+     * @return hash code of color attributes.
+     */
+    protected final int colorAttributesHash(){
+        int h = (toDraw ? 1 : 0) + (toFill ? 2 : 0);
+        h = 31 * h + drawColor.hashCode();
+        return 31 * h + fillColor.hashCode();
+    }
+
 }
@@ -1,5 +1,6 @@
 package drawicon.drawable;
 
+import java.awt.Color;
 import java.awt.Graphics2D;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -43,12 +44,37 @@ public class Circle extends AbstractShape {
             throw new IllegalArgumentException("Circle " + data + " is not a valide Circle element");
         }
 
-        float r = Float.parseFloat(m.group(3));
+        setGeometry(Float.parseFloat(m.group(1)), Float.parseFloat(m.group(2)),
+                Float.parseFloat(m.group(3)));
+        setColorAttributes(m.group(4), m.group(5), m.group(7), m.group(9));
+    }
+
+    /**
+     * Constructor. Builds a circle from already parsed values.
+     * @param x center x-position, in icx coordinates.
+     * @param y center y-position, in icx coordinates.
+     * @param r radius, in icx coordinates.
+     * @param draw if true, draws this circle.
+     * @param fill if true, fills this circle.
+     * @param dColor draw color, or null to draw in black.
+     * @param fColor fill color, or null to fill in white.
+     */
+    Circle(float x, float y, float r, boolean draw, boolean fill,
+            Color dColor, Color fColor) {
+        setGeometry(x, y, r);
+        setColorAttributes(draw, fill, dColor, fColor);
+    }
 
-        xv = (Float.parseFloat(m.group(1)) - r) / 100;
-        yv = (100 - Float.parseFloat(m.group(2)) - r) / 100;
+    /**
+     * Sets circle position and diameter.
+     * @param x center x-position, in icx coordinates.
+     * @param y center y-position, in icx coordinates.
+     * @param r radius, in icx coordinates.
+     */
+    private void setGeometry(float x, float y, float r) {
+        xv = (x - r) / 100;
+        yv = (100 - y - r) / 100;
         l = (2 * r) / 100;
-        setColorAttributes(m.group(4), m.group(5), m.group(7), m.group(9));
     }
 
     @Override
@@ -70,4 +96,33 @@ public class Circle extends AbstractShape {
         }
     }
 
+    @Override
+    void compile(DisplayList.Builder b) {
+        b.addBox(DisplayList.OVAL, xv, yv, l, l, toDraw, toFill, drawColor, fillColor);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+        Circle o = (Circle) obj;
+        return Float.compare(xv, o.xv) == 0
+                && Float.compare(yv, o.yv) == 0
+                && Float.compare(l, o.l) == 0
+                && colorAttributesEqual(o);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = colorAttributesHash();
+        h = 31 * h + Float.floatToIntBits(xv);
+        h = 31 * h + Float.floatToIntBits(yv);
+        h = 31 * h + Float.floatToIntBits(l);
+        return h;
+    }
+
 }
@@ -1,35 +1,34 @@
 package drawicon.drawable;
 
 import java.awt.Color;
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Dictionary that defines colors.
+ * Dictionary that defines colors. All methods can be called by many threads
+ * at once, without locking: named colors are constants, and colors made from
+ * hexadecimal values are kept in a small, bounded cache that is only read and
+ * replaced atomically.
  * @author thiago
  */
 public class ColorDic {
 
     /**
-     * Stores colors and their names.
+     * Number of entries in hexadecimal color cache. Must be a power of two.
      */
-    private static final HashMap<String, Color> colors = new HashMap<>();
+    public static final int CACHE_SIZE = 1024;
 
     /**
-     * Makes common color entries.
+     * Colors made from hexadecimal values, indexed by a hash of their packed
+     * ARGB value. A new color replaces any other color in the same entry.
      */
-    static {
-        colors.put("black", Color.BLACK);
-        colors.put("white", Color.WHITE);
-        colors.put("blue", Color.BLUE);
-        colors.put("red", Color.RED);
-        colors.put("green", Color.GREEN);
-        colors.put("yellow", Color.YELLOW);
-        colors.put("cyan", Color.CYAN);
-        colors.put("magenta", Color.MAGENTA);
-        colors.put("pink", Color.PINK);
-        colors.put("orange", Color.ORANGE);
-        colors.put("gray", Color.GRAY);
-    }
+    private static final AtomicReferenceArray<Color> cache =
+            new AtomicReferenceArray<>(CACHE_SIZE);
+
+    /**
+     * Value returned by {@code parseHex()} for text that isn't a hexadecimal
+     * color. Parsed colors are always opaque, so they are never zero.
+     */
+    static final int NOT_HEX = 0;
 
     private ColorDic() {
 
@@ -44,18 +43,121 @@ public class ColorDic {
      * @return Color with specified color name.
      */
     public static Color getColor(String colorName) {
-        if (colors.containsKey(colorName)) {
-            return colors.get(colorName);
-        } else if(colorName.startsWith("_") && colorName.length() == 7){
-            int red = Integer.parseInt(colorName.substring(1,3), 16);
-            int green = Integer.parseInt(colorName.substring(3,5), 16);
-            int blue = Integer.parseInt(colorName.substring(5), 16);
-            Color c = new Color(red, green, blue);
-            colors.put(colorName, c);
-            return c;
-        } else{
-            return Color.BLACK;
+        return getColor(colorName, 0, colorName.length());
+    }
+
+    /**
+     * Returns a color with name in a range of characters, without copying
+     * them. Names are resolved as in {@code getColor(String)}.
+     * @param text text containing color name.
+     * @param start index of first character of color name.
+     * @param end index after last character of color name.
+     * @return Color with specified color name.
+     */
+    public static Color getColor(CharSequence text, int start, int end) {
+        Color named = namedColor(text, start, end);
+        if (named != null) {
+            return named;
+        }
+        int argb = parseHex(text, start, end);
+        return argb == NOT_HEX ? Color.BLACK : getColor(argb);
+    }
+
+    /**
+     * Returns a color from its packed ARGB value. Colors are cached, so
+     * repeated calls with the same value usually return the same object.
+     * @param argb packed ARGB value, as returned by {@code Color.getRGB()}.
+     * @return Color with specified value.
+     */
+    public static Color getColor(int argb) {
+        int index = ((argb ^ (argb >>> 12)) * 0x9E3779B1) >>> 22 & (CACHE_SIZE - 1);
+        Color c = cache.get(index);
+        if (c == null || c.getRGB() != argb) {
+            c = new Color(argb, true);
+            cache.set(index, c);
+        }
+        return c;
+    }
+
+    /**
+     * Parses an hexadecimal color name: '_' character followed by six
+     * hexadecimal digits.
+     * @param text text containing color name.
+     * @param start index of first character of color name.
+     * @param end index after last character of color name.
+     * @return packed, opaque ARGB value, or {@code NOT_HEX} if text isn't an
+     * hexadecimal color name.
+     */
+    static int parseHex(CharSequence text, int start, int end) {
+        if (end - start != 7 || text.charAt(start) != '_') {
+            return NOT_HEX;
+        }
+        int rgb = 0;
+        for (int i = start + 1; i < end; i++) {
+            int digit = Character.digit(text.charAt(i), 16);
+            if (digit < 0) {
+                return NOT_HEX;
+            }
+            rgb = rgb << 4 | digit;
+        }
+        return 0xFF000000 | rgb;
+    }
+
+    /**
+     * Returns a pre-defined color.
+     * @param text text containing color name.
+     * @param start index of first character of color name.
+     * @param end index after last character of color name.
+     * @return pre-defined color, or null if name isn't a pre-defined color.
+     */
+    private static Color namedColor(CharSequence text, int start, int end) {
+        if (start == end) {
+            return null;
+        }
+        switch (text.charAt(start)) {
+            case 'b':
+                return is(text, start, end, "black") ? Color.BLACK
+                        : is(text, start, end, "blue") ? Color.BLUE : null;
+            case 'c':
+                return is(text, start, end, "cyan") ? Color.CYAN : null;
+            case 'g':
+                return is(text, start, end, "green") ? Color.GREEN
+                        : is(text, start, end, "gray") ? Color.GRAY : null;
+            case 'm':
+                return is(text, start, end, "magenta") ? Color.MAGENTA : null;
+            case 'o':
+                return is(text, start, end, "orange") ? Color.ORANGE : null;
+            case 'p':
+                return is(text, start, end, "pink") ? Color.PINK : null;
+            case 'r':
+                return is(text, start, end, "red") ? Color.RED : null;
+            case 'w':
+                return is(text, start, end, "white") ? Color.WHITE : null;
+            case 'y':
+                return is(text, start, end, "yellow") ? Color.YELLOW : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Tests if a range of characters is equal to a name.
+     * @param text text containing color name.
+     * @param start index of first character of color name.
+     * @param end index after last character of color name.
+     * @param name name to compare to.
+     * @return true if characters are equal to name.
+     */
+    private static boolean is(CharSequence text, int start, int end, String name) {
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (text.charAt(start + i) != name.charAt(i)) {
+                return false;
+            }
         }
+        return true;
     }
 
 }
@@ -0,0 +1,1191 @@
+package drawicon.drawable;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Compact, compiled form of a list of drawable elements. Elements are stored
+ * in primitive arrays instead of one object each: an opcode per element, a
+ * stream of integer arguments (flags, color indexes and vertex offsets), a
+ * stream of float coordinates, one shared array with all poligon vertices,
+ * and a palette of packed ARGB colors. Rendering walks these arrays in a
+ * single loop, without virtual calls per element.
+ * <p>
+ * Only built-in elements are compiled. Any other {@code Drawer} is kept as
+ * is and drawn through its own {@code draw()} method, in its original
+ * position. Rendering a display list gives the same pixels as drawing its
+ * elements one by one.
+ * <p>
+ * A display list never changes after built, so it can be rendered by many
+ * threads at once. Pixel coordinates are cached for each rendered size.
+ * Built-in elements can also be rasterized in software, straight into image
+ * pixels, by {@code rasterize()}.
+ * <p>
+ * Large images can be rendered in tiles by {@code renderTiles()}, each tile
+ * on a fork-join worker. Every tile draws only elements whose pixel bounds
+ * touch it, so a tile costs about as much as the elements inside it.
+ * <p>
+ * When rendering images, elements that wouldn't change any pixel, such as
+ * off-canvas elements or elements hidden by later opaque fills, can be left
+ * out. They are found by a {@code SceneOptimizer} once for each size.
+ *
+ * @author thiago
+ */
+final class DisplayList {
+
+    /**
+     * Line opcode. Coordinates: x1, y1, x2, y2. Arguments: color.
+     */
+    static final byte LINE = 0;
+
+    /**
+     * Oval opcode, for circles and ellipses. Coordinates: x, y, width,
+     * height. Arguments: flags, draw color, fill color.
+     */
+    static final byte OVAL = 1;
+
+    /**
+     * Rectangle opcode. Coordinates: x, y, width, height. Arguments: flags,
+     * draw color, fill color.
+     */
+    static final byte RECT = 2;
+
+    /**
+     * Poligon opcode. Arguments: flags, draw color, fill color, offset of
+     * first vertex in {@code vertices}, number of vertices. Vertices are
+     * stored as all x values followed by all y values.
+     */
+    static final byte POLIGON = 3;
+
+    /**
+     * Opcode of elements that are not compiled. Arguments: index in
+     * {@code drawers}.
+     */
+    static final byte DRAWER = 4;
+
+    /**
+     * Flag set if element is drawn.
+     */
+    static final int DRAW = 1;
+
+    /**
+     * Flag set if element is filled.
+     */
+    static final int FILL = 2;
+
+    /**
+     * Opcodes, one for each element.
+     */
+    final byte[] ops;
+
+    /**
+     * Integer arguments of all elements, in element order.
+     */
+    final int[] args;
+
+    /**
+     * Coordinates of all elements, in element order, as fractions of icon
+     * size.
+     */
+    final float[] coords;
+
+    /**
+     * Vertices of all poligons.
+     */
+    final float[] vertices;
+
+    /**
+     * Colors, as packed ARGB values.
+     */
+    final int[] palette;
+
+    /**
+     * Colors, as {@code Color} objects, in the same order as
+     * {@code palette}.
+     */
+    final Color[] colors;
+
+    /**
+     * Elements that are not compiled.
+     */
+    final Drawer[] drawers;
+
+    /**
+     * Number of poligons.
+     */
+    final int poligonCount;
+
+    /**
+     * Offset of first argument of each element in {@code args}.
+     */
+    private final int[] argOffsets;
+
+    /**
+     * Offset of first coordinate of each element in {@code coords}.
+     */
+    private final int[] coordOffsets;
+
+    /**
+     * Poligon index of each element, counting poligons before it.
+     */
+    private final int[] poligonIndexes;
+
+    /**
+     * Maximum number of image sizes with cached pixel coordinates.
+     */
+    static final int MAX_GEOMETRIES = 8;
+
+    /**
+     * Cached pixel coordinates, oldest first. This array is never modified;
+     * it is replaced by a new one when a size is added.
+     */
+    private volatile Geometry[] geometries = new Geometry[0];
+
+    /**
+     * Pixels an antialiased stroke may cover past its coordinates. Strokes
+     * are one pixel wide and centered half a pixel right and down of them.
+     */
+    private static final int STROKE_MARGIN = 2;
+
+    /**
+     * Pixels a poligon outline may cover past its vertices. Sharp miter
+     * joins reach up to five pixels out.
+     */
+    private static final int MITER_MARGIN = 6;
+
+    /**
+     * Software rasterizer of each thread.
+     */
+    private static final ThreadLocal<Rasterizer> RASTERIZERS
+            = ThreadLocal.withInitial(Rasterizer::new);
+
+    /**
+     * Constructor. Builds a display list from a builder.
+     *
+     * @param b builder with compiled elements.
+     */
+    private DisplayList(Builder b) {
+        ops = Arrays.copyOf(b.ops, b.opCount);
+        args = Arrays.copyOf(b.args, b.argCount);
+        coords = Arrays.copyOf(b.coords, b.coordCount);
+        vertices = Arrays.copyOf(b.vertices, b.vertexCount);
+        palette = Arrays.copyOf(b.palette, b.colorCount);
+        colors = Arrays.copyOf(b.colors, b.colorCount);
+        drawers = Arrays.copyOf(b.drawers, b.drawerCount);
+        poligonCount = b.poligonCount;
+        argOffsets = new int[ops.length];
+        coordOffsets = new int[ops.length];
+        poligonIndexes = new int[ops.length];
+        int a = 0;
+        int c = 0;
+        int p = 0;
+        for (int i = 0; i < ops.length; i++) {
+            argOffsets[i] = a;
+            coordOffsets[i] = c;
+            poligonIndexes[i] = p;
+            switch (ops[i]) {
+                case LINE:
+                    a++;
+                    c += 4;
+                    break;
+                case OVAL:
+                case RECT:
+                    a += 3;
+                    c += 4;
+                    break;
+                case POLIGON:
+                    a += 5;
+                    p++;
+                    break;
+                default:
+                    a++;
+            }
+        }
+    }
+
+    /**
+     * Compiles drawable elements.
+     *
+     * @param elements elements to compile.
+     * @return a display list.
+     */
+    static DisplayList compile(List<Drawer> elements) {
+        Builder b = new Builder();
+        for (Drawer d : elements) {
+            Class<?> c = d.getClass();
+            if (c == Line.class) {
+                ((Line) d).compile(b);
+            } else if (c == Circle.class || c == Ellipse.class
+                    || c == Rectangle.class || c == Poligon.class
+                    || c == RegularPoligon.class) {
+                ((AbstractShape) d).compile(b);
+            } else {
+                b.addDrawer(d);
+            }
+        }
+        return new DisplayList(b);
+    }
+
+    /**
+     * Returns number of elements.
+     *
+     * @return number of elements.
+     */
+    int size() {
+        return ops.length;
+    }
+
+    /**
+     * Renders all elements. Pixel coordinates are taken from a per-size
+     * geometry cache, so rendering again at a known size doesn't scale
+     * coordinates nor allocate vertex arrays.
+     *
+     * @param g graphic context to draw on.
+     * @param size image size, in pixels (width and height are equal).
+     */
+    void render(Graphics2D g, int size) {
+        render(g, getGeometry(size), null, size, Integer.MIN_VALUE, Integer.MIN_VALUE,
+                Integer.MAX_VALUE, Integer.MAX_VALUE, null, null);
+    }
+
+    /**
+     * Renders elements into an image, with Java2D. Rendering can be
+     * cancelled between elements, leaving the image partly drawn.
+     *
+     * @param image image to draw on.
+     * @param size image size, in pixels (width and height are equal).
+     * @param optimize if true, elements that don't change any pixel are left
+     * out.
+     * @param cancelled checked before each element; rendering stops once it
+     * returns true. Null to render all elements.
+     * @return false if rendering was cancelled.
+     */
+    boolean render(BufferedImage image, int size, boolean optimize, BooleanSupplier cancelled) {
+        return render(image, size, optimize, null, cancelled);
+    }
+
+    /**
+     * Renders elements into an image, with Java2D, timing each element if
+     * asked to.
+     *
+     * @param image image to draw on.
+     * @param size image size, in pixels (width and height are equal).
+     * @param optimize if true, elements that don't change any pixel are left
+     * out.
+     * @param nanos array to store time spent on each element, in
+     * nanoseconds, or null to time nothing.
+     * @param cancelled checked before each element, or null.
+     * @return false if rendering was cancelled.
+     */
+    private boolean render(BufferedImage image, int size, boolean optimize, long[] nanos,
+            BooleanSupplier cancelled) {
+        Graphics2D g = createGraphics(image);
+        Geometry geometry = getGeometry(size);
+        boolean done;
+        if (optimize) {
+            done = render(g, geometry, geometry.getRemoved(), size, 0, 0,
+                    image.getWidth(), image.getHeight(), nanos, cancelled);
+        } else {
+            done = render(g, geometry, null, size, Integer.MIN_VALUE, Integer.MIN_VALUE,
+                    Integer.MAX_VALUE, Integer.MAX_VALUE, nanos, cancelled);
+        }
+        g.dispose();
+        return done;
+    }
+
+    /**
+     * Renders elements into an image, as {@code render()} or
+     * {@code rasterize()} do, timing each element. Images are rendered
+     * whole, never in tiles, so that times of elements don't overlap.
+     *
+     * @param image image to draw on, of type {@code TYPE_INT_ARGB} and not
+     * a subimage.
+     * @param size image size, in pixels (width and height are equal).
+     * @param software if true, elements are rasterized in software;
+     * otherwise they are drawn with Java2D.
+     * @param optimize if true, elements that don't change any pixel are left
+     * out.
+     * @return time spent on each element, in nanoseconds.
+     */
+    long[] profile(BufferedImage image, int size, boolean software, boolean optimize) {
+        long[] nanos = new long[ops.length];
+        if (software) {
+            Geometry geometry = getGeometry(size);
+            rasterize(image, geometry, optimize ? geometry.getRemoved() : null, size,
+                    0, image.getHeight(), nanos, null);
+        } else {
+            render(image, size, optimize, nanos, null);
+        }
+        return nanos;
+    }
+
+    /**
+     * Returns number of image pixels inside bounds of an element, antialiased
+     * pixels included. Elements that are not compiled may cover all pixels.
+     *
+     * @param size image size, in pixels.
+     * @param e element index.
+     * @return pixel area, zero if element is off-canvas.
+     */
+    long getArea(int size, int e) {
+        int[] bounds = getGeometry(size).bounds;
+        int width = Math.min(size, bounds[4 * e + 2]) - Math.max(0, bounds[4 * e]);
+        int height = Math.min(size, bounds[4 * e + 3]) - Math.max(0, bounds[4 * e + 1]);
+        return width > 0 && height > 0 ? (long) width * height : 0;
+    }
+
+    /**
+     * Renders elements that touch an area of the image.
+     *
+     * @param g graphic context to draw on, in image coordinates.
+     * @param geometry pixel coordinates of elements.
+     * @param removed flags of elements to leave out, or null to draw all.
+     * @param size image size, in pixels.
+     * @param left left x-position of area.
+     * @param top top y-position of area.
+     * @param right right x-position of area, exclusive.
+     * @param bottom bottom y-position of area, exclusive.
+     * @param nanos array to store time spent on each element, in
+     * nanoseconds, or null to time nothing.
+     * @param cancelled checked before each element; rendering stops once it
+     * returns true. Null to render all elements.
+     * @return false if rendering was cancelled.
+     */
+    private boolean render(Graphics2D g, Geometry geometry, boolean[] removed,
+            int size, int left, int top, int right, int bottom, long[] nanos,
+            BooleanSupplier cancelled) {
+        for (int i = 0; i < ops.length; i++) {
+            if (cancelled != null && cancelled.getAsBoolean()) {
+                return false;
+            }
+            long start = nanos != null ? System.nanoTime() : 0;
+            if ((removed == null || !removed[i])
+                    && geometry.touches(i, left, top, right, bottom)) {
+                draw(g, geometry, i, size);
+            }
+            if (nanos != null) {
+                nanos[i] = System.nanoTime() - start;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Draws one element.
+     *
+     * @param g graphic context to draw on, in image coordinates.
+     * @param geometry pixel coordinates of elements.
+     * @param i element index.
+     * @param size image size, in pixels.
+     */
+    private void draw(Graphics2D g, Geometry geometry, int i, int size) {
+        int[] pixels = geometry.pixels;
+        int a = argOffsets[i];
+        int c = coordOffsets[i];
+        byte op = ops[i];
+        switch (op) {
+            case LINE:
+                g.setColor(colors[args[a]]);
+                g.drawLine(pixels[c], pixels[c + 1], pixels[c + 2], pixels[c + 3]);
+                break;
+            case OVAL:
+            case RECT: {
+                int flags = args[a];
+                int xi = pixels[c];
+                int yi = pixels[c + 1];
+                int wi = pixels[c + 2];
+                int hi = pixels[c + 3];
+                if ((flags & FILL) != 0) {
+                    g.setColor(colors[args[a + 2]]);
+                    if (op == OVAL) {
+                        g.fillOval(xi, yi, wi, hi);
+                    } else {
+                        g.fillRect(xi, yi, wi, hi);
+                    }
+                }
+                if ((flags & DRAW) != 0) {
+                    g.setColor(colors[args[a + 1]]);
+                    if (op == OVAL) {
+                        g.drawOval(xi, yi, wi - 1, hi - 1);
+                    } else {
+                        g.drawRect(xi, yi, wi - 1, hi - 1);
+                    }
+                }
+                break;
+            }
+            case POLIGON: {
+                int flags = args[a];
+                int n = args[a + 4];
+                int p = poligonIndexes[i];
+                if ((flags & FILL) != 0) {
+                    g.setColor(colors[args[a + 2]]);
+                    g.fillPolygon(geometry.xPoints[p], geometry.yPoints[p], n);
+                }
+                if ((flags & DRAW) != 0) {
+                    g.setColor(colors[args[a + 1]]);
+                    g.drawPolygon(geometry.xPoints[p], geometry.yPoints[p], n);
+                }
+                break;
+            }
+            default:
+                drawers[args[a]].draw(g, size);
+        }
+    }
+
+    /**
+     * Renders all elements in tiles, in parallel. Tiles are rendered by
+     * fork-join tasks, on the common pool unless called from another
+     * fork-join pool, and each tile draws only the elements that touch it.
+     * Software tiles are bands of whole rows, each rasterized with its rows
+     * clipped, and give the same pixels as {@code rasterize()}.
+     * <p>
+     * Java2D is never clipped to a tile, since it cuts antialiased curves
+     * at the clip and so changes edge pixels. Elements whose bounds lie
+     * inside one tile are drawn by that tile's task, unclipped; elements
+     * crossing a tile border are drawn on the whole image, in scene order,
+     * once tiles have drawn the elements before them. Pixels are the same
+     * as {@code render()} gives, and scenes of many small elements are
+     * drawn mostly in parallel, while scenes of large ones are drawn mostly
+     * in the calling thread.
+     *
+     * @param image image to draw on, of type {@code TYPE_INT_ARGB} and not
+     * a subimage.
+     * @param size image size, in pixels (width and height are equal).
+     * @param tileSize tile width and height, in pixels.
+     * @param software if true, tiles are rasterized in software; otherwise
+     * they are drawn with Java2D.
+     * @param optimize if true, elements that don't change any pixel are left
+     * out.
+     * @param cancelled checked before each element; rendering stops once it
+     * returns true, leaving the image partly drawn. Null to render all
+     * elements.
+     * @return false if rendering was cancelled.
+     */
+    boolean renderTiles(BufferedImage image, int size, int tileSize, boolean software,
+            boolean optimize, BooleanSupplier cancelled) {
+        Geometry geometry = getGeometry(size);
+        boolean[] removed = optimize ? geometry.getRemoved() : null;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (!software) {
+            return renderTiles(image, geometry, removed, size, tileSize, cancelled);
+        }
+        List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            int top = y;
+            int bottom = Math.min(height, y + tileSize);
+            tasks.add(ForkJoinTask.adapt(() -> rasterize(image, geometry, removed, size,
+                    top, bottom, null, cancelled)));
+        }
+        return allDone(tasks);
+    }
+
+    /**
+     * Runs fork-join tasks and waits for them.
+     *
+     * @param tasks tasks, each returning false if cancelled.
+     * @return false if some task was cancelled.
+     */
+    private static boolean allDone(List<ForkJoinTask<Boolean>> tasks) {
+        ForkJoinTask.invokeAll(tasks);
+        for (ForkJoinTask<Boolean> task : tasks) {
+            if (!task.join()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renders elements in tiles with Java2D, without clipping. Elements
+     * inside one tile are queued to it; before an element crossing tile
+     * borders is drawn on the whole image, queued elements are drawn, each
+     * tile in parallel.
+     *
+     * @param image image to draw on.
+     * @param geometry pixel coordinates of elements.
+     * @param removed flags of elements to leave out, or null to draw all.
+     * @param size image size, in pixels.
+     * @param tileSize tile width and height, in pixels.
+     * @param cancelled checked before each element, or null.
+     * @return false if rendering was cancelled.
+     */
+    private boolean renderTiles(BufferedImage image, Geometry geometry, boolean[] removed,
+            int size, int tileSize, BooleanSupplier cancelled) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int columns = (width + tileSize - 1) / tileSize;
+        int[][] queues = new int[columns * ((height + tileSize - 1) / tileSize)][];
+        int[] queued = new int[queues.length];
+        boolean pending = false;
+        Graphics2D whole = null;
+        int[] bounds = geometry.bounds;
+        for (int i = 0; i < ops.length; i++) {
+            if ((removed != null && removed[i]) || !geometry.touches(i, 0, 0, width, height)) {
+                continue;
+            }
+            int col = Math.max(0, bounds[4 * i]) / tileSize;
+            int row = Math.max(0, bounds[4 * i + 1]) / tileSize;
+            if (col == (Math.min(width, bounds[4 * i + 2]) - 1) / tileSize
+                    && row == (Math.min(height, bounds[4 * i + 3]) - 1) / tileSize) {
+                int t = row * columns + col;
+                if (queues[t] == null) {
+                    queues[t] = new int[16];
+                } else if (queued[t] == queues[t].length) {
+                    queues[t] = Arrays.copyOf(queues[t], 2 * queued[t]);
+                }
+                queues[t][queued[t]++] = i;
+                pending = true;
+                continue;
+            }
+            boolean done = !pending || drawQueued(image, geometry, size, queues, queued,
+                    cancelled);
+            pending = false;
+            if (!done || (cancelled != null && cancelled.getAsBoolean())) {
+                if (whole != null) {
+                    whole.dispose();
+                }
+                return false;
+            }
+            if (whole == null) {
+                whole = createGraphics(image);
+            }
+            draw(whole, geometry, i, size);
+        }
+        boolean done = !pending || drawQueued(image, geometry, size, queues, queued, cancelled);
+        if (whole != null) {
+            whole.dispose();
+        }
+        return done;
+    }
+
+    /**
+     * Draws elements queued to tiles, each tile by its own fork-join task,
+     * and empties queues.
+     *
+     * @param image image to draw on.
+     * @param geometry pixel coordinates of elements.
+     * @param size image size, in pixels.
+     * @param queues element indexes queued to each tile, in scene order.
+     * @param queued number of elements queued to each tile.
+     * @param cancelled checked before each element, or null.
+     * @return false if drawing was cancelled.
+     */
+    private boolean drawQueued(BufferedImage image, Geometry geometry, int size,
+            int[][] queues, int[] queued, BooleanSupplier cancelled) {
+        List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+        for (int t = 0; t < queues.length; t++) {
+            int[] queue = queues[t];
+            int count = queued[t];
+            if (count == 0) {
+                continue;
+            }
+            tasks.add(ForkJoinTask.adapt(() -> {
+                Graphics2D g = createGraphics(image);
+                try {
+                    for (int k = 0; k < count; k++) {
+                        if (cancelled != null && cancelled.getAsBoolean()) {
+                            return false;
+                        }
+                        draw(g, geometry, queue[k], size);
+                    }
+                    return true;
+                } finally {
+                    g.dispose();
+                }
+            }));
+            queued[t] = 0;
+        }
+        return allDone(tasks);
+    }
+
+    /**
+     * Returns an antialiased graphic context of an image, as used to render
+     * it whole.
+     *
+     * @param image image to draw on.
+     * @return graphic context.
+     */
+    private static Graphics2D createGraphics(BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+        return g;
+    }
+
+    /**
+     * Renders all elements with the software rasterizer, straight into image
+     * pixels. Pixel coordinates are the same as in {@code render()}, and
+     * pixels differ from it only by antialiasing rounding. Elements that are
+     * not compiled are drawn through Java2D, in their original position.
+     *
+     * @param image image to draw on, of type {@code TYPE_INT_ARGB} and not
+     * a subimage.
+     * @param size image size, in pixels (width and height are equal).
+     * @param optimize if true, elements that don't change any pixel are left
+     * out.
+     * @param cancelled checked before each element; rasterizing stops once
+     * it returns true, leaving the image partly drawn. Null to rasterize all
+     * elements.
+     * @return false if rasterizing was cancelled.
+     */
+    boolean rasterize(BufferedImage image, int size, boolean optimize,
+            BooleanSupplier cancelled) {
+        Geometry geometry = getGeometry(size);
+        return rasterize(image, geometry, optimize ? geometry.getRemoved() : null, size,
+                0, image.getHeight(), null, cancelled);
+    }
+
+    /**
+     * Rasterizes elements that touch a band of image rows. Pixels outside
+     * the band are not changed.
+     *
+     * @param image image to draw on, of type {@code TYPE_INT_ARGB} and not
+     * a subimage.
+     * @param geometry pixel coordinates of elements.
+     * @param removed flags of elements to leave out, or null to draw all.
+     * @param size image size, in pixels.
+     * @param top first row of band.
+     * @param bottom row after last row of band.
+     * @param nanos array to store time spent on each element, in
+     * nanoseconds, or null to time nothing.
+     * @param cancelled checked before each element, or null.
+     * @return false if rasterizing was cancelled.
+     */
+    private boolean rasterize(BufferedImage image, Geometry geometry, boolean[] removed,
+            int size, int top, int bottom, long[] nanos, BooleanSupplier cancelled) {
+        int[] pixels = geometry.pixels;
+        int width = image.getWidth();
+        Rasterizer r = RASTERIZERS.get();
+        r.setTarget(((DataBufferInt) image.getRaster().getDataBuffer()).getData(),
+                width, image.getHeight(), top, bottom);
+        Graphics2D g = null;
+        int a = 0;
+        int c = 0;
+        int p = 0;
+        for (int i = 0; i < ops.length; i++) {
+            if (cancelled != null && cancelled.getAsBoolean()) {
+                if (g != null) {
+                    g.dispose();
+                }
+                return false;
+            }
+            long start = nanos != null ? System.nanoTime() : 0;
+            byte op = ops[i];
+            boolean visible = (removed == null || !removed[i])
+                    && geometry.touches(i, 0, top, width, bottom);
+            switch (op) {
+                case LINE:
+                    if (visible) {
+                        r.drawLine(pixels[c], pixels[c + 1], pixels[c + 2], pixels[c + 3],
+                                palette[args[a]]);
+                    }
+                    a++;
+                    c += 4;
+                    break;
+                case OVAL:
+                case RECT: {
+                    int flags = visible ? args[a] : 0;
+                    int xi = pixels[c];
+                    int yi = pixels[c + 1];
+                    int wi = pixels[c + 2];
+                    int hi = pixels[c + 3];
+                    if ((flags & FILL) != 0) {
+                        if (op == OVAL) {
+                            r.fillOval(xi, yi, wi, hi, palette[args[a + 2]]);
+                        } else {
+                            r.fillRect(xi, yi, wi, hi, palette[args[a + 2]]);
+                        }
+                    }
+                    if ((flags & DRAW) != 0) {
+                        if (op == OVAL) {
+                            r.drawOval(xi, yi, wi - 1, hi - 1, palette[args[a + 1]]);
+                        } else {
+                            r.drawRect(xi, yi, wi - 1, hi - 1, palette[args[a + 1]]);
+                        }
+                    }
+                    a += 3;
+                    c += 4;
+                    break;
+                }
+                case POLIGON: {
+                    int flags = visible ? args[a] : 0;
+                    int n = args[a + 4];
+                    if ((flags & FILL) != 0) {
+                        r.fillPolygon(geometry.xPoints[p], geometry.yPoints[p], n,
+                                palette[args[a + 2]]);
+                    }
+                    if ((flags & DRAW) != 0) {
+                        r.drawPolygon(geometry.xPoints[p], geometry.yPoints[p], n,
+                                palette[args[a + 1]]);
+                    }
+                    a += 5;
+                    p++;
+                    break;
+                }
+                default:
+                    if (g == null) {
+                        g = image.createGraphics();
+                        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                RenderingHints.VALUE_ANTIALIAS_ON);
+                        g.clipRect(0, top, width, bottom - top);
+                    }
+                    drawers[args[a++]].draw(g, size);
+            }
+            if (nanos != null) {
+                nanos[i] = System.nanoTime() - start;
+            }
+        }
+        if (g != null) {
+            g.dispose();
+        }
+        return true;
+    }
+
+    /**
+     * Returns number of elements left out of optimized images of a size.
+     *
+     * @param size image size, in pixels.
+     * @return number of elements that don't change any pixel.
+     */
+    int getRemovedCount(int size) {
+        int count = 0;
+        for (boolean r : getGeometry(size).getRemoved()) {
+            if (r) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns pixel coordinates of all elements at an image size, computing
+     * them if size isn't cached. Up to {@code MAX_GEOMETRIES} sizes are kept;
+     * when full, the size cached first is dropped.
+     *
+     * @param size image size, in pixels.
+     * @return pixel coordinates.
+     */
+    private Geometry getGeometry(int size) {
+        for (Geometry geometry : geometries) {
+            if (geometry.size == size) {
+                return geometry;
+            }
+        }
+        Geometry geometry = new Geometry(size);
+        synchronized (this) {
+            Geometry[] cached = geometries;
+            int keep = Math.min(cached.length, MAX_GEOMETRIES - 1);
+            Geometry[] updated = new Geometry[keep + 1];
+            System.arraycopy(cached, cached.length - keep, updated, 0, keep);
+            updated[keep] = geometry;
+            geometries = updated;
+        }
+        return geometry;
+    }
+
+    /**
+     * Pixel coordinates of all elements at one image size, computed the same
+     * way as each element's {@code draw()} method does.
+     */
+    private final class Geometry {
+
+        /**
+         * Image size, in pixels.
+         */
+        private final int size;
+
+        /**
+         * Pixel coordinates of lines, ovals and rectangles, in the same order
+         * as {@code coords}.
+         */
+        private final int[] pixels;
+
+        /**
+         * Pixel x-coordinate vertexes, one array for each poligon.
+         */
+        private final int[][] xPoints;
+
+        /**
+         * Pixel y-coordinate vertexes, one array for each poligon.
+         */
+        private final int[][] yPoints;
+
+        /**
+         * Pixel bounds of each element, as left, top, right and bottom, the
+         * last two exclusive. Bounds include antialiased pixels; elements
+         * that are not compiled have unlimited bounds.
+         */
+        private final int[] bounds;
+
+        /**
+         * Flags of elements that don't change any pixel, or null until found
+         * by {@code getRemoved()}.
+         */
+        private volatile boolean[] removed;
+
+        /**
+         * Constructor. Computes pixel coordinates of all elements.
+         *
+         * @param size image size, in pixels.
+         */
+        private Geometry(int size) {
+            this.size = size;
+            pixels = new int[coords.length];
+            xPoints = new int[poligonCount][];
+            yPoints = new int[poligonCount][];
+            bounds = new int[4 * ops.length];
+            int s1 = size - 1;
+            int a = 0;
+            int c = 0;
+            int p = 0;
+            for (int e = 0; e < ops.length; e++) {
+                switch (ops[e]) {
+                    case LINE:
+                        for (int i = 0; i < 4; i++, c++) {
+                            pixels[c] = (int) (coords[c] * s1);
+                        }
+                        setBounds(e, pixels[c - 4], pixels[c - 3], pixels[c - 2],
+                                pixels[c - 1], STROKE_MARGIN);
+                        a++;
+                        break;
+                    case OVAL:
+                    case RECT:
+                        for (int i = 0; i < 4; i++, c++) {
+                            pixels[c] = (int) (coords[c] * size);
+                        }
+                        // Rectangles cover whole pixels, ovals don't
+                        setBounds(e, pixels[c - 4], pixels[c - 3],
+                                pixels[c - 4] + pixels[c - 2], pixels[c - 3] + pixels[c - 1],
+                                ops[e] == RECT ? 0 : STROKE_MARGIN);
+                        a += 3;
+                        break;
+                    case POLIGON: {
+                        int offset = args[a + 3];
+                        int n = args[a + 4];
+                        int[] xs = new int[n];
+                        int[] ys = new int[n];
+                        int minX = Integer.MAX_VALUE;
+                        int minY = Integer.MAX_VALUE;
+                        int maxX = Integer.MIN_VALUE;
+                        int maxY = Integer.MIN_VALUE;
+                        for (int i = 0; i < n; i++) {
+                            xs[i] = (int) (vertices[offset + i] * s1);
+                            ys[i] = (int) (vertices[offset + n + i] * s1);
+                            minX = Math.min(minX, xs[i]);
+                            minY = Math.min(minY, ys[i]);
+                            maxX = Math.max(maxX, xs[i]);
+                            maxY = Math.max(maxY, ys[i]);
+                        }
+                        xPoints[p] = xs;
+                        yPoints[p] = ys;
+                        if (n > 0) {
+                            setBounds(e, minX, minY, maxX, maxY, MITER_MARGIN);
+                        }
+                        p++;
+                        a += 5;
+                        break;
+                    }
+                    default:
+                        bounds[4 * e] = Integer.MIN_VALUE;
+                        bounds[4 * e + 1] = Integer.MIN_VALUE;
+                        bounds[4 * e + 2] = Integer.MAX_VALUE;
+                        bounds[4 * e + 3] = Integer.MAX_VALUE;
+                        a++;
+                }
+            }
+        }
+
+        /**
+         * Sets pixel bounds of an element from two corners.
+         *
+         * @param e element index.
+         * @param x1 x-position of a corner.
+         * @param y1 y-position of a corner.
+         * @param x2 x-position of opposite corner.
+         * @param y2 y-position of opposite corner.
+         * @param margin pixels to add around corners.
+         */
+        private void setBounds(int e, int x1, int y1, int x2, int y2, int margin) {
+            bounds[4 * e] = Math.min(x1, x2) - margin;
+            bounds[4 * e + 1] = Math.min(y1, y2) - margin;
+            bounds[4 * e + 2] = Math.max(x1, x2) + margin;
+            bounds[4 * e + 3] = Math.max(y1, y2) + margin;
+        }
+
+        /**
+         * Returns flags of elements that don't change any pixel of an image
+         * of this size, finding them on first call.
+         *
+         * @return flags, true for each element to leave out.
+         */
+        private boolean[] getRemoved() {
+            boolean[] r = removed;
+            if (r == null) {
+                r = SceneOptimizer.optimize(DisplayList.this, size, pixels, bounds);
+                removed = r;
+            }
+            return r;
+        }
+
+        /**
+         * Returns true if an element may cover pixels of an area.
+         *
+         * @param e element index.
+         * @param left left x-position of area.
+         * @param top top y-position of area.
+         * @param right right x-position of area, exclusive.
+         * @param bottom bottom y-position of area, exclusive.
+         * @return false if element surely doesn't touch area.
+         */
+        private boolean touches(int e, int left, int top, int right, int bottom) {
+            return bounds[4 * e] < right && bounds[4 * e + 1] < bottom
+                    && bounds[4 * e + 2] > left && bounds[4 * e + 3] > top;
+        }
+    }
+
+    /**
+     * Accumulates compiled elements. Built-in elements add themselves through
+     * their {@code compile()} methods.
+     */
+    static final class Builder {
+
+        /**
+         * Opcodes.
+         */
+        private byte[] ops = new byte[64];
+
+        /**
+         * Number of opcodes.
+         */
+        private int opCount;
+
+        /**
+         * Integer arguments.
+         */
+        private int[] args = new int[256];
+
+        /**
+         * Number of integer arguments.
+         */
+        private int argCount;
+
+        /**
+         * Coordinates.
+         */
+        private float[] coords = new float[256];
+
+        /**
+         * Number of coordinates.
+         */
+        private int coordCount;
+
+        /**
+         * Poligon vertices.
+         */
+        private float[] vertices = new float[64];
+
+        /**
+         * Number of values in {@code vertices}.
+         */
+        private int vertexCount;
+
+        /**
+         * Number of poligons.
+         */
+        private int poligonCount;
+
+        /**
+         * Packed ARGB colors.
+         */
+        private int[] palette = new int[16];
+
+        /**
+         * Colors, in the same order as {@code palette}.
+         */
+        private Color[] colors = new Color[16];
+
+        /**
+         * Number of colors.
+         */
+        private int colorCount;
+
+        /**
+         * Color indexes, by packed ARGB value.
+         */
+        private final HashMap<Integer, Integer> colorIndexes = new HashMap<>();
+
+        /**
+         * Elements that are not compiled.
+         */
+        private Drawer[] drawers = new Drawer[4];
+
+        /**
+         * Number of elements that are not compiled.
+         */
+        private int drawerCount;
+
+        /**
+         * Adds a line.
+         *
+         * @param x1 start x-position, as fraction of icon size.
+         * @param y1 start y-position, as fraction of icon size.
+         * @param x2 end x-position, as fraction of icon size.
+         * @param y2 end y-position, as fraction of icon size.
+         * @param color line color.
+         */
+        void addLine(float x1, float y1, float x2, float y2, Color color) {
+            op(LINE);
+            arg(color(color));
+            coords(x1, y1, x2, y2);
+        }
+
+        /**
+         * Adds an oval or a rectangle.
+         *
+         * @param op either {@code OVAL} or {@code RECT}.
+         * @param x top left x-position, as fraction of icon size.
+         * @param y top left y-position, as fraction of icon size.
+         * @param w width, as fraction of icon size.
+         * @param h height, as fraction of icon size.
+         * @param draw if true, shape is drawn.
+         * @param fill if true, shape is filled.
+         * @param drawColor draw color.
+         * @param fillColor fill color.
+         */
+        void addBox(byte op, float x, float y, float w, float h, boolean draw,
+                boolean fill, Color drawColor, Color fillColor) {
+            op(op);
+            arg(flags(draw, fill));
+            arg(color(drawColor));
+            arg(color(fillColor));
+            coords(x, y, w, h);
+        }
+
+        /**
+         * Adds a poligon.
+         *
+         * @param xp x-coordinate vertexes, as fractions of icon size.
+         * @param yp y-coordinate vertexes, as fractions of icon size.
+         * @param draw if true, poligon is drawn.
+         * @param fill if true, poligon is filled.
+         * @param drawColor draw color.
+         * @param fillColor fill color.
+         */
+        void addPoligon(float[] xp, float[] yp, boolean draw, boolean fill,
+                Color drawColor, Color fillColor) {
+            int n = xp.length;
+            op(POLIGON);
+            arg(flags(draw, fill));
+            arg(color(drawColor));
+            arg(color(fillColor));
+            arg(vertexCount);
+            arg(n);
+            if (vertexCount + 2 * n > vertices.length) {
+                vertices = Arrays.copyOf(vertices, Math.max(2 * vertices.length, vertexCount + 2 * n));
+            }
+            System.arraycopy(xp, 0, vertices, vertexCount, n);
+            System.arraycopy(yp, 0, vertices, vertexCount + n, n);
+            vertexCount += 2 * n;
+            poligonCount++;
+        }
+
+        /**
+         * Adds an element that is not compiled.
+         *
+         * @param d element.
+         */
+        void addDrawer(Drawer d) {
+            op(DRAWER);
+            arg(drawerCount);
+            if (drawerCount == drawers.length) {
+                drawers = Arrays.copyOf(drawers, 2 * drawerCount);
+            }
+            drawers[drawerCount++] = d;
+        }
+
+        /**
+         * Appends an opcode.
+         *
+         * @param op opcode.
+         */
+        private void op(byte op) {
+            if (opCount == ops.length) {
+                ops = Arrays.copyOf(ops, 2 * opCount);
+            }
+            ops[opCount++] = op;
+        }
+
+        /**
+         * Appends an integer argument.
+         *
+         * @param value argument.
+         */
+        private void arg(int value) {
+            if (argCount == args.length) {
+                args = Arrays.copyOf(args, 2 * argCount);
+            }
+            args[argCount++] = value;
+        }
+
+        /**
+         * Appends four coordinates.
+         *
+         * @param c1 first coordinate.
+         * @param c2 second coordinate.
+         * @param c3 third coordinate.
+         * @param c4 fourth coordinate.
+         */
+        private void coords(float c1, float c2, float c3, float c4) {
+            if (coordCount + 4 > coords.length) {
+                coords = Arrays.copyOf(coords, 2 * coords.length);
+            }
+            coords[coordCount++] = c1;
+            coords[coordCount++] = c2;
+            coords[coordCount++] = c3;
+            coords[coordCount++] = c4;
+        }
+
+        /**
+         * Returns palette index of a color, adding it if needed.
+         *
+         * @param color color.
+         * @return palette index.
+         */
+        private int color(Color color) {
+            int argb = color.getRGB();
+            Integer index = colorIndexes.get(argb);
+            if (index == null) {
+                if (colorCount == palette.length) {
+                    palette = Arrays.copyOf(palette, 2 * colorCount);
+                    colors = Arrays.copyOf(colors, 2 * colorCount);
+                }
+                palette[colorCount] = argb;
+                colors[colorCount] = color;
+                index = colorCount++;
+                colorIndexes.put(argb, index);
+            }
+            return index;
+        }
+
+        /**
+         * Makes flags argument.
+         *
+         * @param draw if true, element is drawn.
+         * @param fill if true, element is filled.
+         * @return flags.
+         */
+        private static int flags(boolean draw, boolean fill) {
+            return (draw ? DRAW : 0) | (fill ? FILL : 0);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package drawicon.drawable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Emits JDK Flight Recorder events for profiled elements. Each event,
+ * named {@code drawicon.ElementRender}, holds the type, icx line, image
+ * size, render time and pixel area of one element. Events are defined with
+ * {@code jdk.jfr.EventFactory}, found by reflection, so this application
+ * still runs on Java 8: if Flight Recorder is not available, or no
+ * recording is enabled, nothing is emitted.
+ * <p>
+ * Events are committed after the image is rendered, so their start time is
+ * the end of rendering and their duration is zero; render time is the
+ * {@code renderTime} field.
+ *
+ * @author thiago
+ */
+final class ElementRenderEvents {
+
+    /**
+     * Event factory, or null if Flight Recorder is not available.
+     */
+    private static final Object FACTORY;
+
+    /**
+     * {@code EventFactory.newEvent()} method.
+     */
+    private static final Method NEW_EVENT;
+
+    /**
+     * {@code Event.set(int, Object)} method.
+     */
+    private static final Method SET;
+
+    /**
+     * {@code Event.isEnabled()} method.
+     */
+    private static final Method IS_ENABLED;
+
+    /**
+     * {@code Event.commit()} method.
+     */
+    private static final Method COMMIT;
+
+    static {
+        Object factory = null;
+        Method newEvent = null;
+        Method set = null;
+        Method isEnabled = null;
+        Method commit = null;
+        try {
+            Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> valueClass = Class.forName("jdk.jfr.ValueDescriptor");
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+            Constructor<?> value = valueClass.getConstructor(Class.class, String.class, List.class);
+            List<Object> annotations = Arrays.asList(
+                    annotation.newInstance(Class.forName("jdk.jfr.Name"), "drawicon.ElementRender"),
+                    annotation.newInstance(Class.forName("jdk.jfr.Label"), "Element Render"),
+                    annotation.newInstance(Class.forName("jdk.jfr.Category"),
+                            new String[]{"drawicon"}));
+            List<Object> fields = Arrays.asList(
+                    value.newInstance(String.class, "type", label(annotation, "Type")),
+                    value.newInstance(int.class, "line", label(annotation, "Icx Line")),
+                    value.newInstance(int.class, "size", label(annotation, "Image Size")),
+                    value.newInstance(long.class, "renderTime", Arrays.asList(
+                            annotation.newInstance(Class.forName("jdk.jfr.Label"), "Render Time"),
+                            annotation.newInstance(Class.forName("jdk.jfr.Timespan"),
+                                    "NANOSECONDS"))),
+                    value.newInstance(long.class, "area", label(annotation, "Pixel Area")));
+            factory = factoryClass.getMethod("create", List.class, List.class)
+                    .invoke(null, annotations, fields);
+            newEvent = factoryClass.getMethod("newEvent");
+            set = eventClass.getMethod("set", int.class, Object.class);
+            isEnabled = eventClass.getMethod("isEnabled");
+            commit = eventClass.getMethod("commit");
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            factory = null;
+        }
+        FACTORY = factory;
+        NEW_EVENT = newEvent;
+        SET = set;
+        IS_ENABLED = isEnabled;
+        COMMIT = commit;
+    }
+
+    /**
+     * Constructor. Not used.
+     */
+    private ElementRenderEvents() {
+    }
+
+    /**
+     * Builds a label annotation list.
+     *
+     * @param annotation {@code AnnotationElement(Class, Object)} constructor.
+     * @param text label text.
+     * @return list with one label annotation.
+     * @throws ReflectiveOperationException if annotation can't be built.
+     */
+    private static List<Object> label(Constructor<?> annotation, String text)
+            throws ReflectiveOperationException {
+        return Collections.singletonList(
+                annotation.newInstance(Class.forName("jdk.jfr.Label"), text));
+    }
+
+    /**
+     * Emits one event for each element of a profile, if Flight Recorder is
+     * recording these events.
+     *
+     * @param profile profile of a rendered image.
+     */
+    static void emit(RenderProfile profile) {
+        if (FACTORY == null) {
+            return;
+        }
+        try {
+            Object event = NEW_EVENT.invoke(FACTORY);
+            if (!(Boolean) IS_ENABLED.invoke(event)) {
+                return;
+            }
+            for (int i = 0; i < profile.getElementCount(); i++) {
+                if (i > 0) {
+                    event = NEW_EVENT.invoke(FACTORY);
+                }
+                SET.invoke(event, 0, profile.getType(i));
+                SET.invoke(event, 1, profile.getLine(i));
+                SET.invoke(event, 2, profile.getSize());
+                SET.invoke(event, 3, profile.getNanos(i));
+                SET.invoke(event, 4, profile.getArea(i));
+                COMMIT.invoke(event);
+            }
+        } catch (ReflectiveOperationException e) {
+            // Flight Recorder refused events: profile is still returned
+        }
+    }
+}
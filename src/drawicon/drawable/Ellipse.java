@@ -1,5 +1,6 @@
 package drawicon.drawable;
 
+import java.awt.Color;
 import java.awt.Graphics2D;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -50,17 +51,46 @@ public class Ellipse extends AbstractShape {
             throw new IllegalArgumentException("Ellipse " + data + " is not a valide Ellipse element");
         }
 
-        float rw = Float.parseFloat(m.group(3));
-        float rh = Float.parseFloat(m.group(4));
-        xv = (Float.parseFloat(m.group(1)) - rw) / 100;
-        yv = (100.0f - Float.parseFloat(m.group(2)) - rh) / 100;
-        lw = (2 * rw) / 100;
-        lh = (2 * rh) / 100;
+        setGeometry(Float.parseFloat(m.group(1)), Float.parseFloat(m.group(2)),
+                Float.parseFloat(m.group(3)), Float.parseFloat(m.group(4)));
         
         setColorAttributes(m.group(5), m.group(6), m.group(8), m.group(10));
 
     }
 
+    /**
+     * Constructor. Builds an ellipse from already parsed values.
+     *
+     * @param x center x-position, in icx coordinates.
+     * @param y center y-position, in icx coordinates.
+     * @param rw radius in x-axis, in icx coordinates.
+     * @param rh radius in y-axis, in icx coordinates.
+     * @param draw if true, draws this ellipse.
+     * @param fill if true, fills this ellipse.
+     * @param dColor draw color, or null to draw in black.
+     * @param fColor fill color, or null to fill in white.
+     */
+    Ellipse(float x, float y, float rw, float rh, boolean draw, boolean fill,
+            Color dColor, Color fColor) {
+        setGeometry(x, y, rw, rh);
+        setColorAttributes(draw, fill, dColor, fColor);
+    }
+
+    /**
+     * Sets ellipse position and diameters.
+     *
+     * @param x center x-position, in icx coordinates.
+     * @param y center y-position, in icx coordinates.
+     * @param rw radius in x-axis, in icx coordinates.
+     * @param rh radius in y-axis, in icx coordinates.
+     */
+    private void setGeometry(float x, float y, float rw, float rh) {
+        xv = (x - rw) / 100;
+        yv = (100.0f - y - rh) / 100;
+        lw = (2 * rw) / 100;
+        lh = (2 * rh) / 100;
+    }
+
     @Override
     public void draw(Graphics2D g, int size) {
 
@@ -82,4 +112,35 @@ public class Ellipse extends AbstractShape {
         }
     }
 
+    @Override
+    void compile(DisplayList.Builder b) {
+        b.addBox(DisplayList.OVAL, xv, yv, lw, lh, toDraw, toFill, drawColor, fillColor);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+        Ellipse o = (Ellipse) obj;
+        return Float.compare(xv, o.xv) == 0
+                && Float.compare(yv, o.yv) == 0
+                && Float.compare(lw, o.lw) == 0
+                && Float.compare(lh, o.lh) == 0
+                && colorAttributesEqual(o);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = colorAttributesHash();
+        h = 31 * h + Float.floatToIntBits(xv);
+        h = 31 * h + Float.floatToIntBits(yv);
+        h = 31 * h + Float.floatToIntBits(lw);
+        h = 31 * h + Float.floatToIntBits(lh);
+        return h;
+    }
+
 }
@@ -0,0 +1,635 @@
+package drawicon.drawable;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Compiled icx files. An icb file holds the elements of an icx file already
+ * parsed, so it is loaded without reading any text: element types, icx
+ * values, colors and line numbers are stored as bytes and elements are built
+ * straight from them. Elements, errors and line numbers are the same as
+ * {@code IconDrawer.read(Path)} gives for the icx file.
+ * <p>
+ * Layout, with integers as unsigned LEB128 varints unless noted:
+ * <pre>
+ * "ICB" version                  4 bytes
+ * source CRC-32                  4 bytes, big-endian, of icx file bytes
+ * line count
+ * color count, colors            4 bytes each, big-endian ARGB
+ * element count, elements        type byte, line delta, values, flags and
+ *                                colors (see below)
+ * error count, errors            kind byte, line, column, UTF-8 text
+ * file CRC-32                    4 bytes, big-endian, of all bytes before
+ * </pre>
+ * Each element is stored as its icx values, which are unsigned integers:
+ * four for lines, ellipses and rectangles, three for circles and regular
+ * poligons (followed by the number of vertices), and the number of vertices
+ * followed by all x values and all y values for poligons. Values are
+ * shifted left by one bit; values too large for that are a 1 followed by
+ * the float bits. Shapes then store a flags byte ({@code draw}, {@code fill}
+ * and {@code dir:a}), and all elements store their colors as 1 plus their
+ * index in the color table, or 0 for default colors.
+ * <p>
+ * The source CRC tells if an icb file is stale; the file CRC tells if it is
+ * corrupt.
+ *
+ * @author thiago
+ */
+public final class IcbFile {
+
+    /**
+     * Extension of compiled files.
+     */
+    public static final String EXTENSION = ".icb";
+
+    /**
+     * Format version written by this class.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Size of header, magic bytes, version and source CRC, in bytes.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Flag of shapes that are drawn.
+     */
+    private static final int DRAW = 1;
+
+    /**
+     * Flag of shapes that are filled.
+     */
+    private static final int FILL = 2;
+
+    /**
+     * Flag of regular poligons with {@code dir:a}.
+     */
+    private static final int ALTERNATE = 4;
+
+    /**
+     * Largest value stored as an integer.
+     */
+    private static final float MAX_INTEGER = 0x1p52f;
+
+    private IcbFile() {
+
+    }
+
+    /**
+     * Compiles an icx file, encoded in UTF-8, to an icb file.
+     *
+     * @param icx icx file.
+     * @param icb icb file to write. It is replaced if it exists.
+     * @throws IOException if icx file can't be read or icb file can't be
+     * written.
+     */
+    public static void compile(Path icx, Path icb) throws IOException {
+        Files.write(icb, compile(Files.readAllBytes(icx)));
+    }
+
+    /**
+     * Returns true if an icb file can be loaded and was compiled from the
+     * current contents of an icx file.
+     *
+     * @param icb icb file.
+     * @param icx icx file it was compiled from.
+     * @return false if icb file is missing, is of other version, is corrupt
+     * or was compiled from other contents.
+     * @throws IOException if icx file can't be read.
+     */
+    public static boolean isCurrent(Path icb, Path icx) throws IOException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(icb);
+        } catch (IOException ioe) {
+            return false;
+        }
+        try {
+            check(data);
+        } catch (IOException ioe) {
+            return false;
+        }
+        return isCurrent(data, Files.readAllBytes(icx));
+    }
+
+    /**
+     * Returns true if icb file contents can be loaded and were compiled from
+     * icx file contents. Callers that read both files once can check, load
+     * or compile without reading them again.
+     *
+     * @param icb icb file bytes.
+     * @param source icx file bytes.
+     * @return false if icb file is of other version, is corrupt or was
+     * compiled from other contents.
+     */
+    public static boolean isCurrent(byte[] icb, byte[] source) {
+        try {
+            check(icb);
+        } catch (IOException ioe) {
+            return false;
+        }
+        return readInt(icb, 4) == crc(source, 0, -1);
+    }
+
+    /**
+     * Compiles icx text. Compiled bytes can be written as an icb file, or
+     * loaded with {@code IconDrawer.readCompiled(byte[])}.
+     *
+     * @param source icx file bytes, encoded in UTF-8.
+     * @return icb file bytes.
+     */
+    public static byte[] compile(byte[] source) {
+        Output elements = new Output();
+        Output errors = new Output();
+        HashMap<Integer, Integer> colorIndexes = new HashMap<>();
+        Output colors = new Output();
+        int elementCount = 0;
+        int errorCount = 0;
+        int lineCount = 0;
+        int lastLine = 0;
+        IcxParser parser = new IcxParser();
+        LineReader lines = new LineReader(new InputStreamReader(
+                new ByteArrayInputStream(source), StandardCharsets.UTF_8));
+        String line;
+        while ((line = nextLine(lines)) != null) {
+            lineCount++;
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            int kind = parser.parse(line);
+            if (kind < 0) {
+                errors.write(kind == IcxParser.SYNTAX_ERROR ? 1 : 0);
+                errors.writeVarint(lineCount);
+                errors.writeVarint(kind == IcxParser.SYNTAX_ERROR ? parser.errorColumn : 0);
+                byte[] text = line.getBytes(StandardCharsets.UTF_8);
+                errors.writeVarint(text.length);
+                errors.write(text, 0, text.length);
+                errorCount++;
+                continue;
+            }
+            elements.write(kind);
+            elements.writeVarint(lineCount - lastLine);
+            lastLine = lineCount;
+            float[] v = parser.values;
+            switch (kind) {
+                case IcxParser.LINE:
+                case IcxParser.ELLIPSE:
+                case IcxParser.RECTANGLE:
+                    writeValues(elements, v, 4);
+                    break;
+                case IcxParser.CIRCLE:
+                    writeValues(elements, v, 3);
+                    break;
+                case IcxParser.POLIGON:
+                    elements.writeVarint(parser.vertexCount);
+                    writeValues(elements, v, 2 * parser.vertexCount);
+                    break;
+                default:
+                    writeValues(elements, v, 3);
+                    elements.writeVarint(parser.vertexCount);
+            }
+            if (kind != IcxParser.LINE) {
+                elements.write((parser.draw ? DRAW : 0) | (parser.fill ? FILL : 0)
+                        | (parser.alternate && kind == IcxParser.REGULAR_POLIGON ? ALTERNATE : 0));
+            }
+            elements.writeVarint(colorRef(parser.drawColor(), colorIndexes, colors));
+            if (kind != IcxParser.LINE) {
+                elements.writeVarint(colorRef(parser.fillColor(), colorIndexes, colors));
+            }
+            elementCount++;
+        }
+
+        Output out = new Output();
+        out.write('I');
+        out.write('C');
+        out.write('B');
+        out.write(VERSION);
+        out.writeInt(crc(source, 0, -1));
+        out.writeVarint(lineCount);
+        out.writeVarint(colorIndexes.size());
+        out.write(colors.buffer(), 0, colors.size());
+        out.writeVarint(elementCount);
+        out.write(elements.buffer(), 0, elements.size());
+        out.writeVarint(errorCount);
+        out.write(errors.buffer(), 0, errors.size());
+        out.writeInt(crc(out.buffer(), 0, out.size()));
+        return out.toByteArray();
+    }
+
+    /**
+     * Loads elements and errors of an icb file.
+     *
+     * @param data icb file bytes.
+     * @return elements and errors, as parsed from the icx file.
+     * @throws IOException if data is not an icb file of this version, or is
+     * corrupt.
+     */
+    static IcxChunk load(byte[] data) throws IOException {
+        check(data);
+        Input in = new Input(data, HEADER_SIZE, data.length - 4);
+        IcxChunk chunk = new IcxChunk();
+        chunk.lineCount = in.readCount();
+        Color[] palette = new Color[in.readCount(4)];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = ColorDic.getColor(in.readInt());
+        }
+        int elementCount = in.readCount(1);
+        chunk.elementLineNumbers = new int[Math.max(1, elementCount)];
+        chunk.elements.ensureCapacity(elementCount);
+        float[] v = new float[16];
+        int line = 0;
+        for (int e = 0; e < elementCount; e++) {
+            int kind = in.read();
+            line += in.readCount();
+            chunk.elementLineNumbers[e] = line;
+            int n = 0;
+            switch (kind) {
+                case IcxParser.LINE:
+                case IcxParser.ELLIPSE:
+                case IcxParser.RECTANGLE:
+                    readValues(in, v, 4);
+                    break;
+                case IcxParser.CIRCLE:
+                    readValues(in, v, 3);
+                    break;
+                case IcxParser.POLIGON:
+                    n = in.readCount(2);
+                    if (v.length < 2 * n) {
+                        v = new float[2 * n];
+                    }
+                    readValues(in, v, 2 * n);
+                    break;
+                case IcxParser.REGULAR_POLIGON:
+                    readValues(in, v, 3);
+                    n = in.readCount();
+                    break;
+                default:
+                    throw new IOException("Corrupt icb file: unknown element type " + kind);
+            }
+            int flags = kind == IcxParser.LINE ? 0 : in.read();
+            Color draw = color(in, palette);
+            Color fill = kind == IcxParser.LINE ? null : color(in, palette);
+            boolean toDraw = (flags & DRAW) != 0;
+            boolean toFill = (flags & FILL) != 0;
+            Drawer d;
+            try {
+                switch (kind) {
+                    case IcxParser.LINE:
+                        d = new Line(v[0], v[1], v[2], v[3], draw);
+                        break;
+                    case IcxParser.CIRCLE:
+                        d = new Circle(v[0], v[1], v[2], toDraw, toFill, draw, fill);
+                        break;
+                    case IcxParser.ELLIPSE:
+                        d = new Ellipse(v[0], v[1], v[2], v[3], toDraw, toFill, draw, fill);
+                        break;
+                    case IcxParser.RECTANGLE:
+                        d = new Rectangle(v[0], v[1], v[2], v[3], toDraw, toFill, draw, fill);
+                        break;
+                    case IcxParser.POLIGON:
+                        float[] xs = new float[n];
+                        float[] ys = new float[n];
+                        System.arraycopy(v, 0, xs, 0, n);
+                        System.arraycopy(v, n, ys, 0, n);
+                        d = new Poligon(xs, ys, toDraw, toFill, draw, fill);
+                        break;
+                    default:
+                        d = new RegularPoligon(v[0], v[1], v[2], n, (flags & ALTERNATE) != 0,
+                                toDraw, toFill, draw, fill);
+                }
+            } catch (IllegalArgumentException iae) {
+                throw new IOException("Corrupt icb file: " + iae.getMessage(), iae);
+            }
+            chunk.elements.add(d);
+        }
+        int errorCount = in.readCount();
+        for (int i = 0; i < errorCount; i++) {
+            int kind = in.read();
+            chunk.errorLineNumbers.add(in.readCount());
+            chunk.errorColumns.add(in.readCount());
+            chunk.errorKinds.add(kind == 1 ? IcxParser.SYNTAX_ERROR : IcxParser.NOT_ELEMENT);
+            chunk.errorLines.add(in.readString());
+        }
+        if (in.pos != in.end) {
+            throw new IOException("Corrupt icb file: unexpected data after errors");
+        }
+        return chunk;
+    }
+
+    /**
+     * Reads next line of text in memory.
+     *
+     * @param lines line reader over text in memory.
+     * @return next line, or null at end of text.
+     */
+    private static String nextLine(LineReader lines) {
+        try {
+            return lines.readLine();
+        } catch (IOException ioe) {
+            // Text is in memory, so it can always be read
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    /**
+     * Checks magic bytes, version and file CRC of icb data.
+     *
+     * @param data icb file bytes.
+     * @throws IOException if data is not a sound icb file of this version.
+     */
+    private static void check(byte[] data) throws IOException {
+        if (data.length < HEADER_SIZE + 4 || data[0] != 'I' || data[1] != 'C'
+                || data[2] != 'B') {
+            throw new IOException("Not an icb file");
+        }
+        if (data[3] != VERSION) {
+            throw new IOException("Unsupported icb version " + (data[3] & 0xFF)
+                    + ", expected " + VERSION);
+        }
+        int end = data.length - 4;
+        if (readInt(data, end) != crc(data, 0, end)) {
+            throw new IOException("Corrupt icb file: checksum mismatch");
+        }
+    }
+
+    /**
+     * Writes icx values.
+     *
+     * @param out output.
+     * @param v values.
+     * @param count number of values to write.
+     */
+    private static void writeValues(Output out, float[] v, int count) {
+        for (int i = 0; i < count; i++) {
+            if (v[i] <= MAX_INTEGER) {
+                out.writeVarint((long) v[i] << 1);
+            } else {
+                out.writeVarint(1);
+                out.writeInt(Float.floatToRawIntBits(v[i]));
+            }
+        }
+    }
+
+    /**
+     * Reads icx values.
+     *
+     * @param in input.
+     * @param v array to store values.
+     * @param count number of values to read.
+     * @throws IOException if data ends before values.
+     */
+    private static void readValues(Input in, float[] v, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            long value = in.readVarint();
+            v[i] = (value & 1) == 0 ? (float) (value >>> 1) : Float.intBitsToFloat(in.readInt());
+        }
+    }
+
+    /**
+     * Returns color table reference of a color, adding it to table if new.
+     *
+     * @param color color, or null for default color.
+     * @param indexes index of each color in table, by ARGB value.
+     * @param table color table.
+     * @return 1 plus color index, or 0 for default color.
+     */
+    private static int colorRef(Color color, HashMap<Integer, Integer> indexes, Output table) {
+        if (color == null) {
+            return 0;
+        }
+        int argb = color.getRGB();
+        Integer index = indexes.get(argb);
+        if (index == null) {
+            index = indexes.size();
+            indexes.put(argb, index);
+            table.writeInt(argb);
+        }
+        return index + 1;
+    }
+
+    /**
+     * Reads a color table reference.
+     *
+     * @param in input.
+     * @param palette color table.
+     * @return color, or null for default color.
+     * @throws IOException if reference is not in table.
+     */
+    private static Color color(Input in, Color[] palette) throws IOException {
+        int ref = in.readCount();
+        if (ref > palette.length) {
+            throw new IOException("Corrupt icb file: color " + ref + " not in table");
+        }
+        return ref == 0 ? null : palette[ref - 1];
+    }
+
+    /**
+     * Computes CRC-32 of bytes.
+     *
+     * @param data bytes.
+     * @param offset first byte.
+     * @param length number of bytes, or -1 for all bytes after offset.
+     * @return CRC-32 value.
+     */
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length < 0 ? data.length - offset : length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reads a big-endian int.
+     *
+     * @param data bytes.
+     * @param offset first byte.
+     * @return int value.
+     */
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Growable byte buffer with varint and int writers.
+     */
+    private static final class Output extends ByteArrayOutputStream {
+
+        /**
+         * Constructor. Builds an empty buffer.
+         */
+        private Output() {
+            super(256);
+        }
+
+        /**
+         * Returns internal buffer. First {@code size()} bytes are used.
+         *
+         * @return internal buffer.
+         */
+        private byte[] buffer() {
+            return buf;
+        }
+
+        /**
+         * Writes an unsigned LEB128 varint.
+         *
+         * @param value value, read as unsigned.
+         */
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        /**
+         * Writes a big-endian int.
+         *
+         * @param value value.
+         */
+        private void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+    }
+
+    /**
+     * Reader of bytes, varints and ints, with bounds checks.
+     */
+    private static final class Input {
+
+        /**
+         * Bytes.
+         */
+        private final byte[] data;
+
+        /**
+         * Position of next byte.
+         */
+        private int pos;
+
+        /**
+         * Position after last byte.
+         */
+        private final int end;
+
+        /**
+         * Constructor. Builds a reader of a range of bytes.
+         *
+         * @param data bytes.
+         * @param pos first byte.
+         * @param end position after last byte.
+         */
+        private Input(byte[] data, int pos, int end) {
+            this.data = data;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        /**
+         * Reads a byte.
+         *
+         * @return unsigned byte value.
+         * @throws EOFException if there are no more bytes.
+         */
+        private int read() throws EOFException {
+            if (pos >= end) {
+                throw new EOFException("Truncated icb file");
+            }
+            return data[pos++] & 0xFF;
+        }
+
+        /**
+         * Reads an unsigned LEB128 varint.
+         *
+         * @return value.
+         * @throws IOException if varint is truncated or too long.
+         */
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt icb file: varint too long");
+        }
+
+        /**
+         * Reads a count or index, an unsigned varint that fits in an int.
+         *
+         * @return value.
+         * @throws IOException if value is too large.
+         */
+        private int readCount() throws IOException {
+            long value = readVarint();
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt icb file: count " + value + " too large");
+            }
+            return (int) value;
+        }
+
+        /**
+         * Reads a number of items, checking that remaining bytes can hold
+         * them, so that corrupt counts don't allocate huge arrays.
+         *
+         * @param itemSize minimum size of each item, in bytes.
+         * @return number of items.
+         * @throws IOException if remaining bytes can't hold items.
+         */
+        private int readCount(int itemSize) throws IOException {
+            int count = readCount();
+            if (count > (end - pos) / itemSize) {
+                throw new EOFException("Truncated icb file");
+            }
+            return count;
+        }
+
+        /**
+         * Reads a big-endian int.
+         *
+         * @return value.
+         * @throws EOFException if there are less than four bytes.
+         */
+        private int readInt() throws EOFException {
+            if (end - pos < 4) {
+                throw new EOFException("Truncated icb file");
+            }
+            int value = IcbFile.readInt(data, pos);
+            pos += 4;
+            return value;
+        }
+
+        /**
+         * Reads an UTF-8 string, preceded by its length in bytes.
+         *
+         * @return string.
+         * @throws IOException if string is truncated.
+         */
+        private String readString() throws IOException {
+            int length = readCount();
+            if (length > end - pos) {
+                throw new EOFException("Truncated icb file");
+            }
+            String s = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+}
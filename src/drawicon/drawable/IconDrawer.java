@@ -1,13 +1,30 @@
 package drawicon.drawable;
 
+import drawicon.image.PngEncoder;
+import drawicon.image.Resampler;
+import drawicon.metrics.MetricsSink;
+import java.awt.AlphaComposite;
 import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Scanner;
-import javax.imageio.ImageIO;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
 
 /**
  * This class draws an icon based on commands read from a string. Commands must
@@ -56,6 +73,116 @@ public class IconDrawer {
      */
     private final ArrayList<String> syntaxErrorElements;
 
+    /**
+     * Stores columns where syntax errors were found, one for each line in
+     * {@code syntaxErrorElements}.
+     */
+    private final ArrayList<Integer> syntaxErrorColumns;
+
+    /**
+     * Parser used to read element lines.
+     */
+    private final IcxParser parser;
+
+    /**
+     * Lines read in last {@code read()} or {@code readIncremental()} method
+     * call, with their parsed elements and errors.
+     */
+    private final ArrayList<ParsedLine> lineTable;
+
+    /**
+     * Kind of empty lines in line table.
+     */
+    private static final int BLANK = -3;
+
+    /**
+     * Cache of images rendered by {@code getImage()}.
+     */
+    private final RenderCache renderCache;
+
+    /**
+     * Hash of drawable elements read in last {@code read()} method call.
+     */
+    private int sceneHash;
+
+    /**
+     * Drawable elements compiled for rendering, or null if elements changed
+     * since last compiled.
+     */
+    private volatile DisplayList displayList;
+
+    /**
+     * Size of master image to downscale icons from, or zero to render each
+     * icon directly.
+     */
+    private int resampleSize;
+
+    /**
+     * If true, resampled icons are compared with directly rendered ones.
+     */
+    private boolean resampleCheck;
+
+    /**
+     * Encoder used to save icons.
+     */
+    private PngEncoder pngEncoder = new PngEncoder();
+
+    /**
+     * Pool of images for {@code acquireImage()} and for saving icons.
+     */
+    private ImagePool imagePool = new ImagePool(ImagePool.DEFAULT_MAX_BYTES);
+
+    /**
+     * Sink that receives parse, render, encode and write measures, or null
+     * to measure nothing.
+     */
+    private MetricsSink metricsSink;
+
+    /**
+     * If true, rendered images are profiled element by element.
+     */
+    private boolean profiling;
+
+    /**
+     * Profile of last image rendered in profiling mode, or null.
+     */
+    private volatile RenderProfile lastProfile;
+
+    /**
+     * Icx line numbers of elements read by {@code read(Reader)} or
+     * {@code read(Path, ExecutorService)}, or null if elements were read
+     * from a string, whose lines are kept in line table.
+     */
+    private int[] elementLines;
+
+    /**
+     * Images are rendered with Java2D.
+     */
+    public static final int RENDERER_JAVA2D = 0;
+
+    /**
+     * Built-in elements are rendered with a software rasterizer, straight
+     * into image pixels; other elements still use Java2D.
+     */
+    public static final int RENDERER_SOFTWARE = 1;
+
+    /**
+     * Backend used to render images, one of {@code RENDERER_} constants.
+     */
+    private int renderer = RENDERER_JAVA2D;
+
+    /**
+     * Size of tiles large images are rendered in, or zero to render all
+     * images whole.
+     */
+    private int tileSize;
+
+    /**
+     * If true, elements that don't change any pixel are left out of
+     * rendered images.
+     */
+    private boolean sceneOptimization = true;
+
     /**
      * Marks if some error occurred in last {@code read()} method call.
      */
@@ -73,6 +200,11 @@ public class IconDrawer {
         elements = new ArrayList<>();
         notElements = new ArrayList<>();
         syntaxErrorElements = new ArrayList<>();
+        syntaxErrorColumns = new ArrayList<>();
+        parser = new IcxParser();
+        lineTable = new ArrayList<>();
+        renderCache = new RenderCache(RenderCache.DEFAULT_MAX_BYTES);
+        sceneHash = elements.hashCode();
     }
 
     /**
@@ -82,76 +214,363 @@ public class IconDrawer {
      * @param data input string to read command from.
      */
     public void read(String data) {
+        long start = startTime();
+        Drawer[] previous = renderCache.getImageCount() > 0
+                ? elements.toArray(new Drawer[0]) : null;
+        lineTable.clear();
+        elementLines = null;
+        for (String line : splitLines(data)) {
+            lineTable.add(parseLine(line));
+        }
+        elements.clear();
+        for (ParsedLine line : lineTable) {
+            if (line.drawer != null) {
+                elements.add(line.drawer);
+            }
+        }
+        displayList = null;
+        updateErrors();
+        sceneChanged(previous);
+        reportParse(start);
+    }
+
+    /**
+     * Reads commands to draw image from a character stream. Lines are parsed
+     * as they are read, and only drawable elements and error lines are kept,
+     * so memory use doesn't grow with size of source text. Elements and
+     * errors are the same as {@code read(String)} gives for the same text.
+     * Since source text isn't kept, next {@code readIncremental()} call
+     * parses all its text. Reader is not closed.
+     *
+     * @param reader character stream to read commands from.
+     * @throws IOException if reader can't be read. In this case, elements and
+     * errors read before are kept.
+     */
+    public void read(Reader reader) throws IOException {
+        long start = startTime();
+        IcxChunk chunk = new IcxChunk();
+        chunk.parse(reader, parser);
+        load(Collections.singletonList(chunk));
+        reportParse(start);
+    }
+
+    /**
+     * Reads commands to draw image from a byte stream, encoded in UTF-8. See
+     * {@code read(Reader)}. Stream is not closed.
+     *
+     * @param in byte stream to read commands from.
+     * @throws IOException if stream can't be read.
+     */
+    public void read(InputStream in) throws IOException {
+        read(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
 
+    /**
+     * Reads commands to draw image from a file, encoded in UTF-8. See
+     * {@code read(Reader)}.
+     *
+     * @param path icx file to read commands from.
+     * @throws IOException if file can't be read.
+     */
+    public void read(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            read(in);
+        }
+    }
+
+    /**
+     * Reads commands to draw image from a file, encoded in UTF-8, parsing
+     * parts of it concurrently. File is memory-mapped and split at line
+     * boundaries into chunks of a few megabytes, which are parsed as separate
+     * tasks on a pool and merged in file order. Elements, errors and error
+     * line numbers are the same as {@code read(Path)} gives. Files smaller
+     * than one chunk are parsed in the calling thread.
+     *
+     * @param path icx file to read commands from.
+     * @param pool pool to parse chunks on, such as a {@code ForkJoinPool}.
+     * @throws IOException if file can't be read. In this case, elements and
+     * errors read before are kept.
+     */
+    public void read(Path path, ExecutorService pool) throws IOException {
+        long start = startTime();
+        load(IcxFileLoader.parse(path, pool));
+        reportParse(start);
+    }
+
+    /**
+     * Reads elements from an icb file, compiled from an icx file by
+     * {@code IcbFile.compile()}. No text is parsed: elements, errors and
+     * their line numbers are the same as {@code read(Path)} gives for the
+     * icx file. Since source text isn't kept, next {@code readIncremental()}
+     * call parses all its text.
+     *
+     * @param path icb file.
+     * @throws IOException if file can't be read, is not an icb file of this
+     * version, or is corrupt. In this case, elements and errors read before
+     * are kept.
+     */
+    public void readCompiled(Path path) throws IOException {
+        readCompiled(Files.readAllBytes(path));
+    }
+
+    /**
+     * Reads elements from icb file contents, as {@code readCompiled(Path)}
+     * does. With {@code IcbFile.compile(byte[])}, an icx file read once can
+     * be both loaded and saved as icb file.
+     *
+     * @param data icb file bytes.
+     * @throws IOException if data is not an icb file of this version, or is
+     * corrupt. In this case, elements and errors read before are kept.
+     */
+    public void readCompiled(byte[] data) throws IOException {
+        long start = startTime();
+        load(Collections.singletonList(IcbFile.load(data)));
+        reportParse(start);
+    }
+
+    /**
+     * Replaces elements and errors with ones parsed from pieces of a text.
+     * Error line numbers of each piece are shifted by number of lines of
+     * previous pieces.
+     *
+     * @param chunks parsed pieces, in text order.
+     */
+    void load(List<IcxChunk> chunks) {
+        Drawer[] previous = renderCache.getImageCount() > 0
+                ? elements.toArray(new Drawer[0]) : null;
+        lineTable.clear();
         elements.clear();
         notElements.clear();
         syntaxErrorElements.clear();
+        syntaxErrorColumns.clear();
         lastError = false;
-        Scanner scanner = new Scanner(data);
-
-        int lineCount = 1;
-        while (scanner.hasNext()) {
-            String line = scanner.nextLine().trim();
-            if (line.isEmpty()) {
-                lineCount++;
-                continue;
+        int count = 0;
+        for (IcxChunk chunk : chunks) {
+            count += chunk.elements.size();
+        }
+        elementLines = new int[count];
+        int offset = 0;
+        for (IcxChunk chunk : chunks) {
+            for (int i = 0; i < chunk.elements.size(); i++) {
+                elementLines[elements.size() + i] = offset + chunk.elementLineNumbers[i];
             }
-            int b1 = line.indexOf('[');
-            if (b1 == -1) {
-                addNotElementError(line, lineCount);
-                lineCount++;
-                continue;
+            elements.addAll(chunk.elements);
+            for (int i = 0; i < chunk.errorLines.size(); i++) {
+                int lineNumber = offset + chunk.errorLineNumbers.get(i);
+                if (chunk.errorKinds.get(i) == IcxParser.NOT_ELEMENT) {
+                    addNotElementError(chunk.errorLines.get(i), lineNumber);
+                } else {
+                    addSyntaxError(chunk.errorLines.get(i), lineNumber,
+                            chunk.errorColumns.get(i));
+                }
             }
-            String elementType = line.substring(0, b1);
-            switch (elementType) {
-                case "Line":
-                    if (line.matches(Line.PATTERN)) {
-                        elements.add(new Line(line));
-                    } else {
-                        addSyntaxError(line, lineCount);
-                    }
-                    break;
-                case "Circle":
-                    if (line.matches(Circle.PATTERN)) {
-                        elements.add(new Circle(line));
-                    } else {
-                        addSyntaxError(line, lineCount);
-                    }
-                    break;
-                case "Ellipse":
-                    if (line.matches(Ellipse.PATTERN)) {
-                        elements.add(new Ellipse(line));
-                    } else {
-                        addSyntaxError(line, lineCount);
-                    }
-                    break;
-                case "Rectangle":
-                    if (line.matches(Rectangle.PATTERN)) {
-                        elements.add(new Rectangle(line));
-                    } else {
-                        addSyntaxError(line, lineCount);
-                    }
-                    break;
-                case "Poligon":
-                    if (line.matches(Poligon.PATTERN)) {
-                        elements.add(new Poligon(line));
-                    } else {
-                        addSyntaxError(line, lineCount);
-                    }
-                    break;
-                case "RegularPoligon":
-                    if (line.matches(RegularPoligon.PATTERN)) {
-                        elements.add(new RegularPoligon(line));
-                    } else {
-                        addSyntaxError(line, lineCount);
-                    }
+            offset += chunk.lineCount;
+        }
+        displayList = null;
+        sceneChanged(previous);
+    }
+
+    /**
+     * Reads commands to draw image from string, reusing elements read in last
+     * {@code read()} or {@code readIncremental()} method call. New text is
+     * compared line by line with text read before: lines that are the same at
+     * start and at end of both texts keep their elements, and only lines
+     * between them are parsed again. Results, including error line numbers,
+     * are the same as {@code read(data)}.
+     *
+     * @param data input string to read command from.
+     */
+    public void readIncremental(String data) {
+        if (lineTable.isEmpty()) {
+            read(data);
+            return;
+        }
+        long start = startTime();
+        List<String> lines = splitLines(data);
+        int oldCount = lineTable.size();
+        int newCount = lines.size();
+        int prefix = 0;
+        while (prefix < oldCount && prefix < newCount
+                && lineTable.get(prefix).text.equals(lines.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldCount - prefix && suffix < newCount - prefix
+                && lineTable.get(oldCount - 1 - suffix).text.equals(
+                        lines.get(newCount - 1 - suffix))) {
+            suffix++;
+        }
+
+        int elementStart = 0;
+        for (int i = 0; i < prefix; i++) {
+            if (lineTable.get(i).drawer != null) {
+                elementStart++;
+            }
+        }
+        List<ParsedLine> oldLines = lineTable.subList(prefix, oldCount - suffix);
+        List<Drawer> oldElements = new ArrayList<>();
+        for (ParsedLine line : oldLines) {
+            if (line.drawer != null) {
+                oldElements.add(line.drawer);
+            }
+        }
+        List<ParsedLine> newLines = new ArrayList<>();
+        List<Drawer> newElements = new ArrayList<>();
+        for (String line : lines.subList(prefix, newCount - suffix)) {
+            ParsedLine parsed = parseLine(line);
+            newLines.add(parsed);
+            if (parsed.drawer != null) {
+                newElements.add(parsed.drawer);
+            }
+        }
+
+        oldLines.clear();
+        lineTable.addAll(prefix, newLines);
+        elements.subList(elementStart, elementStart + oldElements.size()).clear();
+        elements.addAll(elementStart, newElements);
+        displayList = null;
+        updateErrors();
+        if (!oldElements.equals(newElements)) {
+            renderCache.clear();
+        }
+        sceneHash = elements.hashCode();
+        reportParse(start);
+    }
+
+    /**
+     * Returns current time if a metrics sink is set.
+     *
+     * @return {@code System.nanoTime()}, or zero if there is no metrics sink.
+     */
+    long startTime() {
+        return metricsSink != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Reports a read text to metrics sink, with counts of elements read by
+     * type and of error lines.
+     *
+     * @param start time reading started, from {@code startTime()}.
+     */
+    void reportParse(long start) {
+        MetricsSink sink = metricsSink;
+        if (sink == null || start == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        int[] counts = new int[MetricsSink.ELEMENT_TYPES];
+        for (Drawer d : elements) {
+            counts[elementType(d)]++;
+        }
+        sink.parsed(nanos, counts, syntaxErrorElements.size(), notElements.size());
+    }
+
+    /**
+     * Returns type of an element, as counted by metrics sinks.
+     *
+     * @param d drawable element.
+     * @return one of element type constants of {@code MetricsSink}.
+     */
+    private static int elementType(Drawer d) {
+        if (d instanceof Line) {
+            return MetricsSink.LINE;
+        } else if (d instanceof Circle) {
+            return MetricsSink.CIRCLE;
+        } else if (d instanceof Ellipse) {
+            return MetricsSink.ELLIPSE;
+        } else if (d instanceof Rectangle) {
+            return MetricsSink.RECTANGLE;
+        } else if (d instanceof RegularPoligon) {
+            return MetricsSink.REGULAR_POLIGON;
+        } else if (d instanceof Poligon) {
+            return MetricsSink.POLIGON;
+        }
+        return MetricsSink.OTHER;
+    }
+
+    /**
+     * Splits text into trimmed lines. Lines are split the same way as
+     * {@code Scanner.nextLine()} does, and lines after last non whitespace
+     * character are dropped, so line numbers are the same as when text is
+     * read with a {@code Scanner}.
+     *
+     * @param data text to split.
+     * @return trimmed lines.
+     */
+    static List<String> splitLines(String data) {
+        int end = data.length();
+        while (end > 0 && Character.isWhitespace(data.charAt(end - 1))) {
+            end--;
+        }
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < end) {
+            int i = start;
+            char c = 0;
+            while (i < data.length()) {
+                c = data.charAt(i);
+                if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029'
+                        || c == '\u0085') {
                     break;
-                default:
-                    addNotElementError(line, lineCount);
+                }
+                i++;
+            }
+            lines.add(data.substring(start, i).trim());
+            start = i + 1;
+            if (c == '\r' && start < data.length() && data.charAt(start) == '\n') {
+                start++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Parses a trimmed line.
+     *
+     * @param line trimmed line.
+     * @return parsed line.
+     */
+    private ParsedLine parseLine(String line) {
+        if (line.isEmpty()) {
+            return new ParsedLine(line, BLANK, 0, null);
+        }
+        int kind = parser.parse(line);
+        return new ParsedLine(line, kind, parser.errorColumn,
+                kind >= 0 ? parser.build() : null);
+    }
+
+    /**
+     * Rebuilds error lists from line table.
+     */
+    private void updateErrors() {
+        notElements.clear();
+        syntaxErrorElements.clear();
+        syntaxErrorColumns.clear();
+        lastError = false;
+        for (int i = 0; i < lineTable.size(); i++) {
+            ParsedLine line = lineTable.get(i);
+            if (line.kind == IcxParser.NOT_ELEMENT) {
+                addNotElementError(line.text, i + 1);
+            } else if (line.kind == IcxParser.SYNTAX_ERROR) {
+                addSyntaxError(line.text, i + 1, line.column);
             }
-            lineCount++;
+        }
+    }
 
+    /**
+     * Updates scene hash after elements are read, and clears render cache
+     * unless elements are the same as before.
+     *
+     * @param previous elements before reading, or null if render cache is
+     * empty.
+     */
+    private void sceneChanged(Drawer[] previous) {
+        int hash = elements.hashCode();
+        if (hash != sceneHash || previous == null
+                || !elements.equals(Arrays.asList(previous))) {
+            renderCache.clear();
         }
+        sceneHash = hash;
     }
 
     /**
@@ -159,9 +578,11 @@ public class IconDrawer {
      *
      * @param line line with syntax error.
      * @param lineNumber line number.
+     * @param column column where error was found.
      */
-    private void addSyntaxError(String line, int lineNumber) {
+    private void addSyntaxError(String line, int lineNumber, int column) {
         syntaxErrorElements.add("line " + lineNumber + ": " + line);
+        syntaxErrorColumns.add(column);
         lastError = true;
     }
 
@@ -178,30 +599,409 @@ public class IconDrawer {
 
     /**
      * Makes an imagem using drawable elements defined in read() method.
+     * Images are kept in a render cache until elements change, so repeated
+     * calls with the same size return the same image, which must not be
+     * modified by callers. In profiling mode, the render cache is not used,
+     * so each call renders and profiles a new image.
      *
      * @param size image size in pixels.
      * @return an image with size X size pixels.
      */
     public BufferedImage getImage(int size) {
+        return getImage(size, null);
+    }
+
+    /**
+     * Makes an image as {@code getImage(int)} does, unless cancelled. The
+     * cancel check is called between elements, so a render that is no longer
+     * wanted, such as a preview of outdated text, stops early instead of
+     * delaying newer ones. Partly rendered images are dropped, never cached.
+     * In profiling mode, images are always rendered whole.
+     *
+     * @param size image size in pixels.
+     * @param cancelled returns true once the image is no longer wanted, or
+     * null to always render whole images. It may be called from fork-join
+     * workers when rendering in tiles.
+     * @return an image with size X size pixels, or null if cancelled.
+     */
+    public BufferedImage getImage(int size, BooleanSupplier cancelled) {
+        if (profiling) {
+            return render(size);
+        }
+        BufferedImage image = renderCache.get(sceneHash, size);
+        if (image == null) {
+            image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            if (!render(image, size, cancelled)) {
+                return null;
+            }
+            renderCache.put(sceneHash, size, image);
+        }
+        return image;
+    }
+
+    /**
+     * Renders drawable elements into a new image.
+     *
+     * @param size image size in pixels.
+     * @return an image with size X size pixels.
+     */
+    private BufferedImage render(int size) {
         BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2 = image.createGraphics();
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                RenderingHints.VALUE_ANTIALIAS_ON);
-        elements.stream().forEach((d) -> {
-            d.draw(g2, size);
-        });
-        g2.dispose();
+        render(image, size);
         return image;
     }
 
     /**
-     * Save icons in specified directory.
+     * Renders drawable elements into a transparent image.
+     *
+     * @param image image to draw on, of type {@code TYPE_INT_ARGB}.
+     * @param size image size in pixels.
+     */
+    private void render(BufferedImage image, int size) {
+        render(image, size, null);
+    }
+
+    /**
+     * Renders drawable elements into a transparent image, unless cancelled.
+     * Cancelled renders are not reported to metrics sink.
+     *
+     * @param image image to draw on, of type {@code TYPE_INT_ARGB}.
+     * @param size image size in pixels.
+     * @param cancelled checked between elements, or null to render all of
+     * them.
+     * @return false if rendering was cancelled, leaving image partly drawn.
+     */
+    private boolean render(BufferedImage image, int size, BooleanSupplier cancelled) {
+        if (profiling) {
+            lastProfile = profile(image, size);
+            return true;
+        }
+        long start = startTime();
+        boolean done = draw(image, size, cancelled);
+        if (done) {
+            reportRender(size, start);
+        }
+        return done;
+    }
+
+    /**
+     * Draws drawable elements into a transparent image with the current
+     * renderer, without profiling it nor reporting it to metrics sink.
+     *
+     * @param image image to draw on, of type {@code TYPE_INT_ARGB}.
+     * @param size image size in pixels.
+     * @param cancelled checked between elements, or null to draw all of them.
+     * @return false if drawing was cancelled, leaving image partly drawn.
+     */
+    private boolean draw(BufferedImage image, int size, BooleanSupplier cancelled) {
+        DisplayList list = getDisplayList();
+        if (tileSize > 0 && size > tileSize) {
+            return list.renderTiles(image, size, tileSize, renderer == RENDERER_SOFTWARE,
+                    sceneOptimization, cancelled);
+        } else if (renderer == RENDERER_SOFTWARE) {
+            return list.rasterize(image, size, sceneOptimization, cancelled);
+        }
+        return list.render(image, size, sceneOptimization, cancelled);
+    }
+
+    /**
+     * Reports a rendered image to metrics sink.
+     *
+     * @param size image size in pixels.
+     * @param start time rendering started, from {@code startTime()}.
+     */
+    private void reportRender(int size, long start) {
+        MetricsSink sink = metricsSink;
+        if (sink != null && start != 0) {
+            sink.rendered(size, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Renders drawable elements into a transparent image, timing each
+     * element, and emits a Flight Recorder event for each element if
+     * recording. Images are rendered whole, with the current renderer.
+     *
+     * @param image image to draw on, of type {@code TYPE_INT_ARGB}.
+     * @param size image size in pixels.
+     * @return profile of rendered image.
+     */
+    private RenderProfile profile(BufferedImage image, int size) {
+        long start = startTime();
+        DisplayList list = getDisplayList();
+        long[] nanos = list.profile(image, size, renderer == RENDERER_SOFTWARE,
+                sceneOptimization);
+        reportRender(size, start);
+        int n = nanos.length;
+        String[] types = new String[n];
+        long[] areas = new long[n];
+        Drawer[] drawers = elements.toArray(new Drawer[0]);
+        for (int i = 0; i < n; i++) {
+            types[i] = drawers[i].getClass().getSimpleName();
+            areas[i] = list.getArea(size, i);
+        }
+        RenderProfile profile = new RenderProfile(size, types, getElementLines(), nanos, areas);
+        ElementRenderEvents.emit(profile);
+        return profile;
+    }
+
+    /**
+     * Renders drawable elements into a new image, timing each element. See
+     * {@code setProfiling()}.
+     *
+     * @param size image size in pixels.
+     * @return profile of rendered image.
+     */
+    public RenderProfile profile(int size) {
+        BufferedImage image = imagePool.acquire(size);
+        try {
+            clear(image);
+            return profile(image, size);
+        } finally {
+            imagePool.release(image);
+        }
+    }
+
+    /**
+     * Returns icx line numbers of elements.
+     *
+     * @return line number of each element, starting at 1.
+     */
+    private int[] getElementLines() {
+        if (elementLines != null) {
+            return elementLines.clone();
+        }
+        int[] lines = new int[elements.size()];
+        int e = 0;
+        for (int i = 0; i < lineTable.size(); i++) {
+            if (lineTable.get(i).drawer != null) {
+                lines[e++] = i + 1;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Renders drawable elements into a caller's image, clearing it first.
+     * Images are not taken from nor put in the render cache, so rendering
+     * again and again into the same image allocates no raster. Rendering with
+     * the software renderer allocates nothing once warm; Java2D still makes
+     * small temporary objects for each element.
+     *
+     * @param image image to draw on, of type {@code TYPE_INT_ARGB}, with equal
+     * width and height, and not a subimage. Its width is the icon size.
+     */
+    public void renderInto(BufferedImage image) {
+        int size = image.getWidth();
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB || image.getHeight() != size
+                || image.getRaster().getParent() != null) {
+            throw new IllegalArgumentException("Icons can only be rendered into"
+                    + " square TYPE_INT_ARGB images");
+        }
+        clear(image);
+        render(image, size);
+    }
+
+    /**
+     * Makes all pixels of an image transparent.
+     *
+     * @param image image of type {@code TYPE_INT_ARGB}, not a subimage.
+     */
+    private void clear(BufferedImage image) {
+        if (renderer == RENDERER_SOFTWARE) {
+            Arrays.fill(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0);
+        } else {
+            Graphics2D g = image.createGraphics();
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g.dispose();
+        }
+    }
+
+    /**
+     * Renders drawable elements into an image taken from the image pool.
+     * The image belongs to the caller until it is given back with
+     * {@code releaseImage()}.
+     *
+     * @param size image size in pixels.
+     * @return an image with size X size pixels.
+     */
+    public BufferedImage acquireImage(int size) {
+        BufferedImage image = imagePool.acquire(size);
+        renderInto(image);
+        return image;
+    }
+
+    /**
+     * Gives an image back to the image pool, to be reused by later renders.
+     * The image must not be used after this call.
+     *
+     * @param image image from {@code acquireImage()}.
+     */
+    public void releaseImage(BufferedImage image) {
+        imagePool.release(image);
+    }
+
+    /**
+     * Draws drawable elements defined in read() method on a graphic context.
+     * Pixel coordinates of elements are cached for each size, so drawing
+     * again at the same size doesn't recompute them.
+     *
+     * @param g graphic context to draw on.
+     * @param size icon size in pixels.
+     */
+    public void draw(Graphics2D g, int size) {
+        long start = startTime();
+        getDisplayList().render(g, size);
+        reportRender(size, start);
+    }
+
+    /**
+     * Returns drawable elements compiled for rendering, compiling them if
+     * they changed since last call.
+     *
+     * @return display list of drawable elements.
+     */
+    private DisplayList getDisplayList() {
+        DisplayList list = displayList;
+        if (list == null) {
+            synchronized (this) {
+                list = displayList;
+                if (list == null) {
+                    list = DisplayList.compile(elements);
+                    displayList = list;
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Save icons in specified directory. Icons are rendered and written one
+     * at a time, in current thread. If a master image size is set, it is
+     * rendered first and icons are downscaled from it. Icons that are not in
+     * the render cache are rendered into images of the image pool, which
+     * are given back once written.
+     *
+     * @param dir directory to save icons. A subdirectory to each icon will be
+     * created.
+     * @param fileName icon file name. All icons have this same fale name.
+     * @return status and timings of each saved icon.
+     */
+    public SaveResult save(File dir, String fileName) {
+        String dirName = checkDir(dir);
+        long start = System.nanoTime();
+        BufferedImage master = resampleSize > 0 ? getImage(resampleSize) : null;
+        List<SaveResult.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < pathNames.length; i++) {
+            entries.add(saveIcon(dirName, i, fileName, master));
+        }
+        return new SaveResult(entries, System.nanoTime() - start);
+    }
+
+    /**
+     * Save icons in specified directory concurrently. Each icon is rendered,
+     * encoded and written by its own task in {@code executor}, so encoding and
+     * writing of some icons overlaps rendering of others. This method returns
+     * when all icons are saved or have failed; a failed icon, even by an
+     * unexpected exception, has its error in its own entry.
      *
      * @param dir directory to save icons. A subdirectory to each icon will be
      * created.
      * @param fileName icon file name. All icons have this same fale name.
+     * @param executor executor to run save tasks.
+     * @return status and timings of each saved icon.
+     */
+    public SaveResult save(File dir, String fileName, ExecutorService executor) {
+        String dirName = checkDir(dir);
+        long start = System.nanoTime();
+        List<Callable<SaveResult.Entry>> tasks = saveTasks(dir, fileName);
+        List<SaveResult.Entry> entries = new ArrayList<>();
+        try {
+            List<Future<SaveResult.Entry>> futures = executor.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    entries.add(futures.get(i).get());
+                } catch (ExecutionException ee) {
+                    SaveResult.Entry e = new SaveResult.Entry(sizes[i], iconFile(dirName, i, fileName));
+                    e.setFailure(ee.getCause());
+                    entries.add(e);
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            for (int i = entries.size(); i < pathNames.length; i++) {
+                SaveResult.Entry e = new SaveResult.Entry(sizes[i], iconFile(dirName, i, fileName));
+                e.setError(new InterruptedIOException("Interrupted while saving icons"));
+                entries.add(e);
+            }
+        }
+        return new SaveResult(entries, System.nanoTime() - start);
+    }
+
+    /**
+     * Returns tasks that save icons in specified directory, one for each icon
+     * size, in the same order as {@code getSizes()}. Tasks may run on any
+     * executor, in any order and concurrently, so icons of many drawers can
+     * be scheduled together. With resampling, master image is rendered by
+     * the first task that needs it.
+     *
+     * @param dir directory to save icons. A subdirectory to each icon will be
+     * created.
+     * @param fileName icon file name. All icons have this same file name.
+     * @return save tasks, each giving status and timings of its icon. Tasks
+     * don't throw: failures are kept as errors of their entries.
+     */
+    public List<Callable<SaveResult.Entry>> saveTasks(File dir, String fileName) {
+        String dirName = checkDir(dir);
+        int masterSize = resampleSize;
+        BufferedImage[] master = new BufferedImage[1];
+        List<Callable<SaveResult.Entry>> tasks = new ArrayList<>();
+        for (int i = 0; i < pathNames.length; i++) {
+            int index = i;
+            tasks.add(() -> {
+                BufferedImage m = null;
+                if (masterSize > 0) {
+                    try {
+                        synchronized (master) {
+                            if (master[0] == null) {
+                                master[0] = getImage(masterSize);
+                            }
+                            m = master[0];
+                        }
+                    } catch (RuntimeException re) {
+                        SaveResult.Entry e = new SaveResult.Entry(sizes[index],
+                                iconFile(dirName, index, fileName));
+                        e.setFailure(re);
+                        return e;
+                    }
+                }
+                return saveIcon(dirName, index, fileName, m);
+            });
+        }
+        return tasks;
+    }
+
+    /**
+     * Save icons in specified directory.
+     *
+     * @param dirName directory name to save icons. A subdirectory to each icon
+     * will be created.
+     * @param fileName icon file name. All icons have this same fale name.
+     * @return status and timings of each saved icon.
+     */
+    public SaveResult save(String dirName, String fileName) {
+        File dir = new File(dirName);
+        return save(dir, fileName);
+    }
+
+    /**
+     * Checks if icons can be saved in a directory.
+     *
+     * @param dir directory to save icons.
+     * @return directory path, ending with file separator.
      */
-    public void save(File dir, String fileName) {
+    private String checkDir(File dir) {
         if (!dir.exists()) {
             throw new IllegalArgumentException("Error: directory " + dir.getName() + " doesn't exists.");
         }
@@ -212,29 +1012,110 @@ public class IconDrawer {
         if (!dirName.endsWith(SEPARATOR)) {
             dirName += SEPARATOR;
         }
-        for (int i = 0; i < pathNames.length; i++) {
-            File outDir = new File(dirName + pathNames[i]);
-            outDir.mkdir();
-            File out = new File(dirName + pathNames[i] + SEPARATOR + fileName);
-            BufferedImage icon = getImage(sizes[i]);
-            try {
-                ImageIO.write(icon, "PNG", out);
-            } catch (IOException ioe) {
+        return dirName;
+    }
 
+    /**
+     * Returns file to save an icon.
+     *
+     * @param dirName directory path, ending with file separator.
+     * @param index icon index in {@code sizes}.
+     * @param fileName icon file name.
+     * @return icon file.
+     */
+    private File iconFile(String dirName, int index, String fileName) {
+        return new File(dirName + pathNames[index] + SEPARATOR + fileName);
+    }
+
+    /**
+     * Renders, encodes and writes one icon.
+     *
+     * @param dirName directory path, ending with file separator.
+     * @param index icon index in {@code sizes}.
+     * @param fileName icon file name.
+     * @param master image to downscale icon from, or null to render icon
+     * directly.
+     * @return status and timings of saved icon. If rendering, resampling or
+     * encoding fails with an unexpected exception, it is kept as entry error.
+     */
+    private SaveResult.Entry saveIcon(String dirName, int index, String fileName,
+            BufferedImage master) {
+        File outDir = new File(dirName + pathNames[index]);
+        outDir.mkdir();
+        File out = iconFile(dirName, index, fileName);
+        int size = sizes[index];
+        SaveResult.Entry entry = new SaveResult.Entry(size, out);
+        long t0 = System.nanoTime();
+        long renderTime = 0;
+        long t1 = t0;
+        long t2 = t0;
+        BufferedImage pooled = null;
+        MetricsSink sink = metricsSink;
+        try {
+            BufferedImage icon;
+            if (master == null) {
+                icon = renderCache.get(sceneHash, size);
+                if (icon == null) {
+                    icon = pooled = acquireImage(size);
+                }
+            } else if (master.getWidth() == size) {
+                icon = master;
+            } else {
+                icon = Resampler.downscale(master, size, size);
+                entry.setResampled();
+            }
+            renderTime = System.nanoTime() - t0;
+            if (entry.isResampled() && resampleCheck) {
+                checkResampled(entry, icon);
+            }
+            t1 = System.nanoTime();
+            t2 = t1;
+            byte[] png = pngEncoder.encode(icon);
+            t2 = System.nanoTime();
+            if (sink != null) {
+                sink.encoded(size, t2 - t1, png.length);
+            }
+            Files.write(out.toPath(), png);
+            entry.setBytes(png.length);
+            if (sink != null) {
+                sink.written(size, System.nanoTime() - t2, png.length);
+            }
+        } catch (IOException ioe) {
+            entry.setError(ioe);
+            if (sink != null) {
+                sink.writeFailed(size, ioe);
+            }
+        } catch (RuntimeException re) {
+            entry.setFailure(re);
+        } finally {
+            if (pooled != null) {
+                releaseImage(pooled);
             }
         }
+        entry.setTimes(renderTime, t2 - t1, System.nanoTime() - t2);
+        return entry;
     }
 
     /**
-     * Save icons in specified directory.
+     * Measures pixel differences between a resampled icon and the same icon
+     * rendered directly. The direct render is only a reference: it is drawn
+     * into a pooled image, and is neither cached, profiled nor reported to
+     * metrics sink.
      *
-     * @param dirName directory name to save icons. A subdirectory to each icon
-     * will be created.
-     * @param fileName icon file name. All icons have this same fale name.
+     * @param entry entry of resampled icon, to store differences in.
+     * @param icon resampled icon.
      */
-    public void save(String dirName, String fileName) {
-        File dir = new File(dirName);
-        save(dir, fileName);
+    private void checkResampled(SaveResult.Entry entry, BufferedImage icon) {
+        int size = icon.getWidth();
+        BufferedImage direct = imagePool.acquire(size);
+        try {
+            clear(direct);
+            draw(direct, size, null);
+            entry.setDifference(Resampler.meanDifference(icon, direct),
+                    Resampler.maxDifference(icon, direct));
+        } finally {
+            imagePool.release(direct);
+        }
     }
 
     /**
@@ -257,6 +1138,324 @@ public class IconDrawer {
         return syntaxErrorElements.toArray(new String[0]);
     }
 
+    /**
+     * Returns cache of images rendered by {@code getImage()}. It can be used
+     * to read hit and miss counters or to change its memory limit.
+     *
+     * @return render cache.
+     */
+    public RenderCache getRenderCache() {
+        return renderCache;
+    }
+
+    /**
+     * Sets size of a master image to derive icons from. When set, icons are
+     * not rendered one by one: scene is rendered once at this size, and each
+     * smaller icon is downscaled from it by area averaging. This is faster
+     * for complex scenes, at the cost of small differences from direct
+     * rendering, which can be measured with {@code setResampleCheck()}:
+     * direct rendering rounds element positions down to whole pixels at each
+     * size, while downscaling keeps their exact fractional coverage, so edges
+     * may move by up to one pixel. A size larger than largest icon size
+     * supersamples all icons.
+     *
+     * @param size master image size, in pixels, not smaller than largest icon
+     * size, or zero to render each icon directly (default).
+     */
+    public void setResampleSize(int size) {
+        if (size != 0 && size < sizes[sizes.length - 1]) {
+            throw new IllegalArgumentException("Master image size " + size
+                    + " is smaller than largest icon size " + sizes[sizes.length - 1]);
+        }
+        resampleSize = size;
+    }
+
+    /**
+     * Returns size of master image icons are derived from.
+     *
+     * @return master image size, in pixels, or zero if icons are rendered
+     * directly.
+     */
+    public int getResampleSize() {
+        return resampleSize;
+    }
+
+    /**
+     * Sets if resampled icons are compared with icons rendered directly when
+     * saved. Differences are reported in each {@code SaveResult.Entry}. Since
+     * each resampled icon is rendered again, checking costs more than
+     * rendering directly; it is meant to decide whether resampling is good
+     * enough for an icon.
+     *
+     * @param check if true, resampled icons are compared.
+     */
+    public void setResampleCheck(boolean check) {
+        resampleCheck = check;
+    }
+
+    /**
+     * Returns true if resampled icons are compared with icons rendered
+     * directly when saved.
+     *
+     * @return true if resampled icons are compared.
+     */
+    public boolean isResampleCheck() {
+        return resampleCheck;
+    }
+
+    /**
+     * Sets encoder used to save icons. Default encoder balances speed and
+     * size; {@code PngEncoder.fastest()} suits quick previews and
+     * {@code PngEncoder.smallest()} release builds.
+     *
+     * @param encoder PNG encoder.
+     */
+    public void setPngEncoder(PngEncoder encoder) {
+        if (encoder == null) {
+            throw new IllegalArgumentException("PNG encoder can't be null");
+        }
+        pngEncoder = encoder;
+    }
+
+    /**
+     * Returns encoder used to save icons.
+     *
+     * @return PNG encoder.
+     */
+    public PngEncoder getPngEncoder() {
+        return pngEncoder;
+    }
+
+    /**
+     * Sets backend used to render images. Java2D is the default; the software
+     * rasterizer draws built-in elements without Java2D overhead, and its
+     * pixels differ from Java2D ones only by antialiasing rounding. Drawing
+     * on a graphic context with {@code draw()} always uses Java2D.
+     *
+     * @param renderer one of {@code RENDERER_} constants.
+     */
+    public void setRenderer(int renderer) {
+        if (renderer != RENDERER_JAVA2D && renderer != RENDERER_SOFTWARE) {
+            throw new IllegalArgumentException("Unknown renderer: " + renderer);
+        }
+        if (renderer != this.renderer) {
+            this.renderer = renderer;
+            renderCache.clear();
+        }
+    }
+
+    /**
+     * Sets pool of images used by {@code acquireImage()} and to render icons
+     * being saved. Drawers rendering many scenes, like batch renderers, can
+     * share one pool so that icons of every scene reuse the same images.
+     *
+     * @param pool image pool.
+     */
+    public void setImagePool(ImagePool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Image pool can't be null");
+        }
+        imagePool = pool;
+    }
+
+    /**
+     * Returns pool of images used by {@code acquireImage()} and to render
+     * icons being saved.
+     *
+     * @return image pool.
+     */
+    public ImagePool getImagePool() {
+        return imagePool;
+    }
+
+    /**
+     * Sets profiling mode. In profiling mode, each image rendered by
+     * {@code getImage()}, {@code renderInto()} or {@code save()} is rendered
+     * whole, even if a tile size is set, timing each element; the profile
+     * of last image is kept, see {@code getLastProfile()}. If JDK Flight
+     * Recorder is recording, an event named {@code drawicon.ElementRender}
+     * is emitted for each element. Profiling makes rendering slower.
+     *
+     * @param profiling true to profile rendered images.
+     */
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    /**
+     * Returns true if rendered images are profiled.
+     *
+     * @return true in profiling mode.
+     */
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    /**
+     * Returns profile of last image rendered in profiling mode.
+     *
+     * @return profile, or null if no image was profiled.
+     */
+    public RenderProfile getLastProfile() {
+        return lastProfile;
+    }
+
+    /**
+     * Sets sink that receives measures of reading texts, rendering images,
+     * and encoding and writing icons. Sink may be shared by many drawers.
+     * Without a sink, nothing is measured.
+     *
+     * @param sink metrics sink, or null to measure nothing.
+     */
+    public void setMetricsSink(MetricsSink sink) {
+        metricsSink = sink;
+    }
+
+    /**
+     * Returns sink that receives measures.
+     *
+     * @return metrics sink, or null if nothing is measured.
+     */
+    public MetricsSink getMetricsSink() {
+        return metricsSink;
+    }
+
+    /**
+     * Returns backend used to render images.
+     *
+     * @return one of {@code RENDERER_} constants.
+     */
+    public int getRenderer() {
+        return renderer;
+    }
+
+    /**
+     * Sets size of tiles large images are rendered in. Images larger than
+     * a tile are split in tiles, rendered in parallel by fork-join tasks on
+     * the common pool, and each tile draws only elements whose bounds touch
+     * it. Pixels are the same as when rendering whole images: with Java2D,
+     * elements crossing tile borders are drawn on the whole image, so only
+     * scenes of many small elements are drawn mostly in parallel. Tiling
+     * pays off for sizes of thousands of pixels, such as store listing
+     * artwork; launcher icons are better rendered whole.
+     *
+     * @param size tile width and height, in pixels, or zero to render all
+     * images whole (default).
+     */
+    public void setTileSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Tile size can't be negative: " + size);
+        }
+        if (size != tileSize) {
+            tileSize = size;
+            renderCache.clear();
+        }
+    }
+
+    /**
+     * Sets if elements that don't change any pixel are left out of rendered
+     * images. These are elements that are neither drawn nor filled or have
+     * transparent colors, elements off-canvas, elements hidden under later
+     * opaque filled rectangles or circles, and rectangles or straight lines
+     * drawn again later. Images are the same pixel by pixel either way; the
+     * scene is checked once for each size, at pixel coordinates, and only
+     * whole-pixel coverage is trusted. Drawing on a graphic context with
+     * {@code draw()} always draws all elements.
+     *
+     * @param optimize if true, elements that don't change any pixel are left
+     * out (default).
+     */
+    public void setSceneOptimization(boolean optimize) {
+        sceneOptimization = optimize;
+    }
+
+    /**
+     * Returns true if elements that don't change any pixel are left out of
+     * rendered images.
+     *
+     * @return true if scene optimization is on.
+     */
+    public boolean isSceneOptimization() {
+        return sceneOptimization;
+    }
+
+    /**
+     * Returns number of elements left out of images of a size by scene
+     * optimization.
+     *
+     * @param size image size, in pixels.
+     * @return number of elements that don't change any pixel at that size,
+     * or zero if scene optimization is off.
+     */
+    public int getRemovedElementCount(int size) {
+        return sceneOptimization ? getDisplayList().getRemovedCount(size) : 0;
+    }
+
+    /**
+     * Returns size of tiles large images are rendered in.
+     *
+     * @return tile width and height, in pixels, or zero if images are
+     * rendered whole.
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Returns number of drawable elements read in last {@code read()} method
+     * call.
+     *
+     * @return number of drawable elements.
+     */
+    public int getElementCount() {
+        return elements.size();
+    }
+
+    /**
+     * Returns columns where syntax errors were found in {@code read()} method
+     * call. Columns start at 1, are relative to trimmed line text, and are in
+     * the same order as lines returned by {@code getSyntaxErrorLines()}.
+     *
+     * @return columns where syntax errors were found.
+     */
+    public int[] getSyntaxErrorColumns() {
+        int[] columns = new int[syntaxErrorColumns.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = syntaxErrorColumns.get(i);
+        }
+        return columns;
+    }
+
+    /**
+     * Returns icon sizes, in pixels, used by {@code save()} method. Sizes are
+     * in the same order as directory names returned by
+     * {@code getPathNames()}.
+     *
+     * @return a copy of icon sizes.
+     */
+    public int[] getSizes() {
+        return sizes.clone();
+    }
+
+    /**
+     * Returns largest icon size used by {@code save()} method.
+     *
+     * @return largest icon size, in pixels.
+     */
+    public int getLargestSize() {
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * Returns directory names used by {@code save()} method, one for each
+     * icon size.
+     *
+     * @return a copy of icon directory names.
+     */
+    public String[] getPathNames() {
+        return pathNames.clone();
+    }
+
     /**
      * Returns true if some error occurs in last {@code read()} method call. Two
      * errors can occur: a line is not recognized as valid drawable element, or
@@ -267,4 +1466,46 @@ public class IconDrawer {
     public boolean someError() {
         return lastError;
     }
+
+    /**
+     * A line read by {@code read()} or {@code readIncremental()} methods.
+     */
+    private static class ParsedLine {
+
+        /**
+         * Trimmed line text.
+         */
+        private final String text;
+
+        /**
+         * Line kind: an element type, {@code IcxParser.NOT_ELEMENT},
+         * {@code IcxParser.SYNTAX_ERROR} or {@code BLANK}.
+         */
+        private final int kind;
+
+        /**
+         * Column where syntax error was found, if line has a syntax error.
+         */
+        private final int column;
+
+        /**
+         * Element read from line, or null if line is not a valid element.
+         */
+        private final Drawer drawer;
+
+        /**
+         * Constructor. Builds a parsed line.
+         *
+         * @param text trimmed line text.
+         * @param kind line kind.
+         * @param column column where syntax error was found.
+         * @param drawer element read from line, or null.
+         */
+        ParsedLine(String text, int kind, int column, Drawer drawer) {
+            this.text = text;
+            this.kind = kind;
+            this.column = column;
+            this.drawer = drawer;
+        }
+    }
 }
@@ -0,0 +1,374 @@
+package drawicon.drawable;
+
+import drawicon.metrics.MetricsSink;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Many named icons in one project file. Each icon starts with a header line,
+ * {@code @icon} followed by its name, and has the elements of the lines
+ * after it, up to next header:
+ * <pre>
+ * &#64;icon play
+ * Circle[x:50 y:50 r:45 draw:off fill:on colorFill:green]
+ * &#64;icon stop
+ * Rectangle[x:[20 80] y:[20 80] draw:off fill:on colorFill:red]
+ * </pre>
+ * Project text is parsed once, by one parser, into one {@code IconDrawer}
+ * for each icon; colors are resolved through the shared {@code ColorDic}
+ * cache, so icons using the same colors share their {@code Color} objects.
+ * Error line numbers are line numbers in project text.
+ * <p>
+ * Icons are saved by {@code save()}, which schedules every icon size of
+ * every icon as one task on a pool, instead of saving icons one by one, so
+ * a project of many small icons and a few large ones keeps all workers busy.
+ *
+ * @author thiago
+ */
+public final class IconProject {
+
+    /**
+     * Project file extension.
+     */
+    public static final String EXTENSION = ".icp";
+
+    /**
+     * Start of icon header lines.
+     */
+    public static final String HEADER = "@icon";
+
+    /**
+     * Characters icon names can have: letters and digits of ASCII, '_', '.'
+     * and '-', which make safe file names on every file system.
+     */
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+
+    /**
+     * Device names of Windows, which can't be used as file names, even with
+     * an extension.
+     */
+    private static final Pattern DEVICE = Pattern.compile(
+            "(?i)(CON|PRN|AUX|NUL|COM[1-9]|LPT[1-9])(\\..*)?");
+
+    /**
+     * Icon names, in project order.
+     */
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Drawers of icons, in project order.
+     */
+    private final List<IconDrawer> drawers = new ArrayList<>();
+
+    /**
+     * Lines with syntax errors, with their line numbers, in line order.
+     */
+    private final List<String> syntaxErrors = new ArrayList<>();
+
+    /**
+     * Lines not recognized as drawable elements, with their line numbers, in
+     * line order.
+     */
+    private final List<String> notElements = new ArrayList<>();
+
+    /**
+     * Metrics sink given to drawers of icons, or null.
+     */
+    private MetricsSink metricsSink;
+
+    /**
+     * Sets metrics sink of drawers made by next {@code read()} call. Parsing
+     * of each icon is reported as one read text.
+     *
+     * @param sink metrics sink, or null to measure nothing.
+     */
+    public void setMetricsSink(MetricsSink sink) {
+        metricsSink = sink;
+    }
+
+    /**
+     * Reads project from a file, encoded in UTF-8. See {@code read(Reader)}.
+     *
+     * @param path project file.
+     * @throws IOException if file can't be read.
+     */
+    public void read(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            read(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Reads project from a character stream, replacing icons read before.
+     * Lines are parsed as {@code IconDrawer.read(Reader)} does, and each icon
+     * gets a new drawer with elements of its lines. Lines before first
+     * header belong to no icon, and are reported as not elements; headers
+     * without a name, with a name that is not a safe file name, or with the
+     * name of an earlier icon, ignoring case, are syntax errors, and their
+     * lines are parsed for errors but make no icon. Reader is not closed.
+     *
+     * @param reader character stream to read project from.
+     * @throws IOException if reader can't be read. In this case, icons read
+     * before are lost.
+     */
+    public void read(Reader reader) throws IOException {
+        names.clear();
+        drawers.clear();
+        syntaxErrors.clear();
+        notElements.clear();
+        IcxParser parser = new IcxParser();
+        LineReader lines = new LineReader(reader);
+        Set<String> used = new HashSet<>();
+        IcxChunk chunk = null;
+        IconDrawer drawer = null;
+        long start = 0;
+        int lineCount = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineCount++;
+            String trimmed = line.trim();
+            if (isHeader(trimmed)) {
+                addIcon(chunk, drawer, start);
+                String name = trimmed.substring(HEADER.length()).trim();
+                chunk = new IcxChunk();
+                chunk.lineCount = lineCount;
+                drawer = null;
+                if (!isValidName(name) || !used.add(name.toLowerCase(Locale.ROOT))) {
+                    syntaxErrors.add("line " + lineCount + ": " + trimmed);
+                    continue;
+                }
+                drawer = new IconDrawer();
+                drawer.setMetricsSink(metricsSink);
+                start = drawer.startTime();
+                names.add(name);
+            } else if (chunk != null) {
+                chunk.parseLine(line, parser);
+            } else if (!trimmed.isEmpty()) {
+                notElements.add("line " + lineCount + ": " + trimmed);
+            }
+        }
+        addIcon(chunk, drawer, start);
+    }
+
+    /**
+     * Loads elements of an icon into its drawer and keeps its errors.
+     *
+     * @param chunk elements and errors of icon lines, or null before first
+     * header.
+     * @param drawer drawer of icon, or null if icon header is not valid.
+     * @param start time parsing of icon started, from
+     * {@code IconDrawer.startTime()}.
+     */
+    private void addIcon(IcxChunk chunk, IconDrawer drawer, long start) {
+        if (chunk == null) {
+            return;
+        }
+        for (int i = 0; i < chunk.errorLines.size(); i++) {
+            String error = "line " + chunk.errorLineNumbers.get(i) + ": " + chunk.errorLines.get(i);
+            if (chunk.errorKinds.get(i) == IcxParser.NOT_ELEMENT) {
+                notElements.add(error);
+            } else {
+                syntaxErrors.add(error);
+            }
+        }
+        if (drawer != null) {
+            drawer.load(Collections.singletonList(chunk));
+            drawer.reportParse(start);
+            drawers.add(drawer);
+        }
+    }
+
+    /**
+     * Returns true if a trimmed line is an icon header.
+     *
+     * @param line trimmed line.
+     * @return true if line is {@code HEADER}, alone or followed by white
+     * space.
+     */
+    private static boolean isHeader(String line) {
+        return line.startsWith(HEADER) && (line.length() == HEADER.length()
+                || Character.isWhitespace(line.charAt(HEADER.length())));
+    }
+
+    /**
+     * Returns true if an icon name can be used as file name on any file
+     * system.
+     *
+     * @param name icon name.
+     * @return true if name has only {@code NAME} characters, is not a
+     * relative directory name and is not a device name of Windows.
+     */
+    private static boolean isValidName(String name) {
+        return NAME.matcher(name).matches() && !name.equals(".") && !name.equals("..")
+                && !DEVICE.matcher(name).matches();
+    }
+
+    /**
+     * Returns number of icons.
+     *
+     * @return number of icons read.
+     */
+    public int getIconCount() {
+        return drawers.size();
+    }
+
+    /**
+     * Returns icon names.
+     *
+     * @return icon names, in project order.
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Returns drawers of icons, with elements already read. Their settings,
+     * such as PNG encoder or image pool, can be changed before saving.
+     *
+     * @return drawers, in project order.
+     */
+    public List<IconDrawer> getDrawers() {
+        return Collections.unmodifiableList(drawers);
+    }
+
+    /**
+     * Returns number of drawable elements of all icons.
+     *
+     * @return number of elements.
+     */
+    public int getElementCount() {
+        int count = 0;
+        for (IconDrawer drawer : drawers) {
+            count += drawer.getElementCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns lines with syntax errors, including icon headers that are not
+     * valid.
+     *
+     * @return lines with syntax errors, with their line numbers.
+     */
+    public String[] getSyntaxErrorLines() {
+        return syntaxErrors.toArray(new String[0]);
+    }
+
+    /**
+     * Returns lines not recognized as drawable elements, including lines
+     * before first icon header.
+     *
+     * @return lines not recognized, with their line numbers.
+     */
+    public String[] getNotElementLines() {
+        return notElements.toArray(new String[0]);
+    }
+
+    /**
+     * Returns true if some line of project has errors.
+     *
+     * @return true if some line has errors.
+     */
+    public boolean someError() {
+        return !syntaxErrors.isEmpty() || !notElements.isEmpty();
+    }
+
+    /**
+     * Saves icons in specified directory. Every icon size of every icon is
+     * saved by its own task, all of them given to {@code pool} at once, the
+     * ones expected to take longest first: with elements times pixels as
+     * cost, large icons with many elements start early and small ones fill
+     * the gaps at the end. This method returns when all icons are saved or
+     * have failed; a failed task, even by an unexpected exception, only
+     * fails its own entry.
+     *
+     * @param dir directory to save icons. A subdirectory to each icon size
+     * will be created, and each icon is saved in it with its name and png
+     * extension.
+     * @param pool pool to run save tasks.
+     * @return status and timings of each saved icon: entries of each icon, in
+     * project order, each in the same order as {@code IconDrawer.getSizes()}.
+     */
+    public SaveResult save(File dir, ExecutorService pool) {
+        long start = System.nanoTime();
+        int[] sizes = new IconDrawer().getSizes();
+        List<Callable<SaveResult.Entry>> tasks = new ArrayList<>();
+        List<Long> costs = new ArrayList<>();
+        for (int i = 0; i < drawers.size(); i++) {
+            IconDrawer drawer = drawers.get(i);
+            tasks.addAll(drawer.saveTasks(dir, names.get(i) + ".png"));
+            for (int size : sizes) {
+                costs.add((drawer.getElementCount() + 1L) * size * size);
+            }
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Long.compare(costs.get(b), costs.get(a)));
+        List<Callable<SaveResult.Entry>> sorted = new ArrayList<>();
+        for (int i : order) {
+            sorted.add(tasks.get(i));
+        }
+
+        SaveResult.Entry[] entries = new SaveResult.Entry[tasks.size()];
+        try {
+            List<Future<SaveResult.Entry>> futures = pool.invokeAll(sorted);
+            for (int i = 0; i < futures.size(); i++) {
+                int t = order.get(i);
+                try {
+                    entries[t] = futures.get(i).get();
+                } catch (ExecutionException ee) {
+                    entries[t] = entry(dir, t);
+                    entries[t].setFailure(ee.getCause());
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i] == null) {
+                    entries[i] = entry(dir, i);
+                    entries[i].setError(new InterruptedIOException("Interrupted while saving icons"));
+                }
+            }
+        }
+        List<SaveResult.Entry> list = new ArrayList<>();
+        Collections.addAll(list, entries);
+        return new SaveResult(list, System.nanoTime() - start);
+    }
+
+    /**
+     * Makes an entry for an icon that wasn't saved by its task.
+     *
+     * @param dir directory icons are saved in.
+     * @param task index of save task: icon index times number of icon sizes,
+     * plus size index.
+     * @return entry with icon size and file, and no error yet.
+     */
+    private SaveResult.Entry entry(File dir, int task) {
+        IconDrawer any = new IconDrawer();
+        int[] sizes = any.getSizes();
+        int d = task % sizes.length;
+        File file = new File(new File(dir, any.getPathNames()[d]),
+                names.get(task / sizes.length) + ".png");
+        return new SaveResult.Entry(sizes[d], file);
+    }
+}
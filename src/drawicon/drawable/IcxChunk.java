@@ -0,0 +1,100 @@
+package drawicon.drawable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Drawable elements and error lines parsed from a piece of icx text. Line
+ * numbers are counted from the start of the piece, so pieces of one text can
+ * be parsed separately, even concurrently, and merged in order by adding the
+ * number of lines of previous pieces.
+ *
+ * @author thiago
+ */
+final class IcxChunk {
+
+    /**
+     * Drawable elements, in line order.
+     */
+    final ArrayList<Drawer> elements = new ArrayList<>();
+
+    /**
+     * Line numbers of elements, starting at 1 in this piece. First
+     * {@code elements.size()} are used.
+     */
+    int[] elementLineNumbers = new int[16];
+
+    /**
+     * Trimmed text of lines with errors, in line order.
+     */
+    final ArrayList<String> errorLines = new ArrayList<>();
+
+    /**
+     * Line numbers of lines with errors, starting at 1 in this piece.
+     */
+    final ArrayList<Integer> errorLineNumbers = new ArrayList<>();
+
+    /**
+     * Kinds of errors: {@code IcxParser.NOT_ELEMENT} or
+     * {@code IcxParser.SYNTAX_ERROR}.
+     */
+    final ArrayList<Integer> errorKinds = new ArrayList<>();
+
+    /**
+     * Columns where syntax errors were found, zero for lines not recognized
+     * as elements.
+     */
+    final ArrayList<Integer> errorColumns = new ArrayList<>();
+
+    /**
+     * Number of lines read.
+     */
+    int lineCount;
+
+    /**
+     * Parses all lines from a character stream. Lines are split as
+     * {@code LineReader} does, and only elements and error lines are kept.
+     *
+     * @param reader character stream. It is not closed.
+     * @param parser parser to use, not shared with other threads.
+     * @throws IOException if reader can't be read.
+     */
+    void parse(Reader reader, IcxParser parser) throws IOException {
+        LineReader lines = new LineReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            parseLine(line, parser);
+        }
+    }
+
+    /**
+     * Parses next line. Line number is one more than lines read before, and
+     * only elements and error lines are kept.
+     *
+     * @param line line, without line terminator.
+     * @param parser parser to use, not shared with other threads.
+     */
+    void parseLine(String line, IcxParser parser) {
+        lineCount++;
+        line = line.trim();
+        if (line.isEmpty()) {
+            return;
+        }
+        int kind = parser.parse(line);
+        if (kind >= 0) {
+            if (elements.size() == elementLineNumbers.length) {
+                elementLineNumbers = Arrays.copyOf(elementLineNumbers,
+                        2 * elementLineNumbers.length);
+            }
+            elementLineNumbers[elements.size()] = lineCount;
+            elements.add(parser.build());
+        } else {
+            errorLines.add(line);
+            errorLineNumbers.add(lineCount);
+            errorKinds.add(kind);
+            errorColumns.add(kind == IcxParser.SYNTAX_ERROR ? parser.errorColumn : 0);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package drawicon.drawable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses large icx files in parallel. The file is memory-mapped and split
+ * into chunks of about {@code CHUNK_SIZE} bytes, each ending just after a
+ * '\n' byte. Since '\n' never appears inside an UTF-8 multibyte sequence and
+ * always ends a line, chunks hold whole lines and can be decoded and parsed
+ * independently. Chunks are returned in file order, to be merged by
+ * {@code IconDrawer}.
+ *
+ * @author thiago
+ */
+final class IcxFileLoader {
+
+    /**
+     * Approximate chunk size, in bytes. Files up to this size are parsed as a
+     * single chunk in the calling thread.
+     */
+    static final int CHUNK_SIZE = 4 << 20;
+
+    /**
+     * Size of buffer used to search chunk boundaries, in bytes.
+     */
+    private static final int SCAN_SIZE = 8192;
+
+    private IcxFileLoader() {
+
+    }
+
+    /**
+     * Parses an icx file, encoded in UTF-8, in chunks.
+     *
+     * @param path icx file.
+     * @param pool pool to parse chunks on.
+     * @return parsed chunks, in file order.
+     * @throws IOException if file can't be read, or if parsing a chunk fails
+     * in any other way. A file missing a chunk has no meaningful elements, so
+     * the whole read fails, with the failure of the chunk as cause.
+     */
+    static List<IcxChunk> parse(Path path, ExecutorService pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<long[]> ranges = split(channel);
+            if (ranges.size() == 1) {
+                return Collections.singletonList(parse(channel, ranges.get(0)));
+            }
+            List<Callable<IcxChunk>> tasks = new ArrayList<>();
+            for (long[] range : ranges) {
+                tasks.add(() -> parse(channel, range));
+            }
+            List<IcxChunk> chunks = new ArrayList<>();
+            try {
+                for (Future<IcxChunk> f : pool.invokeAll(tasks)) {
+                    chunks.add(f.get());
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading " + path);
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("couldn't parse " + path + ": " + cause, cause);
+            }
+            return chunks;
+        }
+    }
+
+    /**
+     * Splits a file into chunks ending just after a '\n' byte, or at end of
+     * file.
+     *
+     * @param channel file channel.
+     * @return chunk ranges, as {start, end} byte positions.
+     * @throws IOException if file can't be read.
+     */
+    private static List<long[]> split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<long[]> ranges = new ArrayList<>();
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+        long start = 0;
+        while (size - start > CHUNK_SIZE) {
+            long end = lineEnd(channel, start + CHUNK_SIZE, size, scan);
+            ranges.add(new long[]{start, end});
+            start = end;
+        }
+        if (start < size || ranges.isEmpty()) {
+            ranges.add(new long[]{start, size});
+        }
+        return ranges;
+    }
+
+    /**
+     * Finds position just after first '\n' byte at or after a position.
+     *
+     * @param channel file channel.
+     * @param from position to start searching.
+     * @param size file size.
+     * @param scan buffer used to read file.
+     * @return position after '\n' byte, or file size if there's none.
+     * @throws IOException if file can't be read.
+     */
+    private static long lineEnd(FileChannel channel, long from, long size,
+            ByteBuffer scan) throws IOException {
+        long position = from;
+        while (position < size) {
+            scan.clear();
+            int n = channel.read(scan, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (scan.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+        return size;
+    }
+
+    /**
+     * Maps and parses one chunk.
+     *
+     * @param channel file channel.
+     * @param range chunk range, as {start, end} byte positions.
+     * @return parsed chunk.
+     * @throws IOException if file can't be read.
+     */
+    private static IcxChunk parse(FileChannel channel, long[] range) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                range[0], range[1] - range[0]);
+        IcxChunk chunk = new IcxChunk();
+        chunk.parse(new InputStreamReader(new BufferInputStream(buffer),
+                StandardCharsets.UTF_8), new IcxParser());
+        return chunk;
+    }
+
+    /**
+     * Input stream that reads bytes from a buffer.
+     */
+    private static final class BufferInputStream extends InputStream {
+
+        /**
+         * Bytes to read.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Constructor. Builds a stream reading remaining bytes of a buffer.
+         *
+         * @param buffer bytes to read.
+         */
+        private BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,509 @@
+package drawicon.drawable;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * Single pass parser for icx element lines. Each line is scanned once, from
+ * left to right, and numbers are read straight from its characters, so no
+ * regular expression is compiled or matched and no {@code String} is created
+ * for numeric values. Accepted lines are the same accepted by elements
+ * {@code PATTERN} regular expressions, and elements built from them are equal
+ * to elements built by their {@code String} constructors.
+ * <p>
+ * A parser keeps the values of last parsed line, so it is not thread safe.
+ *
+ * @author thiago
+ */
+final class IcxParser {
+
+    /**
+     * Line is not recognized as a drawable element.
+     */
+    static final int NOT_ELEMENT = -1;
+
+    /**
+     * Line is a drawable element with some syntax error.
+     */
+    static final int SYNTAX_ERROR = -2;
+
+    /**
+     * Line element type.
+     */
+    static final int LINE = 0;
+
+    /**
+     * Circle element type.
+     */
+    static final int CIRCLE = 1;
+
+    /**
+     * Ellipse element type.
+     */
+    static final int ELLIPSE = 2;
+
+    /**
+     * Rectangle element type.
+     */
+    static final int RECTANGLE = 3;
+
+    /**
+     * Poligon element type.
+     */
+    static final int POLIGON = 4;
+
+    /**
+     * Regular poligon element type.
+     */
+    static final int REGULAR_POLIGON = 5;
+
+    /**
+     * Element names, indexed by element type.
+     */
+    static final String[] NAMES = {"Line", "Circle", "Ellipse", "Rectangle",
+        "Poligon", "RegularPoligon"};
+
+    /**
+     * Maximum number of digits accumulated in a long without overflow.
+     */
+    private static final int MAX_LONG_DIGITS = 18;
+
+    /**
+     * Line being parsed.
+     */
+    private String line;
+
+    /**
+     * Current position in line.
+     */
+    private int pos;
+
+    /**
+     * Line length.
+     */
+    private int end;
+
+    /**
+     * Type of last parsed line.
+     */
+    int type;
+
+    /**
+     * Numeric values of last parsed line, in the order they appear. For
+     * poligons, x values come first, followed by y values.
+     */
+    float[] values = new float[16];
+
+    /**
+     * Number of values in {@code values}.
+     */
+    int valueCount;
+
+    /**
+     * Number of vertices of last parsed poligon or regular poligon.
+     */
+    int vertexCount;
+
+    /**
+     * True if {@code dir:a} was read in last parsed regular poligon.
+     */
+    boolean alternate;
+
+    /**
+     * Value of {@code draw} attribute in last parsed line.
+     */
+    boolean draw;
+
+    /**
+     * Value of {@code fill} attribute in last parsed line.
+     */
+    boolean fill;
+
+    /**
+     * Start and end positions of {@code colorDraw} value in last parsed line.
+     * Start is -1 if attribute is absent.
+     */
+    private int drawStart, drawEnd;
+
+    /**
+     * Start and end positions of {@code colorFill} value in last parsed line.
+     * Start is -1 if attribute is absent.
+     */
+    private int fillStart, fillEnd;
+
+    /**
+     * Column, starting at 1, where last syntax error was found.
+     */
+    int errorColumn;
+
+    /**
+     * Parses a line. Line must be already trimmed.
+     *
+     * @param line line to parse.
+     * @return element type, {@code NOT_ELEMENT} or {@code SYNTAX_ERROR}.
+     */
+    int parse(String line) {
+        this.line = line;
+        end = line.length();
+        valueCount = 0;
+        vertexCount = 0;
+        drawStart = -1;
+        fillStart = -1;
+        errorColumn = 0;
+
+        int b1 = line.indexOf('[');
+        type = b1 == -1 ? NOT_ELEMENT : elementType(b1);
+        if (type == NOT_ELEMENT) {
+            return type;
+        }
+        pos = b1 + 1;
+        boolean ok;
+        switch (type) {
+            case LINE:
+                ok = pair("x:[") && pair("] y:[") && expect(']')
+                        && color(" colorDraw:", 1, true);
+                break;
+            case CIRCLE:
+                ok = expect("x:") && number() && expect(" y:") && number()
+                        && expect(" r:") && number() && switches()
+                        && color(" colorDraw:", 0, true)
+                        && color(" colorFill:", 1, false);
+                break;
+            case ELLIPSE:
+                ok = expect("x:") && number() && expect(" y:") && number()
+                        && expect(" rw:") && number() && expect(" rh:") && number()
+                        && switches() && colors();
+                break;
+            case RECTANGLE:
+                ok = pair("x:[") && pair("] y:[") && expect(']') && switches()
+                        && colors();
+                break;
+            case POLIGON:
+                ok = vertices() && switches() && colors();
+                break;
+            default:
+                ok = expect("x:") && number() && expect(" y:") && number()
+                        && expect(" r:") && number() && expect(" n:")
+                        && vertexCount() && expect(" dir:") && direction()
+                        && switches() && colors();
+                break;
+        }
+        ok = ok && expect(']');
+        if (ok && pos != end) {
+            errorColumn = pos + 1;
+            ok = false;
+        }
+        if (!ok) {
+            type = SYNTAX_ERROR;
+        }
+        return type;
+    }
+
+    /**
+     * Builds a drawable element from last parsed line.
+     *
+     * @return a drawable element.
+     */
+    Drawer build() {
+        float[] v = values;
+        Color drawColor = drawColor();
+        Color fillColor = fillColor();
+        switch (type) {
+            case LINE:
+                return new Line(v[0], v[1], v[2], v[3], drawColor);
+            case CIRCLE:
+                return new Circle(v[0], v[1], v[2], draw, fill, drawColor, fillColor);
+            case ELLIPSE:
+                return new Ellipse(v[0], v[1], v[2], v[3], draw, fill, drawColor, fillColor);
+            case RECTANGLE:
+                return new Rectangle(v[0], v[1], v[2], v[3], draw, fill, drawColor, fillColor);
+            case POLIGON:
+                return new Poligon(Arrays.copyOfRange(v, 0, vertexCount),
+                        Arrays.copyOfRange(v, vertexCount, 2 * vertexCount),
+                        draw, fill, drawColor, fillColor);
+            case REGULAR_POLIGON:
+                return new RegularPoligon(v[0], v[1], v[2], vertexCount, alternate,
+                        draw, fill, drawColor, fillColor);
+            default:
+                throw new IllegalStateException("Last parsed line is not a valid element");
+        }
+    }
+
+    /**
+     * Returns {@code colorDraw} attribute of last parsed line. Colors are only
+     * looked up when an element is built, so lines with syntax errors never
+     * reach {@code ColorDic}.
+     *
+     * @return draw color, or null if attribute is absent.
+     */
+    Color drawColor() {
+        return drawStart < 0 ? null : ColorDic.getColor(line, drawStart, drawEnd);
+    }
+
+    /**
+     * Returns {@code colorFill} attribute of last parsed line.
+     *
+     * @return fill color, or null if attribute is absent.
+     */
+    Color fillColor() {
+        return fillStart < 0 ? null : ColorDic.getColor(line, fillStart, fillEnd);
+    }
+
+    /**
+     * Finds element type from its name, the text before first '['.
+     *
+     * @param length name length.
+     * @return element type, or {@code NOT_ELEMENT} if name is unknown.
+     */
+    private int elementType(int length) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].length() == length && line.startsWith(NAMES[i])) {
+                return i;
+            }
+        }
+        return NOT_ELEMENT;
+    }
+
+    /**
+     * Reads a literal character.
+     *
+     * @param c expected character.
+     * @return true if character was read.
+     */
+    private boolean expect(char c) {
+        if (pos < end && line.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return error();
+    }
+
+    /**
+     * Reads a literal text.
+     *
+     * @param text expected text.
+     * @return true if text was read.
+     */
+    private boolean expect(String text) {
+        if (line.startsWith(text, pos)) {
+            pos += text.length();
+            return true;
+        }
+        for (int i = 0; i < text.length() && pos < end
+                && line.charAt(pos) == text.charAt(i); i++) {
+            pos++;
+        }
+        return error();
+    }
+
+    /**
+     * Marks a syntax error at current position.
+     *
+     * @return always false.
+     */
+    private boolean error() {
+        errorColumn = pos + 1;
+        return false;
+    }
+
+    /**
+     * Reads an unsigned integer number into {@code values}.
+     *
+     * @return true if a number was read.
+     */
+    private boolean number() {
+        int start = pos;
+        long value = 0;
+        while (pos < end) {
+            char c = line.charAt(pos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            pos++;
+        }
+        int digits = pos - start;
+        if (digits == 0) {
+            return error();
+        }
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, valueCount * 2);
+        }
+        values[valueCount++] = digits <= MAX_LONG_DIGITS ? (float) value
+                : Float.parseFloat(line.substring(start, pos));
+        return true;
+    }
+
+    /**
+     * Reads two numbers separated by a space, after a prefix.
+     *
+     * @param prefix text before first number.
+     * @return true if prefix and numbers were read.
+     */
+    private boolean pair(String prefix) {
+        return expect(prefix) && number() && expect(' ') && number();
+    }
+
+    /**
+     * Reads poligon x and y vertex lists. Each list must have at least 3
+     * numbers, and both must have the same number of elements.
+     *
+     * @return true if vertex lists were read.
+     */
+    private boolean vertices() {
+        if (!expect("x:[") || !list()) {
+            return false;
+        }
+        vertexCount = valueCount;
+        int yStart = pos + 5;
+        if (!expect("] y:[") || !list()) {
+            return false;
+        }
+        if (valueCount - vertexCount != vertexCount) {
+            pos = yStart;
+            return error();
+        }
+        return expect(']');
+    }
+
+    /**
+     * Reads a list of at least 3 numbers separated by spaces.
+     *
+     * @return true if list was read.
+     */
+    private boolean list() {
+        int count = 0;
+        while (true) {
+            if (!number()) {
+                return false;
+            }
+            count++;
+            if (pos == end || line.charAt(pos) != ' ') {
+                break;
+            }
+            pos++;
+        }
+        return count >= 3 || error();
+    }
+
+    /**
+     * Reads regular poligon number of vertices, which must be at least 3.
+     *
+     * @return true if number of vertices was read.
+     */
+    private boolean vertexCount() {
+        int start = pos;
+        long n = 0;
+        while (pos < end && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') {
+            n = n * 10 + (line.charAt(pos) - '0');
+            pos++;
+            if (n > Integer.MAX_VALUE) {
+                pos = start;
+                return error();
+            }
+        }
+        if (pos == start || n < 3) {
+            pos = start;
+            return error();
+        }
+        vertexCount = (int) n;
+        return true;
+    }
+
+    /**
+     * Reads regular poligon direction, either 'a' or 'v'.
+     *
+     * @return true if direction was read.
+     */
+    private boolean direction() {
+        if (pos < end && (line.charAt(pos) == 'a' || line.charAt(pos) == 'v')) {
+            alternate = line.charAt(pos++) == 'a';
+            return true;
+        }
+        return error();
+    }
+
+    /**
+     * Reads {@code draw} and {@code fill} attributes.
+     *
+     * @return true if both attributes were read.
+     */
+    private boolean switches() {
+        if (!expect(" draw:") || !onOff()) {
+            return false;
+        }
+        draw = line.charAt(pos - 1) == 'n';
+        if (!expect(" fill:") || !onOff()) {
+            return false;
+        }
+        fill = line.charAt(pos - 1) == 'n';
+        return true;
+    }
+
+    /**
+     * Reads either "on" or "off".
+     *
+     * @return true if a value was read.
+     */
+    private boolean onOff() {
+        if (line.startsWith("on", pos)) {
+            pos += 2;
+            return true;
+        }
+        return expect("off");
+    }
+
+    /**
+     * Reads optional {@code colorDraw} and {@code colorFill} attributes, in
+     * this order.
+     *
+     * @return true if attributes were read or are absent.
+     */
+    private boolean colors() {
+        return color(" colorDraw:", 1, true) && color(" colorFill:", 1, false);
+    }
+
+    /**
+     * Reads an optional color attribute.
+     *
+     * @param prefix attribute name with leading space and trailing colon.
+     * @param minLength minimum length of color name.
+     * @param isDraw if true, attribute is {@code colorDraw}; otherwise it is
+     * {@code colorFill}.
+     * @return true if attribute was read or is absent.
+     */
+    private boolean color(String prefix, int minLength, boolean isDraw) {
+        if (!line.startsWith(prefix, pos)) {
+            return true;
+        }
+        pos += prefix.length();
+        int start = pos;
+        while (pos < end && isWordChar(line.charAt(pos))) {
+            pos++;
+        }
+        if (pos - start < minLength) {
+            return error();
+        }
+        if (isDraw) {
+            drawStart = start;
+            drawEnd = pos;
+        } else {
+            fillStart = start;
+            fillEnd = pos;
+        }
+        return true;
+    }
+
+    /**
+     * Tests if a character is a regular expression word character, that is,
+     * [a-zA-Z_0-9].
+     *
+     * @param c character to test.
+     * @return true if {@code c} is a word character.
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9') || c == '_';
+    }
+
+}
@@ -0,0 +1,229 @@
+package drawicon.drawable;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Pool of reusable icon images. Images are kept by size, so rendering again
+ * and again at the same sizes takes images back from the pool instead of
+ * allocating new rasters. Images released when the memory used by all
+ * pooled images would exceed a limit are dropped.
+ * <p>
+ * Images are {@code TYPE_INT_ARGB}, with equal width and height. Taking and
+ * returning images allocates nothing once the pool holds a size. All methods
+ * are thread safe, and a pool can be shared by many {@code IconDrawer}
+ * instances.
+ *
+ * @author thiago
+ */
+public class ImagePool {
+
+    /**
+     * Default memory limit, in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+    /**
+     * Pooled images of each size.
+     */
+    private Slot[] slots = new Slot[0];
+
+    /**
+     * Memory limit, in bytes.
+     */
+    private long maxBytes;
+
+    /**
+     * Memory used by pooled images, in bytes.
+     */
+    private long bytes;
+
+    /**
+     * Number of images taken from pool.
+     */
+    private long reuses;
+
+    /**
+     * Number of images allocated because pool had none of their size.
+     */
+    private long allocations;
+
+    /**
+     * Constructor. Builds an empty image pool.
+     *
+     * @param maxBytes memory limit, in bytes. Zero disables pooling.
+     */
+    public ImagePool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Takes an image from pool, or allocates one if pool has none of its
+     * size. Pixels of a pooled image are left as last drawn.
+     *
+     * @param size image width and height, in pixels.
+     * @return an image of type {@code TYPE_INT_ARGB}.
+     */
+    public BufferedImage acquire(int size) {
+        synchronized (this) {
+            Slot slot = find(size);
+            if (slot != null && slot.count > 0) {
+                BufferedImage image = slot.images[--slot.count];
+                slot.images[slot.count] = null;
+                bytes -= footprint(size);
+                reuses++;
+                return image;
+            }
+            allocations++;
+        }
+        return new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Returns an image to pool, so that it can be reused. Image must no
+     * longer be used by caller. If memory limit would be exceeded, image is
+     * dropped.
+     *
+     * @param image image taken from {@code acquire()}, or any other image of
+     * type {@code TYPE_INT_ARGB} with equal width and height that is not a
+     * subimage.
+     */
+    public synchronized void release(BufferedImage image) {
+        int size = image.getWidth();
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB || image.getHeight() != size
+                || image.getRaster().getParent() != null) {
+            throw new IllegalArgumentException("Only square TYPE_INT_ARGB images can be pooled");
+        }
+        Slot slot = find(size);
+        if (slot != null) {
+            for (int i = 0; i < slot.count; i++) {
+                if (slot.images[i] == image) {
+                    throw new IllegalArgumentException("Image is already in pool");
+                }
+            }
+        }
+        if (bytes + footprint(size) > maxBytes) {
+            return;
+        }
+        if (slot == null) {
+            slot = new Slot(size);
+            slots = Arrays.copyOf(slots, slots.length + 1);
+            slots[slots.length - 1] = slot;
+        }
+        if (slot.count == slot.images.length) {
+            slot.images = Arrays.copyOf(slot.images, 2 * slot.count);
+        }
+        slot.images[slot.count++] = image;
+        bytes += footprint(size);
+    }
+
+    /**
+     * Removes all pooled images. Counters are kept.
+     */
+    public synchronized void clear() {
+        slots = new Slot[0];
+        bytes = 0;
+    }
+
+    /**
+     * Sets memory limit. Pooled images are kept even if they exceed it;
+     * released images are dropped until memory is below it.
+     *
+     * @param maxBytes memory limit, in bytes. Zero disables pooling.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns memory limit.
+     *
+     * @return memory limit, in bytes.
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns memory used by pooled images.
+     *
+     * @return memory used, in bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns number of images taken from pool.
+     *
+     * @return number of reused images.
+     */
+    public synchronized long getReuses() {
+        return reuses;
+    }
+
+    /**
+     * Returns number of images allocated because pool had none of their
+     * size.
+     *
+     * @return number of allocated images.
+     */
+    public synchronized long getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * Finds pooled images of a size.
+     *
+     * @param size image size, in pixels.
+     * @return slot of that size, or null if pool never held that size.
+     */
+    private Slot find(int size) {
+        for (Slot slot : slots) {
+            if (slot.size == size) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns memory used by an image, at 4 bytes per pixel.
+     *
+     * @param size image size, in pixels.
+     * @return memory used, in bytes.
+     */
+    private static long footprint(int size) {
+        return 4L * size * size;
+    }
+
+    /**
+     * Pooled images of one size.
+     */
+    private static final class Slot {
+
+        /**
+         * Image size, in pixels.
+         */
+        private final int size;
+
+        /**
+         * Pooled images, first {@code count} used.
+         */
+        private BufferedImage[] images = new BufferedImage[2];
+
+        /**
+         * Number of pooled images.
+         */
+        private int count;
+
+        /**
+         * Constructor. Builds an empty slot.
+         *
+         * @param size image size, in pixels.
+         */
+        private Slot(int size) {
+            this.size = size;
+        }
+    }
+}
@@ -57,16 +57,43 @@ public class Line implements Drawer {
             throw new IllegalArgumentException("Line " + data + " is not a valide Line element");
         }
 
-        x1 = Float.parseFloat(m.group(1)) / 100;
-        x2 = Float.parseFloat(m.group(2)) / 100;
-
-        y1 = (100.0f - Float.parseFloat(m.group(3))) / 100;
-        y2 = (100.0f - Float.parseFloat(m.group(4))) / 100;
+        setGeometry(Float.parseFloat(m.group(1)), Float.parseFloat(m.group(2)),
+                Float.parseFloat(m.group(3)), Float.parseFloat(m.group(4)));
 
         this.color = m.group(6) == null ? Color.BLACK : ColorDic.getColor(m.group(6));
 
     }
 
+    /**
+     * Constructor. Builds a line from already parsed values.
+     *
+     * @param x1 start x-position, in icx coordinates.
+     * @param x2 end x-position, in icx coordinates.
+     * @param y1 start y-position, in icx coordinates.
+     * @param y2 end y-position, in icx coordinates.
+     * @param color line color, or null to draw in black.
+     */
+    Line(float x1, float x2, float y1, float y2, Color color) {
+        setGeometry(x1, x2, y1, y2);
+        this.color = color == null ? Color.BLACK : color;
+    }
+
+    /**
+     * Sets line start and end positions.
+     *
+     * @param x1 start x-position, in icx coordinates.
+     * @param x2 end x-position, in icx coordinates.
+     * @param y1 start y-position, in icx coordinates.
+     * @param y2 end y-position, in icx coordinates.
+     */
+    private void setGeometry(float x1, float x2, float y1, float y2) {
+        this.x1 = x1 / 100;
+        this.x2 = x2 / 100;
+
+        this.y1 = (100.0f - y1) / 100;
+        this.y2 = (100.0f - y2) / 100;
+    }
+
     @Override
     public void draw(Graphics2D g, int size) {
         g.setColor(color);
@@ -78,4 +105,39 @@ public class Line implements Drawer {
         g.drawLine(x1l, y1l, x2l, y2l);
     }
 
+    /**
+     * Adds this line to a display list.
+     *
+     * @param b display list builder.
+     */
+    void compile(DisplayList.Builder b) {
+        b.addLine(x1, y1, x2, y2, color);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+        Line o = (Line) obj;
+        return Float.compare(x1, o.x1) == 0
+                && Float.compare(y1, o.y1) == 0
+                && Float.compare(x2, o.x2) == 0
+                && Float.compare(y2, o.y2) == 0
+                && color.equals(o.color);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = color.hashCode();
+        h = 31 * h + Float.floatToIntBits(x1);
+        h = 31 * h + Float.floatToIntBits(y1);
+        h = 31 * h + Float.floatToIntBits(x2);
+        h = 31 * h + Float.floatToIntBits(y2);
+        return h;
+    }
+
 }
@@ -0,0 +1,97 @@
+package drawicon.drawable;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads lines from a character stream, keeping only the current line in
+ * memory. Lines are split the same way as {@code Scanner.nextLine()} and
+ * {@code IconDrawer.splitLines()} do: at "\n", "\r\n", "\r", "\u2028",
+ * "\u2029" and "\u0085", so line numbers are the same whether icx text is
+ * read as a string or as a stream.
+ *
+ * @author thiago
+ */
+final class LineReader {
+
+    /**
+     * Source of characters.
+     */
+    private final Reader reader;
+
+    /**
+     * Characters read from source and not yet returned.
+     */
+    private final char[] buffer = new char[8192];
+
+    /**
+     * Position of next character in {@code buffer}.
+     */
+    private int position;
+
+    /**
+     * Number of characters in {@code buffer}.
+     */
+    private int limit;
+
+    /**
+     * If true, last line ended with '\r', so a following '\n' is skipped.
+     */
+    private boolean skipLineFeed;
+
+    /**
+     * Current line being read.
+     */
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * Constructor. Builds a line reader.
+     *
+     * @param reader source of characters. It is not closed by this reader.
+     */
+    LineReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads next line, without its line separator.
+     *
+     * @return next line, or null at end of stream.
+     * @throws IOException if characters can't be read.
+     */
+    String readLine() throws IOException {
+        line.setLength(0);
+        boolean empty = true;
+        while (true) {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return empty ? null : line.toString();
+                }
+            }
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (buffer[position] == '\n') {
+                    position++;
+                    continue;
+                }
+            }
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position];
+                if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029'
+                        || c == '\u0085') {
+                    line.append(buffer, start, position - start);
+                    position++;
+                    skipLineFeed = c == '\r';
+                    return line.toString();
+                }
+                position++;
+            }
+            line.append(buffer, start, position - start);
+            empty = false;
+        }
+    }
+}
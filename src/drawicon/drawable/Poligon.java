@@ -1,6 +1,8 @@
 package drawicon.drawable;
 
+import java.awt.Color;
 import java.awt.Graphics2D;
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,21 +42,57 @@ public class Poligon extends AbstractShape{
         }
 
         String[] xs = m.group(1).split(" ");
-        xp = new float[xs.length];
         String[] ys = m.group(4).split(" ");
-        yp = new float[ys.length];
-        if(xp.length != yp.length){
+        if(xs.length != ys.length){
             throw new IllegalArgumentException("x and y vector must have same number of elements");
         }
         
-        for(int i = 0; i< xp.length; i++){
-            xp[i] = Float.parseFloat(xs[i]) / 100;
-            yp[i] = (100.0f - Float.parseFloat(ys[i])) / 100;
+        float[] x = new float[xs.length];
+        float[] y = new float[ys.length];
+        for(int i = 0; i< x.length; i++){
+            x[i] = Float.parseFloat(xs[i]);
+            y[i] = Float.parseFloat(ys[i]);
         }
+        setVertices(x, y);
         
         setColorAttributes(m.group(7), m.group(8), m.group(10), m.group(12));
     }
     
+    /**
+     * Constructor. Builds a poligon from already parsed values.
+     *
+     * @param x x-coordinate vertexes, in icx coordinates.
+     * @param y y-coordinate vertexes, in icx coordinates. Must have same
+     * length as {@code x}.
+     * @param draw if true, draws this poligon.
+     * @param fill if true, fills this poligon.
+     * @param dColor draw color, or null to draw in black.
+     * @param fColor fill color, or null to fill in white.
+     */
+    Poligon(float[] x, float[] y, boolean draw, boolean fill, Color dColor,
+            Color fColor){
+        if(x.length != y.length){
+            throw new IllegalArgumentException("x and y vector must have same number of elements");
+        }
+        setVertices(x, y);
+        setColorAttributes(draw, fill, dColor, fColor);
+    }
+    
+    /**
+     * Sets poligon vertexes.
+     *
+     * @param x x-coordinate vertexes, in icx coordinates.
+     * @param y y-coordinate vertexes, in icx coordinates.
+     */
+    private void setVertices(float[] x, float[] y){
+        xp = new float[x.length];
+        yp = new float[y.length];
+        for(int i = 0; i< xp.length; i++){
+            xp[i] = x[i] / 100;
+            yp[i] = (100.0f - y[i]) / 100;
+        }
+    }
+    
     //Protected void constructor only defined to allow subclassing this class
     //without need to call constructor with String data argument
     protected Poligon(){
@@ -83,4 +121,29 @@ public class Poligon extends AbstractShape{
         
     }
     
+    @Override
+    void compile(DisplayList.Builder b) {
+        b.addPoligon(xp, yp, toDraw, toFill, drawColor, fillColor);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+        Poligon o = (Poligon) obj;
+        return Arrays.equals(xp, o.xp) && Arrays.equals(yp, o.yp)
+                && colorAttributesEqual(o);
+    }
+    
+    @Override
+    public int hashCode() {
+        int h = colorAttributesHash();
+        h = 31 * h + Arrays.hashCode(xp);
+        return 31 * h + Arrays.hashCode(yp);
+    }
+    
 }
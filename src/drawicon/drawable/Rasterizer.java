@@ -0,0 +1,993 @@
+package drawicon.drawable;
+
+import java.util.Arrays;
+
+/**
+ * Software rasterizer for built-in elements. Lines, rectangles, ovals and
+ * poligons are turned into edges and scan converted straight into an ARGB
+ * pixel array, with antialiasing by coverage: each pixel row is sampled at
+ * {@code SUBSAMPLES} sub-scanlines, and each sub-scanline span adds its exact
+ * horizontal overlap to the pixels it crosses. Covered pixels are blended
+ * with source over, as Java2D does.
+ * <p>
+ * Geometry follows Java2D with antialiasing on and default stroke: fills
+ * cover exactly the given shape, while outlines are one pixel wide strokes
+ * centered half a pixel right and down of the given coordinates, with square
+ * caps on lines and miter joins on poligons. Ovals are flattened into
+ * poligons close enough to be indistinguishable at icon sizes.
+ * <p>
+ * All working arrays are kept between calls and only grow, so once warmed up
+ * a rasterizer doesn't allocate. A rasterizer is not thread safe; use one for
+ * each thread.
+ *
+ * @author thiago
+ */
+final class Rasterizer {
+
+    /**
+     * Number of sub-scanlines sampled in each pixel row.
+     */
+    static final int SUBSAMPLES = 8;
+
+    /**
+     * Fill rule: even-odd, by sampling sub-scanlines.
+     */
+    private static final int EVEN_ODD = 0;
+
+    /**
+     * Fill rule: nonzero, by sampling sub-scanlines.
+     */
+    private static final int NON_ZERO = 1;
+
+    /**
+     * Fill by exact area, for shapes without overlapping parts.
+     */
+    private static final int AREA = 2;
+
+    /**
+     * Largest distance between a flattened oval and the true oval, in
+     * pixels.
+     */
+    private static final double FLATNESS = 0.02;
+
+    /**
+     * Maximum number of segments of a flattened oval.
+     */
+    private static final int MAX_OVAL_SEGMENTS = 1024;
+
+    /**
+     * Distance of cubic curve control points from curve ends, as fraction of
+     * radius, used by {@code Ellipse2D}.
+     */
+    private static final double CONTROL = 0.5522847498307933;
+
+    /**
+     * Miter limit of poligon joins, as in Java2D default stroke.
+     */
+    private static final float MITER_LIMIT = 10;
+
+    /**
+     * Pixels to draw on, in ARGB format, row by row.
+     */
+    private int[] pixels;
+
+    /**
+     * Image width, in pixels.
+     */
+    private int width;
+
+    /**
+     * Image height, in pixels.
+     */
+    private int height;
+
+    /**
+     * First pixel row to draw on.
+     */
+    private int clipTop;
+
+    /**
+     * Pixel row after last row to draw on.
+     */
+    private int clipBottom;
+
+    /**
+     * Edges of current shape, as x0, y0, x1, y1 and dx/dy, with y0 < y1.
+     */
+    private float[] edges = new float[5 * 64];
+
+    /**
+     * Winding direction of each edge: 1 if it went down, -1 if it went up.
+     */
+    private int[] directions = new int[64];
+
+    /**
+     * Number of edges.
+     */
+    private int edgeCount;
+
+    /**
+     * Edge indexes, sorted by first pixel row.
+     */
+    private int[] sorted = new int[64];
+
+    /**
+     * First pixel row of each edge, clamped to rows being filled.
+     */
+    private int[] edgeRows = new int[64];
+
+    /**
+     * Indexes of edges crossing current pixel row.
+     */
+    private int[] active = new int[64];
+
+    /**
+     * x-positions where edges cross current sub-scanline.
+     */
+    private float[] crossings = new float[64];
+
+    /**
+     * Winding directions of edges crossing current sub-scanline, in the same
+     * order as {@code crossings}.
+     */
+    private int[] crossingDirections = new int[64];
+
+    /**
+     * Number of edges starting at each pixel row, later first position of
+     * each row in {@code sorted}.
+     */
+    private int[] rowStarts = new int[64];
+
+    /**
+     * Coverage differences between adjacent pixels of current row. Prefix
+     * sums give coverage of each pixel.
+     */
+    private float[] deltas = new float[64];
+
+    /**
+     * First pixel of current row with coverage difference.
+     */
+    private int touchedMin;
+
+    /**
+     * Last pixel of current row with coverage difference.
+     */
+    private int touchedMax;
+
+    /**
+     * Start point and control and end points of the four curves of an oval.
+     */
+    private final double[] curve = new double[26];
+
+    /**
+     * Points of current path, as x, y pairs.
+     */
+    private float[] points = new float[128];
+
+    /**
+     * Number of points in {@code points}.
+     */
+    private int pointCount;
+
+    /**
+     * Sets pixels to draw on. Only a band of rows is drawn on, so that
+     * several rasterizers can share one image.
+     *
+     * @param pixels ARGB pixels, row by row, without padding.
+     * @param width image width, in pixels.
+     * @param height image height, in pixels.
+     * @param top first row to draw on.
+     * @param bottom row after last row to draw on.
+     */
+    void setTarget(int[] pixels, int width, int height, int top, int bottom) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        clipTop = Math.max(0, top);
+        clipBottom = Math.min(height, bottom);
+        if (deltas.length < width + 2) {
+            deltas = new float[width + 2];
+        }
+        if (rowStarts.length < height + 2) {
+            rowStarts = new int[height + 2];
+        }
+    }
+
+    /**
+     * Fills a rectangle, as {@code Graphics2D.fillRect()}.
+     *
+     * @param x top left x-position.
+     * @param y top left y-position.
+     * @param w width.
+     * @param h height.
+     * @param argb color.
+     */
+    void fillRect(int x, int y, int w, int h, int argb) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        block(x, y, x + w, y + h, argb);
+    }
+
+    /**
+     * Draws a rectangle outline, as {@code Graphics2D.drawRect()}.
+     *
+     * @param x top left x-position.
+     * @param y top left y-position.
+     * @param w width.
+     * @param h height.
+     * @param argb color.
+     */
+    void drawRect(int x, int y, int w, int h, int argb) {
+        if (w < 0 || h < 0) {
+            return;
+        }
+        if (w <= 1 || h <= 1) {
+            block(x, y, x + w + 1, y + h + 1, argb);
+        } else {
+            block(x, y, x + w + 1, y + 1, argb);
+            block(x, y + 1, x + 1, y + h, argb);
+            block(x + w, y + 1, x + w + 1, y + h, argb);
+            block(x, y + h, x + w + 1, y + h + 1, argb);
+        }
+    }
+
+    /**
+     * Fills an oval, as {@code Graphics2D.fillOval()}.
+     *
+     * @param x top left x-position of bounding box.
+     * @param y top left y-position of bounding box.
+     * @param w width.
+     * @param h height.
+     * @param argb color.
+     */
+    void fillOval(int x, int y, int w, int h, int argb) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        edgeCount = 0;
+        ovalPoints(x, y, w, h, false, 0);
+        pointEdges(1);
+        fill(argb, AREA);
+    }
+
+    /**
+     * Draws an oval outline, as {@code Graphics2D.drawOval()}.
+     *
+     * @param x top left x-position of bounding box.
+     * @param y top left y-position of bounding box.
+     * @param w width.
+     * @param h height.
+     * @param argb color.
+     */
+    void drawOval(int x, int y, int w, int h, int argb) {
+        if (w < 0 || h < 0) {
+            return;
+        }
+        edgeCount = 0;
+        if (w == 0 || h == 0) {
+            // Flat oval: outline is a segment, back and forth, without caps
+            float cx = x + 0.5f + w / 2f;
+            float cy = y + 0.5f + h / 2f;
+            segment(cx - w / 2f, cy - h / 2f, cx + w / 2f, cy + h / 2f, 0);
+            fill(argb, AREA);
+        } else if (w <= 2 || h <= 2) {
+            // Offset curves of tiny ovals loop; stroke flattened oval instead
+            ovalPoints(x, y, w, h, true, 0);
+            strokePoints();
+            fill(argb, NON_ZERO);
+        } else {
+            // Ring between outer and inner curves, wound opposite ways
+            ovalPoints(x, y, w, h, true, 0.5f);
+            pointEdges(1);
+            ovalPoints(x, y, w, h, true, -0.5f);
+            pointEdges(-1);
+            fill(argb, AREA);
+        }
+    }
+
+    /**
+     * Draws a line, as {@code Graphics2D.drawLine()}.
+     *
+     * @param x1 start x-position.
+     * @param y1 start y-position.
+     * @param x2 end x-position.
+     * @param y2 end y-position.
+     * @param argb color.
+     */
+    void drawLine(int x1, int y1, int x2, int y2, int argb) {
+        if (x1 == x2 || y1 == y2) {
+            // Square caps make these lines whole pixels
+            block(Math.min(x1, x2), Math.min(y1, y2),
+                    Math.max(x1, x2) + 1, Math.max(y1, y2) + 1, argb);
+            return;
+        }
+        edgeCount = 0;
+        segment(x1 + 0.5f, y1 + 0.5f, x2 + 0.5f, y2 + 0.5f, 0.5f);
+        fill(argb, AREA);
+    }
+
+    /**
+     * Fills a poligon, as {@code Graphics2D.fillPolygon()}, with even-odd
+     * rule.
+     *
+     * @param xs x-coordinate vertexes.
+     * @param ys y-coordinate vertexes.
+     * @param n number of vertexes.
+     * @param argb color.
+     */
+    void fillPolygon(int[] xs, int[] ys, int n, int argb) {
+        edgeCount = 0;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            edge(xs[j], ys[j], xs[i], ys[i], 1);
+        }
+        fill(argb, EVEN_ODD);
+    }
+
+    /**
+     * Draws a poligon outline, as {@code Graphics2D.drawPolygon()}. The
+     * outline is made of one quadrilateral per side and one join per vertex,
+     * all wound the same way and filled with nonzero rule, so overlaps are
+     * filled once.
+     *
+     * @param xs x-coordinate vertexes.
+     * @param ys y-coordinate vertexes.
+     * @param n number of vertexes.
+     * @param argb color.
+     */
+    void drawPolygon(int[] xs, int[] ys, int n, int argb) {
+        pointCount = 0;
+        for (int i = 0; i < n; i++) {
+            addPoint(xs[i] + 0.5f, ys[i] + 0.5f);
+        }
+        edgeCount = 0;
+        strokePoints();
+        fill(argb, NON_ZERO);
+    }
+
+    /**
+     * Adds a one pixel wide stroke of the closed path through current points,
+     * made of one quadrilateral per side and one join per vertex, all wound
+     * the same way.
+     */
+    private void strokePoints() {
+        float[] p = points;
+        // Points equal to first one at the end close the path themselves
+        int last = pointCount - 1;
+        while (last > 0 && p[2 * last] == p[0] && p[2 * last + 1] == p[1]) {
+            last--;
+        }
+        if (last <= 0) {
+            return;
+        }
+        int previous = 0;
+        for (int i = 1; i <= last; i++) {
+            if (p[2 * i] != p[2 * previous] || p[2 * i + 1] != p[2 * previous + 1]) {
+                segment(p[2 * previous], p[2 * previous + 1], p[2 * i], p[2 * i + 1], 0);
+                previous = i;
+            }
+        }
+        segment(p[2 * previous], p[2 * previous + 1], p[0], p[1], 0);
+        int before = previous;
+        int at = 0;
+        do {
+            int after = nextPoint(last, at);
+            join(p[2 * before], p[2 * before + 1], p[2 * at], p[2 * at + 1],
+                    p[2 * after], p[2 * after + 1]);
+            before = at;
+            at = after;
+        } while (at != 0);
+    }
+
+    /**
+     * Returns next point different from a point, wrapping around to first
+     * point.
+     *
+     * @param last last point of path.
+     * @param i point index.
+     * @return index of next different point, or zero after last one.
+     */
+    private int nextPoint(int last, int i) {
+        for (int j = i + 1; j <= last; j++) {
+            if (points[2 * j] != points[2 * i] || points[2 * j + 1] != points[2 * i + 1]) {
+                return j;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds outer part of a miter join, or a bevel join if miter is too long.
+     *
+     * @param x0 x-position of point before join.
+     * @param y0 y-position of point before join.
+     * @param x1 x-position of join point.
+     * @param y1 y-position of join point.
+     * @param x2 x-position of point after join.
+     * @param y2 y-position of point after join.
+     */
+    private void join(float x0, float y0, float x1, float y1, float x2, float y2) {
+        float dx0 = x1 - x0;
+        float dy0 = y1 - y0;
+        float dx1 = x2 - x1;
+        float dy1 = y2 - y1;
+        float len0 = (float) Math.sqrt(dx0 * dx0 + dy0 * dy0);
+        float len1 = (float) Math.sqrt(dx1 * dx1 + dy1 * dy1);
+        dx0 /= len0;
+        dy0 /= len0;
+        dx1 /= len1;
+        dy1 /= len1;
+        float cross = dx0 * dy1 - dy0 * dx1;
+        if (cross == 0) {
+            return;
+        }
+        // Offsets of both sides on the outer side of the turn
+        float side = cross > 0 ? -0.5f : 0.5f;
+        float ox0 = -dy0 * side;
+        float oy0 = dx0 * side;
+        float ox1 = -dy1 * side;
+        float oy1 = dx1 * side;
+        float cos = dx0 * dx1 + dy0 * dy1;
+        float mx = (ox0 + ox1) / (1 + cos);
+        float my = (oy0 + oy1) / (1 + cos);
+        if (mx * mx + my * my <= MITER_LIMIT * MITER_LIMIT / 4) {
+            quad(x1, y1, x1 + ox0, y1 + oy0, x1 + mx, y1 + my, x1 + ox1, y1 + oy1);
+        } else {
+            quad(x1, y1, x1 + ox0, y1 + oy0, x1 + ox1, y1 + oy1, x1, y1);
+        }
+    }
+
+    /**
+     * Adds a one pixel wide stroke of a segment.
+     *
+     * @param x1 start x-position.
+     * @param y1 start y-position.
+     * @param x2 end x-position.
+     * @param y2 end y-position.
+     * @param cap how far stroke extends beyond segment ends.
+     */
+    private void segment(float x1, float y1, float x2, float y2, float cap) {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        float len = (float) Math.sqrt(dx * dx + dy * dy);
+        if (len == 0) {
+            return;
+        }
+        dx *= 0.5f / len;
+        dy *= 0.5f / len;
+        float ex = dx * 2 * cap;
+        float ey = dy * 2 * cap;
+        quad(x1 - ex - dy, y1 - ey + dx, x2 + ex - dy, y2 + ey + dx,
+                x2 + ex + dy, y2 + ey - dx, x1 - ex + dy, y1 - ey - dx);
+    }
+
+    /**
+     * Adds a quadrilateral, wound clockwise on screen whatever order its
+     * vertexes are given in.
+     *
+     * @param x0 first x-position.
+     * @param y0 first y-position.
+     * @param x1 second x-position.
+     * @param y1 second y-position.
+     * @param x2 third x-position.
+     * @param y2 third y-position.
+     * @param x3 fourth x-position.
+     * @param y3 fourth y-position.
+     */
+    private void quad(float x0, float y0, float x1, float y1, float x2, float y2,
+            float x3, float y3) {
+        float area = (x0 - x2) * (y1 - y3) - (x1 - x3) * (y0 - y2);
+        int dir = area < 0 ? -1 : 1;
+        edge(x0, y0, x1, y1, dir);
+        edge(x1, y1, x2, y2, dir);
+        edge(x2, y2, x3, y3, dir);
+        edge(x3, y3, x0, y0, dir);
+    }
+
+    /**
+     * Flattens an oval, or a curve at a distance from it, into current
+     * points. The oval is made of four cubic curves, as {@code Ellipse2D},
+     * and optionally normalized as Java2D normalizes strokes: curve ends are
+     * moved to nearest pixel centers, and control points move with their
+     * ends.
+     *
+     * @param x top left x-position of bounding box.
+     * @param y top left y-position of bounding box.
+     * @param w width.
+     * @param h height.
+     * @param normalize if true, curve ends are moved to pixel centers.
+     * @param offset distance from oval, outwards if positive.
+     */
+    private void ovalPoints(float x, float y, float w, float h, boolean normalize,
+            float offset) {
+        double pcv = 0.5 + CONTROL * 0.5;
+        double ncv = 0.5 - CONTROL * 0.5;
+        double[] c = curve;
+        point(c, 0, x + w, y + h * 0.5);
+        point(c, 2, x + w, y + h * pcv);
+        point(c, 4, x + w * pcv, y + h);
+        point(c, 6, x + w * 0.5, y + h);
+        point(c, 8, x + w * ncv, y + h);
+        point(c, 10, x, y + h * pcv);
+        point(c, 12, x, y + h * 0.5);
+        point(c, 14, x, y + h * ncv);
+        point(c, 16, x + w * ncv, y);
+        point(c, 18, x + w * 0.5, y);
+        point(c, 20, x + w * pcv, y);
+        point(c, 22, x + w, y + h * ncv);
+        point(c, 24, x + w, y + h * 0.5);
+        if (normalize) {
+            double lastX = Math.floor(c[0]) + 0.5 - c[0];
+            double lastY = Math.floor(c[1]) + 0.5 - c[1];
+            c[0] += lastX;
+            c[1] += lastY;
+            for (int i = 2; i < c.length; i += 6) {
+                double adjustX = Math.floor(c[i + 4]) + 0.5 - c[i + 4];
+                double adjustY = Math.floor(c[i + 5]) + 0.5 - c[i + 5];
+                c[i] += lastX;
+                c[i + 1] += lastY;
+                c[i + 2] += adjustX;
+                c[i + 3] += adjustY;
+                c[i + 4] += adjustX;
+                c[i + 5] += adjustY;
+                lastX = adjustX;
+                lastY = adjustY;
+            }
+        }
+
+        double r = Math.max(w, h) * 0.5 + offset;
+        int n = MAX_OVAL_SEGMENTS;
+        if (r > FLATNESS) {
+            double step = 2 * Math.acos(1 - FLATNESS / r);
+            n = Math.min(MAX_OVAL_SEGMENTS, Math.max(8, (int) Math.ceil(2 * Math.PI / step)));
+        }
+        int m = (n + 3) / 4;
+        double nx = 1;
+        double ny = 0;
+        pointCount = 0;
+        for (int i = 0; i < c.length - 2; i += 6) {
+            for (int j = 0; j < m; j++) {
+                double t = (double) j / m;
+                double u = 1 - t;
+                double bx = u * u * u * c[i] + 3 * u * u * t * c[i + 2]
+                        + 3 * u * t * t * c[i + 4] + t * t * t * c[i + 6];
+                double by = u * u * u * c[i + 1] + 3 * u * u * t * c[i + 3]
+                        + 3 * u * t * t * c[i + 5] + t * t * t * c[i + 7];
+                double dx = u * u * (c[i + 2] - c[i]) + 2 * u * t * (c[i + 4] - c[i + 2])
+                        + t * t * (c[i + 6] - c[i + 4]);
+                double dy = u * u * (c[i + 3] - c[i + 1]) + 2 * u * t * (c[i + 5] - c[i + 3])
+                        + t * t * (c[i + 7] - c[i + 5]);
+                double len = Math.sqrt(dx * dx + dy * dy);
+                if (len > 0) {
+                    nx = dy / len;
+                    ny = -dx / len;
+                }
+                addPoint((float) (bx + nx * offset), (float) (by + ny * offset));
+            }
+        }
+    }
+
+    /**
+     * Adds edges of the closed path through current points.
+     *
+     * @param dir winding direction of path.
+     */
+    private void pointEdges(int dir) {
+        float[] p = points;
+        for (int i = 0, j = pointCount - 1; i < pointCount; j = i++) {
+            edge(p[2 * j], p[2 * j + 1], p[2 * i], p[2 * i + 1], dir);
+        }
+    }
+
+    /**
+     * Appends a point to current points.
+     *
+     * @param x x-position.
+     * @param y y-position.
+     */
+    private void addPoint(float x, float y) {
+        if (2 * pointCount == points.length) {
+            points = Arrays.copyOf(points, 2 * points.length);
+        }
+        points[2 * pointCount] = x;
+        points[2 * pointCount + 1] = y;
+        pointCount++;
+    }
+
+    /**
+     * Stores a point in an array.
+     *
+     * @param c array of coordinates.
+     * @param i index of x-coordinate.
+     * @param x x-coordinate.
+     * @param y y-coordinate.
+     */
+    private static void point(double[] c, int i, double x, double y) {
+        c[i] = x;
+        c[i + 1] = y;
+    }
+
+    /**
+     * Adds an edge. Horizontal edges are dropped, as they never cross a
+     * sub-scanline.
+     *
+     * @param x0 start x-position.
+     * @param y0 start y-position.
+     * @param x1 end x-position.
+     * @param y1 end y-position.
+     * @param dir winding direction of shape the edge belongs to.
+     */
+    private void edge(float x0, float y0, float x1, float y1, int dir) {
+        if (y0 == y1) {
+            return;
+        }
+        if (edgeCount == directions.length) {
+            int capacity = 2 * edgeCount;
+            edges = Arrays.copyOf(edges, 5 * capacity);
+            directions = Arrays.copyOf(directions, capacity);
+            sorted = new int[capacity];
+            edgeRows = new int[capacity];
+            active = new int[capacity];
+            crossings = new float[capacity];
+            crossingDirections = new int[capacity];
+        }
+        int e = 5 * edgeCount;
+        if (y0 < y1) {
+            edges[e] = x0;
+            edges[e + 1] = y0;
+            edges[e + 2] = x1;
+            edges[e + 3] = y1;
+            directions[edgeCount] = dir;
+        } else {
+            edges[e] = x1;
+            edges[e + 1] = y1;
+            edges[e + 2] = x0;
+            edges[e + 3] = y0;
+            directions[edgeCount] = -dir;
+        }
+        edges[e + 4] = (edges[e + 2] - edges[e]) / (edges[e + 3] - edges[e + 1]);
+        edgeCount++;
+    }
+
+    /**
+     * Blends whole pixels of a rectangle with a color, clipped to rows being
+     * drawn on.
+     *
+     * @param x0 left x-position.
+     * @param y0 top y-position.
+     * @param x1 right x-position, exclusive.
+     * @param y1 bottom y-position, exclusive.
+     * @param argb color.
+     */
+    private void block(int x0, int y0, int x1, int y1, int argb) {
+        x0 = Math.max(0, x0);
+        y0 = Math.max(clipTop, y0);
+        x1 = Math.min(width, x1);
+        y1 = Math.min(clipBottom, y1);
+        if (x0 >= x1 || argb >>> 24 == 0) {
+            return;
+        }
+        for (int y = y0; y < y1; y++) {
+            int offset = y * width;
+            if (argb >>> 24 == 0xFF) {
+                Arrays.fill(pixels, offset + x0, offset + x1, argb);
+            } else {
+                for (int x = x0; x < x1; x++) {
+                    blend(offset + x, 255, argb);
+                }
+            }
+        }
+    }
+
+    /**
+     * Scan converts current edges and blends covered pixels.
+     *
+     * @param argb color.
+     * @param rule how coverage is computed: {@code EVEN_ODD},
+     * {@code NON_ZERO} or {@code AREA}.
+     */
+    private void fill(int argb, int rule) {
+        if (edgeCount == 0 || argb >>> 24 == 0) {
+            return;
+        }
+        float top = Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < edgeCount; i++) {
+            top = Math.min(top, edges[5 * i + 1]);
+            bottom = Math.max(bottom, edges[5 * i + 3]);
+        }
+        int firstRow = Math.max(clipTop, floor(top));
+        int lastRow = Math.min(clipBottom - 1, -floor(-bottom) - 1);
+        if (firstRow > lastRow) {
+            return;
+        }
+
+        // Counting sort of edges by first row, clamped to filled rows
+        int rows = lastRow - firstRow + 1;
+        Arrays.fill(rowStarts, 0, rows + 1, 0);
+        for (int i = 0; i < edgeCount; i++) {
+            int row = Math.min(lastRow, Math.max(firstRow, floor(edges[5 * i + 1])));
+            edgeRows[i] = row;
+            rowStarts[row - firstRow + 1]++;
+        }
+        for (int r = 0; r < rows; r++) {
+            rowStarts[r + 1] += rowStarts[r];
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            sorted[rowStarts[edgeRows[i] - firstRow]++] = i;
+        }
+
+        int next = 0;
+        int activeCount = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            int kept = 0;
+            for (int k = 0; k < activeCount; k++) {
+                if (edges[5 * active[k] + 3] > row) {
+                    active[kept++] = active[k];
+                }
+            }
+            activeCount = kept;
+            while (next < edgeCount && edgeRows[sorted[next]] == row) {
+                active[activeCount++] = sorted[next++];
+            }
+            touchedMin = width + 2;
+            touchedMax = -1;
+            if (rule == AREA) {
+                for (int k = 0; k < activeCount; k++) {
+                    area(active[k], row);
+                }
+            } else {
+                sample(row, activeCount, rule == NON_ZERO);
+            }
+            if (touchedMin <= touchedMax) {
+                blendRow(row, argb);
+            }
+        }
+    }
+
+    /**
+     * Adds coverage of a row by sampling sub-scanlines.
+     *
+     * @param row pixel row.
+     * @param activeCount number of edges crossing row.
+     * @param nonZero if true, nonzero rule is used; otherwise even-odd.
+     */
+    private void sample(int row, int activeCount, boolean nonZero) {
+        float weight = 1f / SUBSAMPLES;
+        for (int s = 0; s < SUBSAMPLES; s++) {
+            float sy = row + (s + 0.5f) / SUBSAMPLES;
+            int count = 0;
+            for (int k = 0; k < activeCount; k++) {
+                int e = 5 * active[k];
+                if (edges[e + 1] <= sy && sy < edges[e + 3]) {
+                    float x = edges[e] + (sy - edges[e + 1]) * edges[e + 4];
+                    insertCrossing(count++, x, directions[active[k]]);
+                }
+            }
+            int winding = 0;
+            for (int k = 0; k < count - 1; k++) {
+                winding += crossingDirections[k];
+                boolean inside = nonZero ? winding != 0 : (k & 1) == 0;
+                if (inside) {
+                    float x0 = Math.max(0, crossings[k]);
+                    float x1 = Math.min(width, crossings[k + 1]);
+                    if (x0 < x1) {
+                        span(x0, x1, weight);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds exact signed area covered right of an edge, inside a row. Summed
+     * along the row, areas of all edges of a shape give coverage of each
+     * pixel.
+     *
+     * @param i edge index.
+     * @param row pixel row.
+     */
+    private void area(int i, int row) {
+        int e = 5 * i;
+        float y0 = Math.max(row, edges[e + 1]);
+        float y1 = Math.min(row + 1, edges[e + 3]);
+        if (y0 >= y1) {
+            return;
+        }
+        float xa = edges[e] + (y0 - edges[e + 1]) * edges[e + 4];
+        float xb = edges[e] + (y1 - edges[e + 1]) * edges[e + 4];
+        float d = (y1 - y0) * directions[i];
+        float x0 = Math.min(xa, xb);
+        float x1 = Math.max(xa, xb);
+        int x0i = floor(x0);
+        int x1i = -floor(-x1);
+        float x0Floor = x0i;
+        float x1Ceil = x1i;
+        if (x1i <= x0i + 1) {
+            // Edge crosses a single pixel
+            float xm = 0.5f * (xa + xb) - x0Floor;
+            add(x0i, d - d * xm);
+            add(x0i + 1, d * xm);
+            return;
+        }
+        float s = 1 / (x1 - x0);
+        float x0f = x0 - x0Floor;
+        float a0 = 0.5f * s * (1 - x0f) * (1 - x0f);
+        float x1f = x1 - x1Ceil + 1;
+        float am = 0.5f * s * x1f * x1f;
+        add(x0i, d * a0);
+        if (x1i == x0i + 2) {
+            add(x0i + 1, d * (1 - a0 - am));
+        } else {
+            float a1 = s * (1.5f - x0f);
+            add(x0i + 1, d * (a1 - a0));
+            int from = x0i + 2;
+            int to = x1i - 1;
+            if (from < 0) {
+                add(0, d * s * (Math.min(0, to) - from));
+                from = 0;
+            }
+            to = Math.min(to, width + 1);
+            for (int x = from; x < to; x++) {
+                add(x, d * s);
+            }
+            float a2 = a1 + (x1i - x0i - 3) * s;
+            add(x1i - 1, d * (1 - a2 - am));
+        }
+        add(x1i, d * am);
+    }
+
+    /**
+     * Adds coverage difference to a pixel of current row. Pixels left of
+     * image add to first pixel, since coverage is summed from left; pixels
+     * right of image never show.
+     *
+     * @param x pixel x-position.
+     * @param v coverage difference.
+     */
+    private void add(int x, float v) {
+        x = Math.max(0, Math.min(width + 1, x));
+        deltas[x] += v;
+        touchedMin = Math.min(touchedMin, x);
+        touchedMax = Math.max(touchedMax, x);
+    }
+
+    /**
+     * Rounds down to an integer, faster than {@code Math.floor()}.
+     *
+     * @param v value, inside int range.
+     * @return largest integer not larger than v.
+     */
+    private static int floor(float v) {
+        int i = (int) v;
+        return v < i ? i - 1 : i;
+    }
+
+    /**
+     * Inserts a crossing, keeping crossings sorted by x-position.
+     *
+     * @param count number of crossings already inserted.
+     * @param x crossing x-position.
+     * @param dir winding direction of crossing edge.
+     */
+    private void insertCrossing(int count, float x, int dir) {
+        int k = count;
+        while (k > 0 && crossings[k - 1] > x) {
+            crossings[k] = crossings[k - 1];
+            crossingDirections[k] = crossingDirections[k - 1];
+            k--;
+        }
+        crossings[k] = x;
+        crossingDirections[k] = dir;
+    }
+
+    /**
+     * Adds coverage of a sub-scanline span to current row.
+     *
+     * @param x0 span start, from 0 to width.
+     * @param x1 span end, from x0 to width.
+     * @param weight coverage of a fully covered pixel.
+     */
+    private void span(float x0, float x1, float weight) {
+        int i0 = (int) x0;
+        int i1 = (int) x1;
+        float f0 = x0 - i0;
+        float f1 = x1 - i1;
+        deltas[i0] += weight * (1 - f0);
+        deltas[i0 + 1] += weight * f0;
+        deltas[i1] -= weight * (1 - f1);
+        deltas[i1 + 1] -= weight * f1;
+        touchedMin = Math.min(touchedMin, i0);
+        touchedMax = Math.max(touchedMax, i1 + 1);
+    }
+
+    /**
+     * Blends covered pixels of a row with a color and clears coverage.
+     *
+     * @param row pixel row.
+     * @param argb color.
+     */
+    private void blendRow(int row, int argb) {
+        int end = Math.min(width - 1, touchedMax);
+        float coverage = 0;
+        int offset = row * width;
+        for (int x = touchedMin; x <= end; x++) {
+            coverage += deltas[x];
+            deltas[x] = 0;
+            int cover = (int) (Math.min(1, Math.abs(coverage)) * 255 + 0.5f);
+            // Coverage only changes where deltas do, so runs inside or
+            // outside the shape are blended or skipped at once
+            int run = x + 1;
+            while (run <= end && deltas[run] == 0) {
+                run++;
+            }
+            if (cover == 0) {
+                x = run - 1;
+            } else if (cover == 255 && argb >>> 24 == 0xFF) {
+                Arrays.fill(pixels, offset + x, offset + run, argb);
+                x = run - 1;
+            } else {
+                for (; x < run; x++) {
+                    blend(offset + x, cover, argb);
+                }
+                x--;
+            }
+        }
+        for (int x = end + 1; x <= touchedMax; x++) {
+            deltas[x] = 0;
+        }
+    }
+
+    /**
+     * Blends a pixel with a color, source over.
+     *
+     * @param i pixel index.
+     * @param cover pixel coverage, from 1 to 255.
+     * @param argb color.
+     */
+    private void blend(int i, int cover, int argb) {
+        int srcA = mul8(cover, argb >>> 24);
+        if (srcA == 255) {
+            pixels[i] = argb;
+            return;
+        }
+        int dst = pixels[i];
+        int dstA = mul8(255 - srcA, dst >>> 24);
+        int resA = srcA + dstA;
+        if (resA == 0) {
+            return;
+        }
+        int r = mul8(srcA, argb >> 16 & 0xFF) + mul8(dstA, dst >> 16 & 0xFF);
+        int g = mul8(srcA, argb >> 8 & 0xFF) + mul8(dstA, dst >> 8 & 0xFF);
+        int b = mul8(srcA, argb & 0xFF) + mul8(dstA, dst & 0xFF);
+        if (resA < 255) {
+            r = div8(r, resA);
+            g = div8(g, resA);
+            b = div8(b, resA);
+        }
+        pixels[i] = resA << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Multiplies two 8-bit fractions.
+     *
+     * @param a first value, from 0 to 255.
+     * @param b second value, from 0 to 255.
+     * @return rounded a * b / 255.
+     */
+    private static int mul8(int a, int b) {
+        int t = a * b + 128;
+        return (t + (t >> 8)) >> 8;
+    }
+
+    /**
+     * Divides a premultiplied 8-bit channel by alpha.
+     *
+     * @param v premultiplied value, not larger than alpha.
+     * @param a alpha, from 1 to 255.
+     * @return rounded v * 255 / a, at most 255.
+     */
+    private static int div8(int v, int a) {
+        return Math.min(255, (v * 255 + a / 2) / a);
+    }
+}
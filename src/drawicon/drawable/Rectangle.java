@@ -1,5 +1,6 @@
 package drawicon.drawable;
 
+import java.awt.Color;
 import java.awt.Graphics2D;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -49,17 +50,43 @@ public class Rectangle extends AbstractShape{
             throw new IllegalArgumentException("Rectangle " + data + " is not a valide Rectangle element");
         }
         
-        float x1 = Float.parseFloat(m.group(1));
-        float x2 = Float.parseFloat(m.group(2));
-        float y1 = Float.parseFloat(m.group(3));
-        float y2 = Float.parseFloat(m.group(4));
+        setGeometry(Float.parseFloat(m.group(1)), Float.parseFloat(m.group(2)),
+                Float.parseFloat(m.group(3)), Float.parseFloat(m.group(4)));
         
+        setColorAttributes(m.group(5), m.group(6), m.group(8), m.group(10));
+    }
+    
+    /**
+     * Constructor. Builds a rectangle from already parsed values.
+     *
+     * @param x1 first corner x-position, in icx coordinates.
+     * @param x2 second corner x-position, in icx coordinates.
+     * @param y1 first corner y-position, in icx coordinates.
+     * @param y2 second corner y-position, in icx coordinates.
+     * @param draw if true, draws this rectangle.
+     * @param fill if true, fills this rectangle.
+     * @param dColor draw color, or null to draw in black.
+     * @param fColor fill color, or null to fill in white.
+     */
+    Rectangle(float x1, float x2, float y1, float y2, boolean draw,
+            boolean fill, Color dColor, Color fColor){
+        setGeometry(x1, x2, y1, y2);
+        setColorAttributes(draw, fill, dColor, fColor);
+    }
+    
+    /**
+     * Sets rectangle position and dimensions.
+     *
+     * @param x1 first corner x-position, in icx coordinates.
+     * @param x2 second corner x-position, in icx coordinates.
+     * @param y1 first corner y-position, in icx coordinates.
+     * @param y2 second corner y-position, in icx coordinates.
+     */
+    private void setGeometry(float x1, float x2, float y1, float y2){
         xv = Math.min(x1, x2) / 100;
         yv = (100.0f - Math.max(y1, y2)) / 100;
         lw = Math.abs(x1 - x2) / 100;
         lh = Math.abs(y1 - y2) / 100;
-        
-        setColorAttributes(m.group(5), m.group(6), m.group(8), m.group(10));
     }
     
     @Override
@@ -82,5 +109,36 @@ public class Rectangle extends AbstractShape{
             g.drawRect(xi, yi, lwi, lhi);
         }
     }
-    
+
+    @Override
+    void compile(DisplayList.Builder b) {
+        b.addBox(DisplayList.RECT, xv, yv, lw, lh, toDraw, toFill, drawColor, fillColor);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+        Rectangle o = (Rectangle) obj;
+        return Float.compare(xv, o.xv) == 0
+                && Float.compare(yv, o.yv) == 0
+                && Float.compare(lw, o.lw) == 0
+                && Float.compare(lh, o.lh) == 0
+                && colorAttributesEqual(o);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = colorAttributesHash();
+        h = 31 * h + Float.floatToIntBits(xv);
+        h = 31 * h + Float.floatToIntBits(yv);
+        h = 31 * h + Float.floatToIntBits(lw);
+        h = 31 * h + Float.floatToIntBits(lh);
+        return h;
+    }
+
 }
@@ -1,6 +1,5 @@
 package drawicon.drawable;
 
-import static drawicon.drawable.Poligon.PATTERN;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.util.regex.Matcher;
@@ -33,10 +32,48 @@ public class RegularPoligon extends Poligon {
                     + " is not a valide RegularPoligon element");
         }
 
-        float xc = (Float.parseFloat(m.group(1))) / 100;
-        float yc = (100.0f - Float.parseFloat(m.group(2))) / 100;
-        float r = (Float.parseFloat(m.group(3))) / 100;
-        int n = Integer.parseInt(m.group(4));
+        makeVertices(Float.parseFloat(m.group(1)), Float.parseFloat(m.group(2)),
+                Float.parseFloat(m.group(3)), Integer.parseInt(m.group(4)),
+                m.group(5).equals("a"));
+        this.setColorAttributes(m.group(6), m.group(7), m.group(9), m.group(11));
+    }
+
+    /**
+     * Constructor. Builds a regular poligon from already parsed values.
+     *
+     * @param x center x-position, in icx coordinates.
+     * @param y center y-position, in icx coordinates.
+     * @param r circumradius, in icx coordinates.
+     * @param n number of vertices.
+     * @param alternate if true, first vertex is rotated by half the angle
+     * between vertices ({@code dir:a}); otherwise it is on top of the center
+     * ({@code dir:v}).
+     * @param draw if true, draws this poligon.
+     * @param fill if true, fills this poligon.
+     * @param dColor draw color, or null to draw in black.
+     * @param fColor fill color, or null to fill in white.
+     */
+    RegularPoligon(float x, float y, float r, int n, boolean alternate,
+            boolean draw, boolean fill, Color dColor, Color fColor) {
+        makeVertices(x, y, r, n, alternate);
+        setColorAttributes(draw, fill, dColor, fColor);
+    }
+
+    /**
+     * Computes poligon vertexes.
+     *
+     * @param x center x-position, in icx coordinates.
+     * @param y center y-position, in icx coordinates.
+     * @param radius circumradius, in icx coordinates.
+     * @param n number of vertices.
+     * @param alternate if true, rotates first vertex by half the angle between
+     * vertices.
+     */
+    private void makeVertices(float x, float y, float radius, int n,
+            boolean alternate) {
+        float xc = x / 100;
+        float yc = (100.0f - y) / 100;
+        float r = radius / 100;
         if (n < 3) {
             throw new IllegalArgumentException("Number of vertices in"
                     + " Regular Poligon must be greather than or equal to 3."
@@ -49,7 +86,7 @@ public class RegularPoligon extends Poligon {
         double angle = 2 * Math.PI / n;
         
         float tx, ty;
-        if(m.group(5).equals("a")){
+        if(alternate){
             double angleM = angle / 2;
             tx = (float)(px*Math.cos(angleM) - py*Math.sin(angleM)
                     - xc*Math.cos(angleM) + yc*Math.sin(angleM) + xc);
@@ -64,17 +101,19 @@ public class RegularPoligon extends Poligon {
         xp[0] = px;
         yp[0] = py;
         
+        // Same rotation for all vertices
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
         for(int i = 1; i < n; i++){
-            tx = (float)(px*Math.cos(angle) - py*Math.sin(angle)
-                    - xc*Math.cos(angle) + yc*Math.sin(angle) + xc);
-            ty = (float)(px*Math.sin(angle) + py*Math.cos(angle)
-                    - xc*Math.sin(angle) - yc*Math.cos(angle) + yc);
+            tx = (float)(px*cos - py*sin
+                    - xc*cos + yc*sin + xc);
+            ty = (float)(px*sin + py*cos
+                    - xc*sin - yc*cos + yc);
             px = tx;
             py = ty;
             xp[i] = px;
             yp[i] = py;
         }
-        this.setColorAttributes(m.group(6), m.group(7), m.group(9), m.group(11));
     }
 
 }
@@ -0,0 +1,206 @@
+package drawicon.drawable;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of rendered icon images. Images are keyed by a hash of the
+ * scene they were rendered from and by their size, and least recently used
+ * images are evicted when the memory used by all cached images exceeds a
+ * limit. Images bigger than the limit are never cached.
+ * <p>
+ * All methods are thread safe.
+ *
+ * @author thiago
+ */
+public class RenderCache {
+
+    /**
+     * Default memory limit, in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 32L << 20;
+
+    /**
+     * Cached images, in access order.
+     */
+    private final LinkedHashMap<Long, BufferedImage> images;
+
+    /**
+     * Memory limit, in bytes.
+     */
+    private long maxBytes;
+
+    /**
+     * Memory used by cached images, in bytes.
+     */
+    private long bytes;
+
+    /**
+     * Number of lookups that found an image.
+     */
+    private long hits;
+
+    /**
+     * Number of lookups that didn't find an image.
+     */
+    private long misses;
+
+    /**
+     * Number of images evicted to respect memory limit.
+     */
+    private long evictions;
+
+    /**
+     * Constructor. Builds a render cache.
+     *
+     * @param maxBytes memory limit, in bytes. Zero disables caching.
+     */
+    public RenderCache(long maxBytes) {
+        this.images = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Looks up an image.
+     *
+     * @param sceneHash hash of rendered scene.
+     * @param size image size, in pixels.
+     * @return cached image, or null if there is none.
+     */
+    synchronized BufferedImage get(int sceneHash, int size) {
+        BufferedImage image = images.get(key(sceneHash, size));
+        if (image == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return image;
+    }
+
+    /**
+     * Stores an image, evicting least recently used images if needed.
+     *
+     * @param sceneHash hash of rendered scene.
+     * @param size image size, in pixels.
+     * @param image rendered image.
+     */
+    synchronized void put(int sceneHash, int size, BufferedImage image) {
+        long imageBytes = footprint(image);
+        if (imageBytes > maxBytes) {
+            return;
+        }
+        BufferedImage old = images.put(key(sceneHash, size), image);
+        if (old != null) {
+            bytes -= footprint(old);
+        }
+        bytes += imageBytes;
+        trim();
+    }
+
+    /**
+     * Removes all cached images. Hit and miss counters are kept.
+     */
+    public synchronized void clear() {
+        images.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Sets memory limit, evicting images if needed.
+     *
+     * @param maxBytes memory limit, in bytes. Zero disables caching.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    /**
+     * Returns memory limit.
+     *
+     * @return memory limit, in bytes.
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns memory used by cached images.
+     *
+     * @return memory used, in bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns number of cached images.
+     *
+     * @return number of cached images.
+     */
+    public synchronized int getImageCount() {
+        return images.size();
+    }
+
+    /**
+     * Returns number of lookups that found an image.
+     *
+     * @return number of cache hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns number of lookups that didn't find an image.
+     *
+     * @return number of cache misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns number of images evicted to respect memory limit.
+     *
+     * @return number of evictions.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Evicts least recently used images until memory limit is respected.
+     */
+    private void trim() {
+        Iterator<Map.Entry<Long, BufferedImage>> it = images.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= footprint(it.next().getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Makes a cache key from scene hash and image size.
+     *
+     * @param sceneHash hash of rendered scene.
+     * @param size image size, in pixels.
+     * @return cache key.
+     */
+    private static Long key(int sceneHash, int size) {
+        return ((long) sceneHash << 32) | (size & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns memory used by an image, assuming 4 bytes per pixel.
+     *
+     * @param image image.
+     * @return memory used, in bytes.
+     */
+    private static long footprint(BufferedImage image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+}
@@ -0,0 +1,174 @@
+package drawicon.drawable;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Time spent on each element of one rendered image, made by
+ * {@code IconDrawer.profile()}. Elements are in icx order and are mapped
+ * back to the icx lines they were read from, so slow elements can be found
+ * in source text.
+ *
+ * @author thiago
+ */
+public class RenderProfile {
+
+    /**
+     * Image size, in pixels.
+     */
+    private final int size;
+
+    /**
+     * Element type names.
+     */
+    private final String[] types;
+
+    /**
+     * Icx line number of each element, or zero if unknown.
+     */
+    private final int[] lines;
+
+    /**
+     * Time spent on each element, in nanoseconds.
+     */
+    private final long[] nanos;
+
+    /**
+     * Image pixels inside bounds of each element.
+     */
+    private final long[] areas;
+
+    /**
+     * Total time spent on all elements, in nanoseconds.
+     */
+    private final long totalNanos;
+
+    /**
+     * Constructor. Builds a render profile.
+     *
+     * @param size image size, in pixels.
+     * @param types element type names.
+     * @param lines icx line number of each element, or zero if unknown.
+     * @param nanos time spent on each element, in nanoseconds.
+     * @param areas image pixels inside bounds of each element.
+     */
+    RenderProfile(int size, String[] types, int[] lines, long[] nanos, long[] areas) {
+        this.size = size;
+        this.types = types;
+        this.lines = lines;
+        this.nanos = nanos;
+        this.areas = areas;
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        totalNanos = total;
+    }
+
+    /**
+     * Returns image size.
+     *
+     * @return image size, in pixels.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns number of elements.
+     *
+     * @return number of elements.
+     */
+    public int getElementCount() {
+        return nanos.length;
+    }
+
+    /**
+     * Returns type name of an element, such as {@code Circle}.
+     *
+     * @param i element index, in icx order.
+     * @return simple class name of element.
+     */
+    public String getType(int i) {
+        return types[i];
+    }
+
+    /**
+     * Returns icx line an element was read from.
+     *
+     * @param i element index, in icx order.
+     * @return line number, starting at 1, or zero if unknown.
+     */
+    public int getLine(int i) {
+        return lines[i];
+    }
+
+    /**
+     * Returns time spent on an element.
+     *
+     * @param i element index, in icx order.
+     * @return time, in nanoseconds.
+     */
+    public long getNanos(int i) {
+        return nanos[i];
+    }
+
+    /**
+     * Returns number of image pixels inside bounds of an element,
+     * antialiased pixels included.
+     *
+     * @param i element index, in icx order.
+     * @return pixel area, zero if element is off-canvas.
+     */
+    public long getArea(int i) {
+        return areas[i];
+    }
+
+    /**
+     * Returns total time spent on all elements.
+     *
+     * @return time, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Returns elements that took longest, slowest first.
+     *
+     * @param limit maximum number of elements.
+     * @return element indexes.
+     */
+    public int[] getHotElements(int limit) {
+        Integer[] order = new Integer[nanos.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> nanos[i] != nanos[j]
+                ? Long.compare(nanos[j], nanos[i]) : Integer.compare(i, j));
+        int[] hot = new int[Math.min(Math.max(0, limit), order.length)];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = order[i];
+        }
+        return hot;
+    }
+
+    /**
+     * Prints elements that took longest, slowest first, with their icx line,
+     * type, time, share of total time and pixel area.
+     *
+     * @param out stream to print to.
+     * @param limit maximum number of elements.
+     */
+    public void print(PrintStream out, int limit) {
+        out.println(String.format(Locale.ROOT, "%d elements at %dx%d in %.3f ms, slowest first:",
+                nanos.length, size, size, totalNanos / 1e6));
+        for (int i : getHotElements(limit)) {
+            out.println(String.format(Locale.ROOT, "  line %-6s %-15s %9.3f ms %5.1f%% %9d px",
+                    lines[i] > 0 ? Integer.toString(lines[i]) : "?", types[i],
+                    nanos[i] / 1e6, totalNanos > 0 ? 100.0 * nanos[i] / totalNanos : 0,
+                    areas[i]));
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package drawicon.drawable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of saving icons with {@code IconDrawer.save()}. Holds one entry for
+ * each icon size, in the same order as {@code IconDrawer.getSizes()}, with its
+ * output file, status and timings. {@code IconProject.save()} gives these
+ * entries for each icon of a project, one icon after another.
+ *
+ * @author thiago
+ */
+public class SaveResult {
+
+    /**
+     * Entries, one for each icon size.
+     */
+    private final List<Entry> entries;
+
+    /**
+     * Total time spent saving all icons, in nanoseconds.
+     */
+    private final long elapsedNanos;
+
+    /**
+     * Constructor. Builds a save result.
+     *
+     * @param entries entries, one for each icon size.
+     * @param elapsedNanos total time spent saving all icons, in nanoseconds.
+     */
+    SaveResult(List<Entry> entries, long elapsedNanos) {
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns entries, one for each icon size.
+     *
+     * @return unmodifiable list of entries.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns entries of icons that couldn't be saved.
+     *
+     * @return list of failed entries, empty if all icons were saved.
+     */
+    public List<Entry> getFailures() {
+        List<Entry> failures = new ArrayList<>();
+        for (Entry e : entries) {
+            if (!e.isSaved()) {
+                failures.add(e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Returns true if all icons were saved.
+     *
+     * @return true if all icons were saved.
+     */
+    public boolean isSaved() {
+        for (Entry e : entries) {
+            if (!e.isSaved()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns total time spent saving all icons. When icons are saved
+     * concurrently, this is less than the sum of entries timings.
+     *
+     * @return total time, in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Status and timings of one saved icon.
+     */
+    public static class Entry {
+
+        /**
+         * Icon size, in pixels.
+         */
+        private final int size;
+
+        /**
+         * Output file.
+         */
+        private final File file;
+
+        /**
+         * Time spent rendering icon, or downscaling it if resampled, in
+         * nanoseconds.
+         */
+        private long renderNanos;
+
+        /**
+         * Time spent encoding icon as PNG, in nanoseconds.
+         */
+        private long encodeNanos;
+
+        /**
+         * Time spent writing icon file, in nanoseconds.
+         */
+        private long writeNanos;
+
+        /**
+         * Number of bytes written.
+         */
+        private long bytes;
+
+        /**
+         * Error that prevented icon from being saved, or null if saved.
+         */
+        private IOException error;
+
+        /**
+         * True if icon was downscaled from a master image.
+         */
+        private boolean resampled;
+
+        /**
+         * Mean pixel difference between resampled and directly rendered icon,
+         * or NaN if not measured.
+         */
+        private double meanDifference = Double.NaN;
+
+        /**
+         * Largest pixel difference between resampled and directly rendered
+         * icon, or -1 if not measured.
+         */
+        private int maxDifference = -1;
+
+        /**
+         * Constructor. Builds an entry.
+         *
+         * @param size icon size, in pixels.
+         * @param file output file.
+         */
+        Entry(int size, File file) {
+            this.size = size;
+            this.file = file;
+        }
+
+        /**
+         * Sets timings.
+         *
+         * @param render time spent rendering, in nanoseconds.
+         * @param encode time spent encoding, in nanoseconds.
+         * @param write time spent writing, in nanoseconds.
+         */
+        void setTimes(long render, long encode, long write) {
+            renderNanos = render;
+            encodeNanos = encode;
+            writeNanos = write;
+        }
+
+        /**
+         * Sets number of bytes written.
+         *
+         * @param bytes number of bytes written.
+         */
+        void setBytes(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Sets error that prevented icon from being saved.
+         *
+         * @param error error.
+         */
+        void setError(IOException error) {
+            this.error = error;
+        }
+
+        /**
+         * Sets an unexpected failure that prevented icon from being saved,
+         * such as a runtime exception while rendering or encoding it. Other
+         * than I/O errors, it is kept as cause of an {@code IOException}, so
+         * every failure is seen through {@code getError()}.
+         *
+         * @param failure failure.
+         */
+        void setFailure(Throwable failure) {
+            error = failure instanceof IOException ? (IOException) failure
+                    : new IOException("couldn't save icon: " + failure, failure);
+        }
+
+        /**
+         * Marks icon as downscaled from a master image.
+         */
+        void setResampled() {
+            resampled = true;
+        }
+
+        /**
+         * Sets pixel differences between resampled and directly rendered
+         * icon.
+         *
+         * @param mean mean difference per channel.
+         * @param max largest difference of a channel.
+         */
+        void setDifference(double mean, int max) {
+            meanDifference = mean;
+            maxDifference = max;
+        }
+
+        /**
+         * Returns icon size.
+         *
+         * @return icon size, in pixels.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Returns output file.
+         *
+         * @return output file.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns time spent rendering icon.
+         *
+         * @return render time, in nanoseconds.
+         */
+        public long getRenderNanos() {
+            return renderNanos;
+        }
+
+        /**
+         * Returns time spent encoding icon as PNG.
+         *
+         * @return encode time, in nanoseconds.
+         */
+        public long getEncodeNanos() {
+            return encodeNanos;
+        }
+
+        /**
+         * Returns time spent writing icon file.
+         *
+         * @return write time, in nanoseconds.
+         */
+        public long getWriteNanos() {
+            return writeNanos;
+        }
+
+        /**
+         * Returns number of bytes written.
+         *
+         * @return number of bytes written, zero if icon wasn't saved.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns error that prevented icon from being saved.
+         *
+         * @return error, or null if icon was saved.
+         */
+        public IOException getError() {
+            return error;
+        }
+
+        /**
+         * Returns true if icon was downscaled from a master image, instead of
+         * rendered directly. See {@code IconDrawer.setResampleSize()}.
+         *
+         * @return true if icon was resampled.
+         */
+        public boolean isResampled() {
+            return resampled;
+        }
+
+        /**
+         * Returns mean difference between resampled icon and same icon
+         * rendered directly, per pixel channel, from 0 to 255. Channels are
+         * alpha and colors premultiplied by alpha. It is only measured when
+         * {@code IconDrawer.setResampleCheck(true)} was called.
+         *
+         * @return mean difference, or NaN if not measured.
+         */
+        public double getMeanDifference() {
+            return meanDifference;
+        }
+
+        /**
+         * Returns largest difference of a pixel channel between resampled icon
+         * and same icon rendered directly, from 0 to 255.
+         *
+         * @return largest difference, or -1 if not measured.
+         */
+        public int getMaxDifference() {
+            return maxDifference;
+        }
+
+        /**
+         * Returns true if icon was saved.
+         *
+         * @return true if icon was saved.
+         */
+        public boolean isSaved() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            return file.getPath() + " (" + size + "x" + size + "): "
+                    + (error == null ? "saved" : error.getMessage());
+        }
+    }
+}
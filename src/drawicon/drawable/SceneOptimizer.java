@@ -0,0 +1,373 @@
+package drawicon.drawable;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Finds elements of a display list that don't change an image, so that
+ * rendering can leave them out. An element is left out if it:
+ * <ul>
+ * <li>draws nothing: it is neither drawn nor filled, or its colors are fully
+ * transparent;</li>
+ * <li>is off-canvas: its pixel bounds, antialiased pixels included, don't
+ * touch the image;</li>
+ * <li>is hidden: all its pixels are fully covered by a later opaque filled
+ * rectangle or oval;</li>
+ * <li>is a duplicate: a later element is exactly equal and covers its
+ * pixels fully.</li>
+ * </ul>
+ * Elements are checked at pixel coordinates of one image size, as rounded
+ * for drawing, so images are the same pixel by pixel with or without left
+ * out elements. For this reason, only coverage that is exactly known is
+ * trusted. Rectangles and horizontal or vertical lines cover whole pixels;
+ * an oval covers whole pixels only well inside it, so its hidden area is the
+ * rectangle inscribed in it, one pixel smaller on each side. Duplicates of
+ * other elements are kept, since drawing an antialiased edge twice makes it
+ * darker.
+ * <p>
+ * Elements that are not compiled are never left out nor hide others.
+ *
+ * @author thiago
+ */
+final class SceneOptimizer {
+
+    /**
+     * Maximum number of hiding areas checked for each element. Largest areas
+     * are kept, so scenes with many opaque fills are optimized in linear
+     * time.
+     */
+    static final int MAX_OCCLUDERS = 64;
+
+    /**
+     * Display list to optimize.
+     */
+    private final DisplayList list;
+
+    /**
+     * Image size, in pixels.
+     */
+    private final int size;
+
+    /**
+     * Pixel coordinates of lines, ovals and rectangles.
+     */
+    private final int[] pixels;
+
+    /**
+     * Pixel bounds of each element, as left, top, right and bottom.
+     */
+    private final int[] bounds;
+
+    /**
+     * Hiding areas of later elements, as left, top, right and bottom.
+     */
+    private final int[] occluders = new int[4 * MAX_OCCLUDERS];
+
+    /**
+     * Number of hiding areas.
+     */
+    private int occluderCount;
+
+    /**
+     * Keys of later elements that cover whole pixels.
+     */
+    private final HashSet<Key> covering = new HashSet<>();
+
+    /**
+     * Constructor. Builds an optimizer for one image size.
+     *
+     * @param list display list.
+     * @param size image size, in pixels.
+     * @param pixels pixel coordinates of lines, ovals and rectangles.
+     * @param bounds pixel bounds of each element.
+     */
+    private SceneOptimizer(DisplayList list, int size, int[] pixels, int[] bounds) {
+        this.list = list;
+        this.size = size;
+        this.pixels = pixels;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Finds elements to leave out of an image.
+     *
+     * @param list display list.
+     * @param size image size, in pixels.
+     * @param pixels pixel coordinates of lines, ovals and rectangles, at
+     * {@code size}.
+     * @param bounds pixel bounds of each element, at {@code size}.
+     * @return flags, true for each element to leave out.
+     */
+    static boolean[] optimize(DisplayList list, int size, int[] pixels, int[] bounds) {
+        return new SceneOptimizer(list, size, pixels, bounds).optimize();
+    }
+
+    /**
+     * Finds elements to leave out, from last to first, so that hiding areas
+     * and keys of later elements are known when each element is checked.
+     *
+     * @return flags, true for each element to leave out.
+     */
+    private boolean[] optimize() {
+        byte[] ops = list.ops;
+        int n = ops.length;
+        int[] argStarts = new int[n];
+        int[] coordStarts = new int[n];
+        int a = 0;
+        int c = 0;
+        for (int i = 0; i < n; i++) {
+            argStarts[i] = a;
+            coordStarts[i] = c;
+            switch (ops[i]) {
+                case DisplayList.LINE:
+                    a++;
+                    c += 4;
+                    break;
+                case DisplayList.OVAL:
+                case DisplayList.RECT:
+                    a += 3;
+                    c += 4;
+                    break;
+                case DisplayList.POLIGON:
+                    a += 5;
+                    break;
+                default:
+                    a++;
+            }
+        }
+
+        boolean[] removed = new boolean[n];
+        for (int i = n - 1; i >= 0; i--) {
+            byte op = ops[i];
+            if (op == DisplayList.DRAWER) {
+                continue;
+            }
+            a = argStarts[i];
+            c = coordStarts[i];
+            if (drawsNothing(op, a) || hidden(i)) {
+                removed[i] = true;
+                continue;
+            }
+            Key key = coversWholePixels(op, a, c) ? new Key(op, a, c) : null;
+            if (key != null && !covering.add(key)) {
+                removed[i] = true;
+                continue;
+            }
+            if (op == DisplayList.RECT || op == DisplayList.OVAL) {
+                addOccluder(op, a, c);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns true if an element draws no pixel.
+     *
+     * @param op element opcode.
+     * @param a offset of element arguments.
+     * @return true if element is neither drawn nor filled, or its colors are
+     * fully transparent.
+     */
+    private boolean drawsNothing(byte op, int a) {
+        int[] args = list.args;
+        if (op == DisplayList.LINE) {
+            return transparent(args[a]);
+        }
+        int flags = args[a];
+        return ((flags & DisplayList.DRAW) == 0 || transparent(args[a + 1]))
+                && ((flags & DisplayList.FILL) == 0 || transparent(args[a + 2]));
+    }
+
+    /**
+     * Returns true if an element is off-canvas or all its pixels on canvas
+     * are inside a hiding area of a later element.
+     *
+     * @param i element index.
+     * @return true if element is hidden.
+     */
+    private boolean hidden(int i) {
+        int left = Math.max(0, bounds[4 * i]);
+        int top = Math.max(0, bounds[4 * i + 1]);
+        int right = Math.min(size, bounds[4 * i + 2]);
+        int bottom = Math.min(size, bounds[4 * i + 3]);
+        if (left >= right || top >= bottom) {
+            return true;
+        }
+        for (int k = 0; k < occluderCount; k++) {
+            int o = 4 * k;
+            if (left >= occluders[o] && top >= occluders[o + 1]
+                    && right <= occluders[o + 2] && bottom <= occluders[o + 3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if an element covers each of its pixels fully, with
+     * opaque colors, so that drawing it again over itself changes nothing.
+     *
+     * @param op element opcode.
+     * @param a offset of element arguments.
+     * @param c offset of element pixel coordinates.
+     * @return true for rectangles and horizontal or vertical lines with
+     * opaque colors.
+     */
+    private boolean coversWholePixels(byte op, int a, int c) {
+        int[] args = list.args;
+        if (op == DisplayList.LINE) {
+            return opaque(args[a]) && (pixels[c] == pixels[c + 2] || pixels[c + 1] == pixels[c + 3]);
+        }
+        if (op != DisplayList.RECT) {
+            return false;
+        }
+        int flags = args[a];
+        return ((flags & DisplayList.DRAW) == 0 || opaque(args[a + 1]))
+                && ((flags & DisplayList.FILL) == 0 || opaque(args[a + 2]));
+    }
+
+    /**
+     * Adds hiding area of an opaque filled rectangle or oval: the pixels it
+     * fully covers, clipped to image. If there are already
+     * {@code MAX_OCCLUDERS} areas, the smallest one is replaced if it is
+     * smaller than the new area.
+     *
+     * @param op either {@code OVAL} or {@code RECT}.
+     * @param a offset of element arguments.
+     * @param c offset of element pixel coordinates.
+     */
+    private void addOccluder(byte op, int a, int c) {
+        int[] args = list.args;
+        if ((args[a] & DisplayList.FILL) == 0 || !opaque(args[a + 2])) {
+            return;
+        }
+        int x = pixels[c];
+        int y = pixels[c + 1];
+        int w = pixels[c + 2];
+        int h = pixels[c + 3];
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        int left;
+        int top;
+        int right;
+        int bottom;
+        if (op == DisplayList.RECT) {
+            left = x;
+            top = y;
+            right = x + w;
+            bottom = y + h;
+        } else {
+            // Inscribed rectangle, one pixel smaller to stay off flattened
+            // and antialiased edges
+            double halfW = w / (2 * Math.sqrt(2)) - 1;
+            double halfH = h / (2 * Math.sqrt(2)) - 1;
+            double cx = x + w / 2.0;
+            double cy = y + h / 2.0;
+            left = (int) Math.ceil(cx - halfW);
+            top = (int) Math.ceil(cy - halfH);
+            right = (int) Math.floor(cx + halfW);
+            bottom = (int) Math.floor(cy + halfH);
+        }
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(size, right);
+        bottom = Math.min(size, bottom);
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        long area = (long) (right - left) * (bottom - top);
+        int k = occluderCount;
+        if (k == MAX_OCCLUDERS) {
+            k = 0;
+            for (int j = 1; j < MAX_OCCLUDERS; j++) {
+                if (area(j) < area(k)) {
+                    k = j;
+                }
+            }
+            if (area(k) >= area) {
+                return;
+            }
+        } else {
+            occluderCount++;
+        }
+        occluders[4 * k] = left;
+        occluders[4 * k + 1] = top;
+        occluders[4 * k + 2] = right;
+        occluders[4 * k + 3] = bottom;
+    }
+
+    /**
+     * Returns size of a hiding area.
+     *
+     * @param k hiding area index.
+     * @return number of pixels in area.
+     */
+    private long area(int k) {
+        return (long) (occluders[4 * k + 2] - occluders[4 * k])
+                * (occluders[4 * k + 3] - occluders[4 * k + 1]);
+    }
+
+    /**
+     * Returns true if a palette color is fully transparent.
+     *
+     * @param color palette index.
+     * @return true if color alpha is zero.
+     */
+    private boolean transparent(int color) {
+        return list.palette[color] >>> 24 == 0;
+    }
+
+    /**
+     * Returns true if a palette color is opaque.
+     *
+     * @param color palette index.
+     * @return true if color alpha is 255.
+     */
+    private boolean opaque(int color) {
+        return list.palette[color] >>> 24 == 0xFF;
+    }
+
+    /**
+     * Identity of a line or rectangle: opcode, arguments and pixel
+     * coordinates.
+     */
+    private final class Key {
+
+        /**
+         * Opcode, arguments and pixel coordinates.
+         */
+        private final int[] values;
+
+        /**
+         * Hash code of {@code values}.
+         */
+        private final int hash;
+
+        /**
+         * Constructor. Builds the key of an element.
+         *
+         * @param op element opcode, either {@code LINE} or {@code RECT}.
+         * @param a offset of element arguments.
+         * @param c offset of element pixel coordinates.
+         */
+        private Key(byte op, int a, int c) {
+            int argCount = op == DisplayList.LINE ? 1 : 3;
+            values = new int[1 + argCount + 4];
+            values[0] = op;
+            System.arraycopy(list.args, a, values, 1, argCount);
+            System.arraycopy(pixels, c, values, 1 + argCount, 4);
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(values, ((Key) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package drawicon.gui;
 
 import drawicon.drawable.IconDrawer;
+import drawicon.drawable.SaveResult;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.FlowLayout;
@@ -20,8 +21,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -34,6 +40,10 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 /**
  * Main window of this application. This windows contains two panels:
@@ -45,6 +55,11 @@ import javax.swing.KeyStroke;
  * </ul>
  * This program is used to draw icons for android applications in a
  * non-interactive manner.
+ * <p>
+ * Codes are parsed and icons are rendered and saved on a background thread,
+ * so that large icons don't freeze this window. Right panel shows last
+ * finished icon until a newer one is ready. In live preview mode, icon is
+ * made again shortly after user stops typing.
  *
  * @author thiago
  */
@@ -55,6 +70,12 @@ public class MainWindow extends JFrame {
      */
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Time without typing before live preview is made, in milliseconds.
+     * Bursts of keystrokes within this time make a single preview.
+     */
+    public static final int PREVIEW_DELAY = 250;
+
     /**
      * Drawer that draws a icon from data read from file or written in Left
      * panel.
@@ -76,14 +97,56 @@ public class MainWindow extends JFrame {
      */
     private final JFileChooser fc;
 
+    /**
+     * Thread that parses codes, renders and saves icons. Drawer is only used
+     * on this thread, and Event Dispatch Thread only draws finished images.
+     */
+    private final ExecutorService worker;
+
+    /**
+     * Generation of latest icon request. Requests of older generations are
+     * stale: they are skipped if not started, and their images are not
+     * rendered if they were started.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * Code waiting to be parsed, or null if latest code was parsed.
+     */
+    private final AtomicReference<PendingCode> pendingCode = new AtomicReference<>();
+
+    /**
+     * Timer that makes live preview when user stops typing.
+     */
+    private final Timer previewTimer;
+
+    /**
+     * Menu item that turns live preview on and off.
+     */
+    private final JCheckBoxMenuItem livePreview;
+
     /**
      * Constructors. Builds this main window.
      */
     public MainWindow() {
         iconDrawer = new IconDrawer();
+        worker = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "Icon renderer");
+            thread.setDaemon(true);
+            return thread;
+        });
         textArea = new JTextArea(40, 50);
         viewer = new ImageViewer();
         fc = new JFileChooser();
+        livePreview = new JCheckBoxMenuItem("Live preview");
+        previewTimer = new Timer(PREVIEW_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                viewer.requestImage(textArea.getText(), false);
+            }
+        });
+        previewTimer.setRepeats(false);
+        textArea.getDocument().addDocumentListener(new PreviewListener());
         setTitle("Draw Icon");
         setJMenuBar(new MyMenuBar());
         setContentPane(new MyContent(textArea, viewer));
@@ -92,6 +155,77 @@ public class MainWindow extends JFrame {
         setDefaultCloseOperation(EXIT_ON_CLOSE);
     }
 
+    /**
+     * Requests a new icon. Called on Event Dispatch Thread; code is parsed
+     * and icon is rendered on worker thread, and older requests become stale.
+     *
+     * @param code code to parse, or null to render elements already parsed.
+     * @param warn true to show parse errors of code.
+     * @param size icon size in pixels.
+     */
+    private void requestIcon(String code, boolean warn, int size) {
+        if (code != null) {
+            pendingCode.set(new PendingCode(code, warn));
+        }
+        int requestGeneration = generation.incrementAndGet();
+        worker.execute(() -> makeIcon(requestGeneration, size));
+    }
+
+    /**
+     * Parses pending code and renders an icon, on worker thread. Pending code
+     * is always parsed, even by a stale request, since it is the latest code.
+     * Only lines changed since last code are parsed again. Parse errors are
+     * shown if requested, unless newer code is waiting. Icon is not
+     * rendered if request is stale, since a newer request will render it,
+     * and rendering stops between elements as soon as a newer request is
+     * made, dropping the partial icon.
+     *
+     * @param requestGeneration generation of request.
+     * @param size icon size in pixels.
+     */
+    private void makeIcon(int requestGeneration, int size) {
+        PendingCode code = pendingCode.getAndSet(null);
+        if (code != null) {
+            iconDrawer.readIncremental(code.text);
+            if (code.warn && iconDrawer.someError() && pendingCode.get() == null) {
+                String[] syntaxErrors = iconDrawer.getSyntaxErrorLines();
+                String[] notElements = iconDrawer.getNotElementLines();
+                SwingUtilities.invokeLater(() -> WarningDialog.showDialog(MainWindow.this,
+                        syntaxErrors, notElements));
+            }
+        }
+        if (requestGeneration != generation.get() || size <= 0) {
+            return;
+        }
+        BufferedImage image = iconDrawer.getImage(size,
+                () -> requestGeneration != generation.get());
+        if (image == null) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> viewer.showIcon(requestGeneration, image));
+    }
+
+    /**
+     * Saves icons, on worker thread, after all codes requested before were
+     * parsed. Errors are shown on Event Dispatch Thread.
+     *
+     * @param dirName directory name, e.g. "res".
+     * @param fileName file name of icons.
+     */
+    private void saveIcons(String dirName, String fileName) {
+        SaveResult result = iconDrawer.save(dirName, fileName);
+        if (!result.isSaved()) {
+            StringBuilder message = new StringBuilder(
+                    "Error: couldn't write some icons:");
+            for (SaveResult.Entry failure : result.getFailures()) {
+                message.append("\n").append(failure);
+            }
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(MainWindow.this,
+                    message.toString(), "Writing Error",
+                    JOptionPane.ERROR_MESSAGE));
+        }
+    }
+
     /**
      * Menu bar for this main window.
      */
@@ -104,7 +238,7 @@ public class MainWindow extends JFrame {
 
         /**
          * Constructor. Builds this menu bar. This menu bar contains only one
-         * menu: <i>File</li>, and five submenus:
+         * menu: <i>File</li>, and six submenus:
          * <ul>
          * <li><i>Open</i>: opens a icx file and displays it in Lift panel</li>
          * <li><i>Save</i>: saves a icx file</li>
@@ -112,6 +246,7 @@ public class MainWindow extends JFrame {
          * panel</li>
          * <li><i>Save icons</i>: save icons to some directory (usually
          * "res")</li>
+         * <li><i>Live preview</i>: makes icons while user types</li>
          * <li><i>Exit</i>: Exits program</li>
          * </ul>
          */
@@ -163,7 +298,7 @@ public class MainWindow extends JFrame {
                     if (files == null) {
                         return;
                     }
-                    iconDrawer.save(files[0], files[1]);
+                    worker.execute(() -> saveIcons(files[0], files[1]));
                 }
             });
 
@@ -172,14 +307,9 @@ public class MainWindow extends JFrame {
             makeIcons.addActionListener(new ActionListener() {
                 @Override
                 public void actionPerformed(ActionEvent e) {
-                    iconDrawer.read(textArea.getText());
-                    viewer.repaint();
+                    previewTimer.stop();
+                    viewer.requestImage(textArea.getText(), true);
                     saveIcons.setEnabled(true);
-                    if (iconDrawer.someError()) {
-                        WarningDialog.showDialog(MainWindow.this,
-                                iconDrawer.getSyntaxErrorLines(),
-                                iconDrawer.getNotElementLines());
-                    }
                 }
             });
 
@@ -212,6 +342,18 @@ public class MainWindow extends JFrame {
                 }
             });
 
+            livePreview.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_L, shortcutMask));
+            livePreview.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    if (livePreview.isSelected()) {
+                        previewTimer.restart();
+                    } else {
+                        previewTimer.stop();
+                    }
+                }
+            });
+
             JMenuItem exit = new JMenuItem("Exit");
             exit.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Q, shortcutMask));
             exit.addActionListener(new ActionListener() {
@@ -225,6 +367,7 @@ public class MainWindow extends JFrame {
             file.add(save);
             file.add(makeIcons);
             file.add(saveIcons);
+            file.add(livePreview);
             file.add(exit);
             add(file);
         }
@@ -317,6 +460,22 @@ public class MainWindow extends JFrame {
          */
         private int graphicSize;
 
+        /**
+         * Last finished icon, drawn until a newer one is ready. Null if no
+         * icon was rendered yet.
+         */
+        private BufferedImage icon;
+
+        /**
+         * Generation of request that rendered {@code icon}.
+         */
+        private int iconGeneration;
+
+        /**
+         * Size of latest requested icon, or 0 if none was requested.
+         */
+        private int requestedSize;
+
         /**
          * Constructor. Builds this Image Viewer.
          */
@@ -330,21 +489,60 @@ public class MainWindow extends JFrame {
         public void paintComponent(Graphics g) {
             super.paintComponent(g);
 
-            int size;
-            if (graphicSize == -1) {
-                size = Math.min(getWidth(), getHeight());
-                size *= 4;
-                size /= 5;
-            } else {
-                size = graphicSize;
+            if (imageSize() != requestedSize) {
+                requestImage(null, false);
+            }
+            if (icon == null) {
+                return;
             }
-            BufferedImage image = iconDrawer.getImage(size);
+            int x = (getWidth() - icon.getWidth()) / 2;
+            int y = (getHeight() - icon.getHeight()) / 2;
 
-            int x = (getWidth() - size) / 2;
-            int y = (getHeight() - size) / 2;
+            g.drawImage(icon, x, y, this);
+
+        }
 
-            g.drawImage(image, x, y, this);
+        /**
+         * Computes image size to be drawn.
+         *
+         * @return image size in pixels.
+         */
+        private int imageSize() {
+            if (graphicSize != -1) {
+                return graphicSize;
+            }
+            int size = Math.min(getWidth(), getHeight());
+            size *= 4;
+            size /= 5;
+            return size;
+        }
+
+        /**
+         * Requests a new icon with current image size. Last finished icon is
+         * drawn until new icon is ready.
+         *
+         * @param code code to parse, or null to render elements already
+         * parsed.
+         * @param warn true to show parse errors of code.
+         */
+        public void requestImage(String code, boolean warn) {
+            requestedSize = imageSize();
+            requestIcon(code, warn, requestedSize);
+        }
 
+        /**
+         * Shows a finished icon, unless a newer one is already shown.
+         *
+         * @param generation generation of request that rendered icon.
+         * @param image finished icon, not modified after this call.
+         */
+        public void showIcon(int generation, BufferedImage image) {
+            if (generation < iconGeneration) {
+                return;
+            }
+            icon = image;
+            iconGeneration = generation;
+            repaint();
         }
 
         /**
@@ -356,4 +554,63 @@ public class MainWindow extends JFrame {
             repaint();
         }
     }
+
+    /**
+     * Code waiting to be parsed on worker thread.
+     */
+    private static final class PendingCode {
+
+        /**
+         * Code to parse.
+         */
+        private final String text;
+
+        /**
+         * True to show parse errors.
+         */
+        private final boolean warn;
+
+        /**
+         * Constructor. Builds a pending code.
+         *
+         * @param text code to parse.
+         * @param warn true to show parse errors.
+         */
+        private PendingCode(String text, boolean warn) {
+            this.text = text;
+            this.warn = warn;
+        }
+    }
+
+    /**
+     * Listener of text area changes that restarts live preview timer, so
+     * that keystrokes only reset a timer and typing never waits for parsing
+     * or rendering.
+     */
+    private class PreviewListener implements DocumentListener {
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            changed();
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            changed();
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            // Attribute changes don't change code
+        }
+
+        /**
+         * Restarts live preview timer if live preview is on.
+         */
+        private void changed() {
+            if (livePreview.isSelected()) {
+                previewTimer.restart();
+            }
+        }
+    }
 }
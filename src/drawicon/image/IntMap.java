@@ -0,0 +1,145 @@
+package drawicon.image;
+
+/**
+ * Hash map from int keys to int values, without boxing. Used to count and
+ * index pixel colors, where any int can be a key.
+ *
+ * @author thiago
+ */
+final class IntMap {
+
+    /**
+     * Keys, in open addressing slots.
+     */
+    private int[] keys;
+
+    /**
+     * Values, in the same slots as their keys.
+     */
+    private int[] values;
+
+    /**
+     * Marks slots in use.
+     */
+    private boolean[] used;
+
+    /**
+     * Number of keys.
+     */
+    private int size;
+
+    /**
+     * Constructor. Builds an empty map.
+     *
+     * @param capacity expected number of keys.
+     */
+    IntMap(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(4, capacity) * 2 - 1) * 2;
+        keys = new int[slots];
+        values = new int[slots];
+        used = new boolean[slots];
+    }
+
+    /**
+     * Returns number of keys.
+     *
+     * @return number of keys.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns value of a key.
+     *
+     * @param key key.
+     * @param missing value to return if key isn't in map.
+     * @return value of key, or {@code missing}.
+     */
+    int get(int key, int missing) {
+        int slot = slot(key);
+        return used[slot] ? values[slot] : missing;
+    }
+
+    /**
+     * Sets value of a key.
+     *
+     * @param key key.
+     * @param value value.
+     */
+    void put(int key, int value) {
+        int slot = slot(key);
+        if (!used[slot]) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                slot = slot(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * Adds to value of a key, starting from zero if key isn't in map.
+     *
+     * @param key key.
+     * @param delta value to add.
+     */
+    void add(int key, int delta) {
+        put(key, get(key, 0) + delta);
+    }
+
+    /**
+     * Returns all keys, in no particular order.
+     *
+     * @return keys.
+     */
+    int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                result[n++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds slot of a key: the slot holding it, or the empty slot where it
+     * would be put.
+     *
+     * @param key key.
+     * @return slot index.
+     */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int slot = (key * 0x9E3779B1 >>> 16 ^ key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Doubles number of slots.
+     */
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new int[2 * oldKeys.length];
+        values = new int[keys.length];
+        used = new boolean[keys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = slot(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
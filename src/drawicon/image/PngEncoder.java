@@ -0,0 +1,741 @@
+package drawicon.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes images as PNG files, with selectable compression level and scanline
+ * filter. Pixels of {@code TYPE_INT_ARGB} images are read straight from their
+ * data buffer. Images with up to 256 colors, as icons drawn from a few
+ * colors often are, can be written as indexed PNG, with 1, 2, 4 or 8 bits per
+ * pixel and a tRNS chunk for transparent colors. Other images without
+ * transparent pixels are written as RGB, others as RGBA, both with 8 bits per
+ * channel; optionally, they can be quantized to 256 colors instead. Indexed
+ * encodings are kept only if smaller than true color ones: palette chunks
+ * often cost more than they save on small images, such as 36 or 48 pixel
+ * icons.
+ * <p>
+ * Large images are compressed in parallel: filtered data is split into
+ * blocks that are deflated as separate tasks on the common fork-join pool,
+ * each one using the end of the previous block as dictionary, and joined into
+ * a single zlib stream.
+ * <p>
+ * Encoders never change after built, so one encoder can be used by many
+ * threads at once.
+ *
+ * @author thiago
+ */
+public final class PngEncoder {
+
+    /**
+     * No filter: scanlines are compressed as they are.
+     */
+    public static final int FILTER_NONE = 0;
+
+    /**
+     * Each byte is stored as difference from byte of pixel at left.
+     */
+    public static final int FILTER_SUB = 1;
+
+    /**
+     * Each byte is stored as difference from byte of pixel above.
+     */
+    public static final int FILTER_UP = 2;
+
+    /**
+     * Each byte is stored as difference from average of pixels at left and
+     * above.
+     */
+    public static final int FILTER_AVERAGE = 3;
+
+    /**
+     * Each byte is stored as difference from Paeth predictor of pixels at
+     * left, above and above left.
+     */
+    public static final int FILTER_PAETH = 4;
+
+    /**
+     * Each scanline uses the filter that gives the smallest sum of absolute
+     * differences, the heuristic recommended by PNG specification.
+     */
+    public static final int FILTER_ADAPTIVE = 5;
+
+    /**
+     * Images are always written in true color.
+     */
+    public static final int PALETTE_OFF = 0;
+
+    /**
+     * Images with up to 256 distinct colors are written as indexed PNG,
+     * without any change to their pixels, if that is smaller than true
+     * color. Other images are written in true color.
+     */
+    public static final int PALETTE_EXACT = 1;
+
+    /**
+     * Images are written as indexed PNG, unless true color is smaller.
+     * Images with more than 256 distinct colors are quantized with median
+     * cut, so their pixels change unless written in true color.
+     */
+    public static final int PALETTE_QUANTIZE = 2;
+
+    /**
+     * Maximum number of colors of indexed PNG.
+     */
+    private static final int MAX_PALETTE_SIZE = 256;
+
+    /**
+     * Minimum size of filtered data, in bytes, to compress it in parallel.
+     */
+    static final int PARALLEL_MIN_BYTES = 1 << 20;
+
+    /**
+     * Size of blocks compressed in parallel, in bytes.
+     */
+    static final int BLOCK_SIZE = 1 << 18;
+
+    /**
+     * Size of deflate dictionary, in bytes.
+     */
+    private static final int DICTIONARY_SIZE = 1 << 15;
+
+    /**
+     * Maximum size of an IDAT chunk, in bytes.
+     */
+    private static final int MAX_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * PNG file signature.
+     */
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+
+    /**
+     * Compression level, from 0 (none) to 9 (best).
+     */
+    private final int level;
+
+    /**
+     * Scanline filter.
+     */
+    private final int filter;
+
+    /**
+     * If true, image is also encoded without filters and smaller result is
+     * kept.
+     */
+    private final boolean tryUnfiltered;
+
+    /**
+     * Palette mode, one of {@code PALETTE_} constants.
+     */
+    private final int palette;
+
+    /**
+     * Constructor. Builds an encoder with default compression level (6), no
+     * filters and exact palettes, a good balance of speed and size. Icons are made of flat
+     * colors with sharp edges, which deflate finds as repeated byte runs;
+     * prediction filters break these runs and usually make icons larger.
+     */
+    public PngEncoder() {
+        this(6, FILTER_NONE);
+    }
+
+    /**
+     * Constructor. Builds an encoder.
+     *
+     * @param level compression level, from 0 (none) to 9 (best).
+     * @param filter scanline filter, one of {@code FILTER_} constants.
+     */
+    public PngEncoder(int level, int filter) {
+        this(level, filter, PALETTE_EXACT);
+    }
+
+    /**
+     * Constructor. Builds an encoder.
+     *
+     * @param level compression level, from 0 (none) to 9 (best).
+     * @param filter scanline filter for true color images, one of
+     * {@code FILTER_} constants. Indexed images are never filtered, as PNG
+     * specification recommends.
+     * @param palette palette mode, one of {@code PALETTE_} constants.
+     */
+    public PngEncoder(int level, int filter, int palette) {
+        this(level, filter, palette, false);
+    }
+
+    /**
+     * Constructor. Builds an encoder.
+     *
+     * @param level compression level, from 0 (none) to 9 (best).
+     * @param filter scanline filter, one of {@code FILTER_} constants.
+     * @param palette palette mode, one of {@code PALETTE_} constants.
+     * @param tryUnfiltered if true, image is also encoded without filters and
+     * smaller result is kept.
+     */
+    private PngEncoder(int level, int filter, int palette, boolean tryUnfiltered) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be from 0 to 9: " + level);
+        }
+        if (filter < FILTER_NONE || filter > FILTER_ADAPTIVE) {
+            throw new IllegalArgumentException("Unknown filter: " + filter);
+        }
+        if (palette < PALETTE_OFF || palette > PALETTE_QUANTIZE) {
+            throw new IllegalArgumentException("Unknown palette mode: " + palette);
+        }
+        this.level = level;
+        this.filter = filter;
+        this.palette = palette;
+        this.tryUnfiltered = tryUnfiltered;
+    }
+
+    /**
+     * Returns an encoder for quick previews: fastest compression, without
+     * filters.
+     *
+     * @return fastest encoder.
+     */
+    public static PngEncoder fastest() {
+        return new PngEncoder(1, FILTER_NONE);
+    }
+
+    /**
+     * Returns an encoder for release builds: best compression, trying
+     * adaptive filters and no filters and keeping the smallest result.
+     *
+     * @return smallest output encoder.
+     */
+    public static PngEncoder smallest() {
+        return new PngEncoder(9, FILTER_ADAPTIVE, PALETTE_EXACT, true);
+    }
+
+    /**
+     * Returns compression level.
+     *
+     * @return compression level, from 0 to 9.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns scanline filter.
+     *
+     * @return one of {@code FILTER_} constants.
+     */
+    public int getFilter() {
+        return filter;
+    }
+
+    /**
+     * Returns palette mode.
+     *
+     * @return one of {@code PALETTE_} constants.
+     */
+    public int getPalette() {
+        return palette;
+    }
+
+    /**
+     * Returns an encoder like this one, with another palette mode.
+     *
+     * @param palette palette mode, one of {@code PALETTE_} constants.
+     * @return encoder with given palette mode.
+     */
+    public PngEncoder withPalette(int palette) {
+        return new PngEncoder(level, filter, palette, tryUnfiltered);
+    }
+
+    /**
+     * Writes an image as PNG to a stream. Stream is not closed.
+     *
+     * @param image image to encode.
+     * @param out stream to write to.
+     * @throws IOException if stream can't be written.
+     */
+    public void write(BufferedImage image, OutputStream out) throws IOException {
+        out.write(encode(image));
+    }
+
+    /**
+     * Encodes an image as PNG.
+     *
+     * @param image image to encode.
+     * @return PNG file contents.
+     */
+    public byte[] encode(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = pixels(image);
+        if (palette != PALETTE_OFF) {
+            int[] colors = distinctColors(argb, MAX_PALETTE_SIZE);
+            IntMap quantized = null;
+            if (colors == null && palette == PALETTE_QUANTIZE) {
+                quantized = new IntMap(4096);
+                colors = Quantizer.medianCut(argb, MAX_PALETTE_SIZE, quantized);
+            }
+            if (colors != null) {
+                byte[] indexed = encodeIndexed(width, height, argb, colors, quantized);
+                byte[] truecolor = encodeTruecolor(width, height, argb);
+                return indexed.length <= truecolor.length ? indexed : truecolor;
+            }
+        }
+        return encodeTruecolor(width, height, argb);
+    }
+
+    /**
+     * Encodes an image as RGB PNG, or as RGBA PNG if some pixel is not
+     * opaque.
+     *
+     * @param width image width.
+     * @param height image height.
+     * @param argb ARGB pixels.
+     * @return PNG file contents.
+     */
+    private byte[] encodeTruecolor(int width, int height, int[] argb) {
+        boolean alpha = false;
+        for (int p : argb) {
+            if (p >>> 24 != 0xFF) {
+                alpha = true;
+                break;
+            }
+        }
+        int bpp = alpha ? 4 : 3;
+        byte[] raw = new byte[width * bpp * height];
+        int i = 0;
+        for (int p : argb) {
+            raw[i++] = (byte) (p >> 16);
+            raw[i++] = (byte) (p >> 8);
+            raw[i++] = (byte) p;
+            if (alpha) {
+                raw[i++] = (byte) (p >>> 24);
+            }
+        }
+
+        byte[] idat = deflate(filter(raw, width * bpp, height, bpp, filter));
+        if (tryUnfiltered && filter != FILTER_NONE) {
+            byte[] unfiltered = deflate(filter(raw, width * bpp, height, bpp, FILTER_NONE));
+            if (unfiltered.length < idat.length) {
+                idat = unfiltered;
+            }
+        }
+
+        return png(width, height, 8, alpha ? 6 : 2, null, null, idat);
+    }
+
+    /**
+     * Encodes an image as indexed PNG.
+     *
+     * @param width image width.
+     * @param height image height.
+     * @param argb ARGB pixels.
+     * @param colors palette colors.
+     * @param quantized index in {@code colors} of each pixel color, or null if
+     * pixels are all palette colors.
+     * @return PNG file contents.
+     */
+    private byte[] encodeIndexed(int width, int height, int[] argb, int[] colors,
+            IntMap quantized) {
+        // Transparent colors first, so tRNS chunk can omit opaque ones
+        int[] sorted = new int[colors.length];
+        int[] position = new int[colors.length];
+        int transparent = 0;
+        for (int i = 0; i < colors.length; i++) {
+            if (colors[i] >>> 24 != 0xFF) {
+                position[i] = transparent;
+                sorted[transparent++] = colors[i];
+            }
+        }
+        int n = transparent;
+        for (int i = 0; i < colors.length; i++) {
+            if (colors[i] >>> 24 == 0xFF) {
+                position[i] = n;
+                sorted[n++] = colors[i];
+            }
+        }
+        byte[] plte = new byte[3 * n];
+        byte[] trns = transparent > 0 ? new byte[transparent] : null;
+        IntMap indexes = new IntMap(2 * n);
+        for (int i = 0; i < n; i++) {
+            plte[3 * i] = (byte) (sorted[i] >> 16);
+            plte[3 * i + 1] = (byte) (sorted[i] >> 8);
+            plte[3 * i + 2] = (byte) sorted[i];
+            if (i < transparent) {
+                trns[i] = (byte) (sorted[i] >>> 24);
+            }
+            indexes.put(sorted[i], i);
+        }
+
+        int depth = n <= 2 ? 1 : n <= 4 ? 2 : n <= 16 ? 4 : 8;
+        int perByte = 8 / depth;
+        int stride = (width + perByte - 1) / perByte;
+        byte[] data = new byte[(stride + 1) * height];
+        for (int y = 0; y < height; y++) {
+            int o = y * (stride + 1) + 1;
+            for (int x = 0; x < width; x++) {
+                int p = argb[y * width + x];
+                if (p >>> 24 == 0) {
+                    p = 0;
+                }
+                int index = indexes.get(p, -1);
+                if (index < 0) {
+                    index = position[quantized.get(p, 0)];
+                    indexes.put(p, index);
+                }
+                int shift = 8 - depth * (x % perByte + 1);
+                data[o + x / perByte] |= (byte) (index << shift);
+            }
+        }
+        return png(width, height, depth, 3, plte, trns, deflate(data));
+    }
+
+    /**
+     * Returns distinct colors of pixels, taking all fully transparent pixels
+     * as one color, zero.
+     *
+     * @param argb ARGB pixels.
+     * @param max maximum number of colors.
+     * @return distinct colors, or null if there are more than {@code max}.
+     */
+    private static int[] distinctColors(int[] argb, int max) {
+        IntMap colors = new IntMap(max);
+        int last = 1;
+        for (int p : argb) {
+            if (p >>> 24 == 0) {
+                p = 0;
+            }
+            if (p != last) {
+                colors.put(p, 0);
+                if (colors.size() > max) {
+                    return null;
+                }
+                last = p;
+            }
+        }
+        return colors.keys();
+    }
+
+    /**
+     * Assembles a PNG file.
+     *
+     * @param width image width.
+     * @param height image height.
+     * @param depth bits per sample.
+     * @param colorType PNG color type: 2 (RGB), 3 (indexed) or 6 (RGBA).
+     * @param plte palette, or null if image isn't indexed.
+     * @param trns palette alpha values, or null if none.
+     * @param idat compressed image data.
+     * @return PNG file contents.
+     */
+    private static byte[] png(int width, int height, int depth, int colorType,
+            byte[] plte, byte[] trns, byte[] idat) {
+        ByteArrayOutputStream png = new ByteArrayOutputStream(idat.length + 1024);
+        png.write(SIGNATURE, 0, SIGNATURE.length);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = (byte) depth;
+        header[9] = (byte) colorType;
+        writeChunk(png, "IHDR", header, 0, header.length);
+        if (plte != null) {
+            writeChunk(png, "PLTE", plte, 0, plte.length);
+        }
+        if (trns != null) {
+            writeChunk(png, "tRNS", trns, 0, trns.length);
+        }
+        for (int off = 0; off < idat.length || off == 0; off += MAX_CHUNK_SIZE) {
+            writeChunk(png, "IDAT", idat, off, Math.min(MAX_CHUNK_SIZE, idat.length - off));
+        }
+        writeChunk(png, "IEND", new byte[0], 0, 0);
+        return png.toByteArray();
+    }
+
+    /**
+     * Returns image pixels as ARGB values, without copying them if image is a
+     * plain {@code TYPE_INT_ARGB} image.
+     *
+     * @param image image.
+     * @return ARGB pixels, row by row.
+     */
+    static int[] pixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == width
+                && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0) {
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            if (buffer.getNumBanks() == 1 && buffer.getOffset() == 0
+                    && buffer.getData().length == width * height) {
+                return buffer.getData();
+            }
+        }
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * Filters scanlines.
+     *
+     * @param raw unfiltered pixel bytes.
+     * @param stride bytes per scanline.
+     * @param height number of scanlines.
+     * @param bpp bytes per pixel.
+     * @param filter filter to use.
+     * @return filtered data: each scanline preceded by its filter type.
+     */
+    private static byte[] filter(byte[] raw, int stride, int height, int bpp, int filter) {
+        byte[] out = new byte[(stride + 1) * height];
+        byte[][] candidates = filter == FILTER_ADAPTIVE ? new byte[5][stride] : null;
+        for (int y = 0; y < height; y++) {
+            int row = y * stride;
+            int prior = row - stride;
+            int o = y * (stride + 1);
+            if (filter != FILTER_ADAPTIVE) {
+                out[o] = (byte) filter;
+                filterRow(raw, row, prior, stride, bpp, filter, out, o + 1);
+                continue;
+            }
+            int best = 0;
+            long bestSum = Long.MAX_VALUE;
+            for (int f = FILTER_NONE; f <= FILTER_PAETH; f++) {
+                byte[] c = candidates[f];
+                filterRow(raw, row, prior, stride, bpp, f, c, 0);
+                long sum = 0;
+                for (int i = 0; i < stride && sum < bestSum; i++) {
+                    sum += Math.abs(c[i]);
+                }
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    best = f;
+                }
+            }
+            out[o] = (byte) best;
+            System.arraycopy(candidates[best], 0, out, o + 1, stride);
+        }
+        return out;
+    }
+
+    /**
+     * Filters one scanline.
+     *
+     * @param raw unfiltered pixel bytes.
+     * @param row offset of scanline in {@code raw}.
+     * @param prior offset of previous scanline, negative for first scanline.
+     * @param stride bytes per scanline.
+     * @param bpp bytes per pixel.
+     * @param filter filter, from {@code FILTER_NONE} to {@code FILTER_PAETH}.
+     * @param out array to write filtered bytes to.
+     * @param o offset in {@code out}.
+     */
+    private static void filterRow(byte[] raw, int row, int prior, int stride,
+            int bpp, int filter, byte[] out, int o) {
+        if (filter == FILTER_NONE || (prior < 0 && filter == FILTER_UP)) {
+            System.arraycopy(raw, row, out, o, stride);
+            return;
+        }
+        int first = Math.min(bpp, stride);
+        switch (filter) {
+            case FILTER_SUB:
+                System.arraycopy(raw, row, out, o, first);
+                for (int i = first; i < stride; i++) {
+                    out[o + i] = (byte) (raw[row + i] - raw[row + i - bpp]);
+                }
+                break;
+            case FILTER_UP:
+                for (int i = 0; i < stride; i++) {
+                    out[o + i] = (byte) (raw[row + i] - raw[prior + i]);
+                }
+                break;
+            case FILTER_AVERAGE:
+                if (prior < 0) {
+                    System.arraycopy(raw, row, out, o, first);
+                    for (int i = first; i < stride; i++) {
+                        out[o + i] = (byte) (raw[row + i] - ((raw[row + i - bpp] & 0xFF) >>> 1));
+                    }
+                    break;
+                }
+                for (int i = 0; i < first; i++) {
+                    out[o + i] = (byte) (raw[row + i] - ((raw[prior + i] & 0xFF) >>> 1));
+                }
+                for (int i = first; i < stride; i++) {
+                    out[o + i] = (byte) (raw[row + i]
+                            - (((raw[row + i - bpp] & 0xFF) + (raw[prior + i] & 0xFF)) >>> 1));
+                }
+                break;
+            default:
+                if (prior < 0) {
+                    // Without a previous scanline, Paeth predictor is the byte at left
+                    filterRow(raw, row, prior, stride, bpp, FILTER_SUB, out, o);
+                    return;
+                }
+                for (int i = 0; i < first; i++) {
+                    out[o + i] = (byte) (raw[row + i] - raw[prior + i]);
+                }
+                for (int i = first; i < stride; i++) {
+                    out[o + i] = (byte) (raw[row + i] - paeth(raw[row + i - bpp] & 0xFF,
+                            raw[prior + i] & 0xFF, raw[prior + i - bpp] & 0xFF));
+                }
+        }
+    }
+
+    /**
+     * Returns Paeth predictor: the one of left, above and above left bytes
+     * closest to their linear estimate.
+     *
+     * @param a byte at left.
+     * @param b byte above.
+     * @param c byte above left.
+     * @return predictor.
+     */
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Compresses data as a zlib stream. Large data is compressed in blocks,
+     * in parallel.
+     *
+     * @param data data to compress.
+     * @return zlib stream.
+     */
+    private byte[] deflate(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        int cmf = 0x78;
+        int flg = flevel << 6;
+        int check = (cmf * 256 + flg) % 31;
+        if (check != 0) {
+            flg += 31 - check;
+        }
+        out.write(cmf);
+        out.write(flg);
+
+        if (data.length < PARALLEL_MIN_BYTES || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            byte[] block = deflateBlock(data, 0, data.length, true);
+            out.write(block, 0, block.length);
+        } else {
+            List<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+            for (int start = 0; start < data.length; start += BLOCK_SIZE) {
+                int from = start;
+                int length = Math.min(BLOCK_SIZE, data.length - start);
+                boolean last = from + length == data.length;
+                tasks.add(ForkJoinPool.commonPool().submit(
+                        () -> deflateBlock(data, from, length, last)));
+            }
+            for (ForkJoinTask<byte[]> task : tasks) {
+                byte[] block = task.join();
+                out.write(block, 0, block.length);
+            }
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(data, 0, data.length);
+        long checksum = adler.getValue();
+        out.write((int) (checksum >>> 24));
+        out.write((int) (checksum >>> 16));
+        out.write((int) (checksum >>> 8));
+        out.write((int) checksum);
+        return out.toByteArray();
+    }
+
+    /**
+     * Compresses a block of data as raw deflate data. Blocks after the first
+     * use the preceding bytes as dictionary; blocks before the last end with
+     * a sync flush, so compressed blocks can be concatenated.
+     *
+     * @param data data to compress.
+     * @param start offset of block.
+     * @param length block length.
+     * @param last true if block is the last one.
+     * @return raw deflate data.
+     */
+    private byte[] deflateBlock(byte[] data, int start, int length, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (start > 0) {
+                int dictionary = Math.min(DICTIONARY_SIZE, start);
+                deflater.setDictionary(data, start - dictionary, dictionary);
+            }
+            deflater.setInput(data, start, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + 64);
+            byte[] buffer = new byte[1 << 16];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Writes a PNG chunk.
+     *
+     * @param out stream to write to.
+     * @param type chunk type.
+     * @param data chunk data.
+     * @param off offset of data.
+     * @param length data length.
+     */
+    private static void writeChunk(ByteArrayOutputStream out, String type,
+            byte[] data, int off, int length) {
+        byte[] header = new byte[8];
+        putInt(header, 0, length);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        out.write(header, 0, 8);
+        out.write(data, off, length);
+        CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data, off, length);
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) crc.getValue());
+        out.write(trailer, 0, 4);
+    }
+
+    /**
+     * Stores an integer in big-endian order.
+     *
+     * @param b array to store into.
+     * @param off offset in array.
+     * @param v value.
+     */
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
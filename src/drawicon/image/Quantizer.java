@@ -0,0 +1,193 @@
+package drawicon.image;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reduces image colors with median cut. Distinct colors are grouped in boxes
+ * of the ARGB color space; the box with widest channel range is split at the
+ * median of its pixels along that channel, until there are as many boxes as
+ * wanted colors. Each box becomes one palette color, the average of its
+ * pixels.
+ *
+ * @author thiago
+ */
+public final class Quantizer {
+
+    private Quantizer() {
+
+    }
+
+    /**
+     * Makes a palette for ARGB pixels. Fully transparent pixels are taken as
+     * one color, zero.
+     *
+     * @param argb ARGB pixels.
+     * @param maxColors maximum number of palette colors.
+     * @return palette, as ARGB colors. If pixels have no more than
+     * {@code maxColors} distinct colors, these are returned unchanged.
+     */
+    public static int[] medianCut(int[] argb, int maxColors) {
+        return medianCut(argb, maxColors, null);
+    }
+
+    /**
+     * Makes a palette for ARGB pixels, as {@code medianCut(int[], int)}, and
+     * maps each distinct color to its palette index.
+     *
+     * @param argb ARGB pixels.
+     * @param maxColors maximum number of palette colors.
+     * @param indexes map to put palette index of each distinct color, or null.
+     * @return palette, as ARGB colors.
+     */
+    static int[] medianCut(int[] argb, int maxColors, IntMap indexes) {
+        if (maxColors < 1) {
+            throw new IllegalArgumentException("Palette must have at least one color");
+        }
+        IntMap histogram = new IntMap(1024);
+        for (int p : argb) {
+            histogram.add(p >>> 24 == 0 ? 0 : p, 1);
+        }
+        int[] colors = histogram.keys();
+
+        // Each box is {from, to, widest channel, range of widest channel}
+        List<int[]> boxes = new ArrayList<>();
+        boxes.add(box(colors, 0, colors.length));
+        while (boxes.size() < maxColors) {
+            int best = 0;
+            for (int i = 1; i < boxes.size(); i++) {
+                if (boxes.get(i)[3] > boxes.get(best)[3]) {
+                    best = i;
+                }
+            }
+            int[] box = boxes.get(best);
+            if (box[3] == 0) {
+                break;
+            }
+            int from = box[0];
+            int to = box[1];
+            sort(colors, from, to, box[2]);
+            long total = 0;
+            for (int i = from; i < to; i++) {
+                total += histogram.get(colors[i], 0);
+            }
+            long count = 0;
+            int split = from + 1;
+            for (int i = from; i < to - 1; i++) {
+                count += histogram.get(colors[i], 0);
+                split = i + 1;
+                if (2 * count >= total) {
+                    break;
+                }
+            }
+            boxes.set(best, box(colors, from, split));
+            boxes.add(box(colors, split, to));
+        }
+
+        int[] palette = new int[boxes.size()];
+        for (int i = 0; i < palette.length; i++) {
+            int[] box = boxes.get(i);
+            long[] sum = new long[4];
+            long total = 0;
+            for (int j = box[0]; j < box[1]; j++) {
+                int n = histogram.get(colors[j], 0);
+                for (int c = 0; c < 4; c++) {
+                    sum[c] += (long) channel(colors[j], c) * n;
+                }
+                total += n;
+                if (indexes != null) {
+                    indexes.put(colors[j], i);
+                }
+            }
+            int color = 0;
+            for (int c = 0; c < 4; c++) {
+                color |= (int) ((sum[c] + total / 2) / total) << (24 - 8 * c);
+            }
+            palette[i] = color >>> 24 == 0 ? 0 : color;
+        }
+        return palette;
+    }
+
+    /**
+     * Builds a box of colors, finding its widest channel.
+     *
+     * @param colors colors.
+     * @param from first color of box.
+     * @param to color after last color of box.
+     * @return box, as {from, to, widest channel, range of widest channel}.
+     */
+    private static int[] box(int[] colors, int from, int to) {
+        int[] min = {255, 255, 255, 255};
+        int[] max = new int[4];
+        for (int i = from; i < to; i++) {
+            for (int c = 0; c < 4; c++) {
+                int v = channel(colors[i], c);
+                min[c] = Math.min(min[c], v);
+                max[c] = Math.max(max[c], v);
+            }
+        }
+        int widest = 0;
+        for (int c = 1; c < 4; c++) {
+            if (max[c] - min[c] > max[widest] - min[widest]) {
+                widest = c;
+            }
+        }
+        return new int[]{from, to, widest, Math.max(0, max[widest] - min[widest])};
+    }
+
+    /**
+     * Returns index of palette color nearest to a color, by squared distance
+     * of ARGB channels.
+     *
+     * @param palette palette, as ARGB colors.
+     * @param color ARGB color.
+     * @return index of nearest palette color.
+     */
+    public static int nearest(int[] palette, int color) {
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < palette.length; i++) {
+            int distance = 0;
+            for (int c = 0; c < 4; c++) {
+                int d = channel(palette[i], c) - channel(color, c);
+                distance += d * d;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns a channel of an ARGB color.
+     *
+     * @param color ARGB color.
+     * @param c channel: 0 alpha, 1 red, 2 green, 3 blue.
+     * @return channel value, from 0 to 255.
+     */
+    private static int channel(int color, int c) {
+        return color >>> (24 - 8 * c) & 0xFF;
+    }
+
+    /**
+     * Sorts a box of colors by a channel.
+     *
+     * @param colors colors.
+     * @param from first color of box.
+     * @param to color after last color of box.
+     * @param c channel.
+     */
+    private static void sort(int[] colors, int from, int to, int c) {
+        long[] keys = new long[to - from];
+        for (int i = from; i < to; i++) {
+            keys[i - from] = (long) channel(colors[i], c) << 32 | (colors[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(keys);
+        for (int i = from; i < to; i++) {
+            colors[i] = (int) keys[i - from];
+        }
+    }
+}
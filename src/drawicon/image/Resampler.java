@@ -0,0 +1,255 @@
+package drawicon.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Downscales images by area averaging. Each output pixel is the average of
+ * the source area it covers, weighted by how much of each source pixel falls
+ * inside it. Colors are averaged premultiplied by alpha, so transparent
+ * pixels don't darken or tint antialiased edges.
+ * <p>
+ * Large reductions are made in steps: the image is halved with exact 2x2
+ * averages while it is at least twice as large as the target, and the rest of
+ * the reduction is made in one area-averaging step.
+ *
+ * @author thiago
+ */
+public final class Resampler {
+
+    private Resampler() {
+
+    }
+
+    /**
+     * Downscales an image.
+     *
+     * @param source image to downscale.
+     * @param width target width, not larger than source width.
+     * @param height target height, not larger than source height.
+     * @return a new image, of type {@code TYPE_INT_ARGB}.
+     */
+    public static BufferedImage downscale(BufferedImage source, int width, int height) {
+        int w = source.getWidth();
+        int h = source.getHeight();
+        if (width < 1 || height < 1 || width > w || height > h) {
+            throw new IllegalArgumentException("Can't downscale " + w + "x" + h
+                    + " image to " + width + "x" + height);
+        }
+        float[] pixels = premultiply(source.getRGB(0, 0, w, h, null, 0, w));
+        while (w % 2 == 0 && h % 2 == 0 && w >= 2 * width && h >= 2 * height) {
+            pixels = halve(pixels, w, h);
+            w /= 2;
+            h /= 2;
+        }
+        if (w != width) {
+            pixels = scaleRows(pixels, w, h, width);
+            w = width;
+        }
+        if (h != height) {
+            pixels = scaleColumns(pixels, w, h, height);
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, unpremultiply(pixels), 0, width);
+        return image;
+    }
+
+    /**
+     * Returns mean difference between two images of same size. Differences
+     * are taken between alpha and premultiplied color channels, so colors of
+     * transparent pixels are ignored.
+     *
+     * @param a first image.
+     * @param b second image.
+     * @return mean absolute difference per channel, from 0 to 255.
+     */
+    public static double meanDifference(BufferedImage a, BufferedImage b) {
+        int[] diff = differences(a, b);
+        long sum = 0;
+        for (int d : diff) {
+            sum += d;
+        }
+        return diff.length == 0 ? 0 : (double) sum / diff.length;
+    }
+
+    /**
+     * Returns largest difference between two images of same size, taken as
+     * in {@code meanDifference()}.
+     *
+     * @param a first image.
+     * @param b second image.
+     * @return largest absolute difference of a channel, from 0 to 255.
+     */
+    public static int maxDifference(BufferedImage a, BufferedImage b) {
+        int max = 0;
+        for (int d : differences(a, b)) {
+            max = Math.max(max, d);
+        }
+        return max;
+    }
+
+    /**
+     * Returns absolute differences of alpha and premultiplied color channels.
+     *
+     * @param a first image.
+     * @param b second image.
+     * @return differences, four for each pixel.
+     */
+    private static int[] differences(BufferedImage a, BufferedImage b) {
+        int w = a.getWidth();
+        int h = a.getHeight();
+        if (b.getWidth() != w || b.getHeight() != h) {
+            throw new IllegalArgumentException("Images have different sizes");
+        }
+        int[] pa = a.getRGB(0, 0, w, h, null, 0, w);
+        int[] pb = b.getRGB(0, 0, w, h, null, 0, w);
+        int[] diff = new int[4 * pa.length];
+        for (int i = 0; i < pa.length; i++) {
+            int alphaA = pa[i] >>> 24;
+            int alphaB = pb[i] >>> 24;
+            diff[4 * i] = Math.abs(alphaA - alphaB);
+            for (int c = 1; c < 4; c++) {
+                int shift = 24 - 8 * c;
+                int ca = (pa[i] >> shift & 0xFF) * alphaA;
+                int cb = (pb[i] >> shift & 0xFF) * alphaB;
+                diff[4 * i + c] = (Math.abs(ca - cb) + 127) / 255;
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Converts ARGB pixels to premultiplied channels.
+     *
+     * @param argb ARGB pixels.
+     * @return alpha, red, green and blue channels of each pixel, colors
+     * multiplied by alpha.
+     */
+    private static float[] premultiply(int[] argb) {
+        float[] p = new float[4 * argb.length];
+        for (int i = 0; i < argb.length; i++) {
+            int c = argb[i];
+            float alpha = (c >>> 24) / 255f;
+            p[4 * i] = c >>> 24;
+            p[4 * i + 1] = (c >> 16 & 0xFF) * alpha;
+            p[4 * i + 2] = (c >> 8 & 0xFF) * alpha;
+            p[4 * i + 3] = (c & 0xFF) * alpha;
+        }
+        return p;
+    }
+
+    /**
+     * Converts premultiplied channels back to ARGB pixels.
+     *
+     * @param p premultiplied channels.
+     * @return ARGB pixels.
+     */
+    private static int[] unpremultiply(float[] p) {
+        int[] argb = new int[p.length / 4];
+        for (int i = 0; i < argb.length; i++) {
+            int alpha = clamp(p[4 * i]);
+            if (alpha == 0) {
+                continue;
+            }
+            float scale = 255f / p[4 * i];
+            argb[i] = alpha << 24 | clamp(p[4 * i + 1] * scale) << 16
+                    | clamp(p[4 * i + 2] * scale) << 8 | clamp(p[4 * i + 3] * scale);
+        }
+        return argb;
+    }
+
+    /**
+     * Rounds a channel value to an integer from 0 to 255.
+     *
+     * @param v channel value.
+     * @return rounded value.
+     */
+    private static int clamp(float v) {
+        return Math.max(0, Math.min(255, Math.round(v)));
+    }
+
+    /**
+     * Halves an image, averaging each 2x2 block.
+     *
+     * @param p premultiplied channels.
+     * @param w image width, even.
+     * @param h image height, even.
+     * @return premultiplied channels of halved image.
+     */
+    private static float[] halve(float[] p, int w, int h) {
+        int w2 = w / 2;
+        int h2 = h / 2;
+        float[] out = new float[4 * w2 * h2];
+        for (int y = 0; y < h2; y++) {
+            int row0 = 2 * y * w;
+            int row1 = row0 + w;
+            for (int x = 0; x < w2; x++) {
+                int i00 = 4 * (row0 + 2 * x);
+                int i10 = 4 * (row1 + 2 * x);
+                int o = 4 * (y * w2 + x);
+                for (int c = 0; c < 4; c++) {
+                    out[o + c] = 0.25f * (p[i00 + c] + p[i00 + 4 + c]
+                            + p[i10 + c] + p[i10 + 4 + c]);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Reduces image width by area averaging.
+     *
+     * @param p premultiplied channels.
+     * @param w image width.
+     * @param h image height.
+     * @param width target width.
+     * @return premultiplied channels of reduced image.
+     */
+    private static float[] scaleRows(float[] p, int w, int h, int width) {
+        float[] out = new float[4 * width * h];
+        double scale = (double) w / width;
+        for (int x = 0; x < width; x++) {
+            double x0 = x * scale;
+            double x1 = (x + 1) * scale;
+            int last = Math.min(w - 1, (int) Math.ceil(x1) - 1);
+            for (int sx = (int) x0; sx <= last; sx++) {
+                float weight = (float) ((Math.min(x1, sx + 1) - Math.max(x0, sx)) / scale);
+                for (int y = 0; y < h; y++) {
+                    int s = 4 * (y * w + sx);
+                    int o = 4 * (y * width + x);
+                    for (int c = 0; c < 4; c++) {
+                        out[o + c] += weight * p[s + c];
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Reduces image height by area averaging.
+     *
+     * @param p premultiplied channels.
+     * @param w image width.
+     * @param h image height.
+     * @param height target height.
+     * @return premultiplied channels of reduced image.
+     */
+    private static float[] scaleColumns(float[] p, int w, int h, int height) {
+        float[] out = new float[4 * w * height];
+        double scale = (double) h / height;
+        for (int y = 0; y < height; y++) {
+            double y0 = y * scale;
+            double y1 = (y + 1) * scale;
+            int last = Math.min(h - 1, (int) Math.ceil(y1) - 1);
+            for (int sy = (int) y0; sy <= last; sy++) {
+                float weight = (float) ((Math.min(y1, sy + 1) - Math.max(y0, sy)) / scale);
+                int s = 4 * sy * w;
+                int o = 4 * y * w;
+                for (int i = 0; i < 4 * w; i++) {
+                    out[o + i] += weight * p[s + i];
+                }
+            }
+        }
+        return out;
+    }
+}
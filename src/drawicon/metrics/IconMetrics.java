@@ -0,0 +1,310 @@
+package drawicon.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics sink that adds up measures of all drawers it is set on, and
+ * exposes them as a JMX MBean. Counters are {@code LongAdder} instances, so
+ * drawers saving icons on many threads don't contend on them.
+ *
+ * @author thiago
+ */
+public class IconMetrics implements MetricsSink, IconMetricsMXBean {
+
+    /**
+     * Element type names, indexed by element type.
+     */
+    private static final String[] TYPE_NAMES = {"line", "circle", "ellipse",
+        "rectangle", "poligon", "regularPoligon", "other"};
+
+    /**
+     * Number of texts read.
+     */
+    private final LongAdder parses = new LongAdder();
+
+    /**
+     * Time spent reading texts, in nanoseconds.
+     */
+    private final LongAdder parseNanos = new LongAdder();
+
+    /**
+     * Number of elements read, indexed by element type.
+     */
+    private final LongAdder[] elements = new LongAdder[ELEMENT_TYPES];
+
+    /**
+     * Number of lines with syntax errors.
+     */
+    private final LongAdder syntaxErrors = new LongAdder();
+
+    /**
+     * Number of lines not recognized as elements.
+     */
+    private final LongAdder notElements = new LongAdder();
+
+    /**
+     * Render counts and times, by image size.
+     */
+    private final ConcurrentHashMap<Integer, Stat> renders = new ConcurrentHashMap<>();
+
+    /**
+     * Encode count and time.
+     */
+    private final Stat encodes = new Stat();
+
+    /**
+     * Write count and time.
+     */
+    private final Stat writes = new Stat();
+
+    /**
+     * Bytes written.
+     */
+    private final LongAdder bytesWritten = new LongAdder();
+
+    /**
+     * Number of icons that couldn't be encoded or written.
+     */
+    private final LongAdder writeFailures = new LongAdder();
+
+    /**
+     * Last error that stopped saving an icon, or null.
+     */
+    private volatile String lastWriteFailure;
+
+    /**
+     * Constructor. Builds metrics with all counts at zero.
+     */
+    public IconMetrics() {
+        for (int i = 0; i < ELEMENT_TYPES; i++) {
+            elements[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registers these metrics in platform MBean server, with name
+     * {@code drawicon:type=IconMetrics,name=<name>}.
+     *
+     * @param name name to tell these metrics from others.
+     * @return name these metrics were registered with.
+     * @throws IllegalStateException if metrics couldn't be registered, for
+     * example because name is already used.
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("drawicon:type=IconMetrics,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Couldn't register metrics " + name, e);
+        }
+    }
+
+    /**
+     * Removes metrics from platform MBean server. Names that are not
+     * registered are ignored.
+     *
+     * @param objectName name returned by {@code register()}.
+     */
+    public static void unregister(ObjectName objectName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Couldn't unregister metrics " + objectName, e);
+        }
+    }
+
+    @Override
+    public void parsed(long nanos, int[] elementCounts, int syntaxErrors, int notElements) {
+        parses.increment();
+        parseNanos.add(nanos);
+        for (int i = 0; i < ELEMENT_TYPES; i++) {
+            elements[i].add(elementCounts[i]);
+        }
+        this.syntaxErrors.add(syntaxErrors);
+        this.notElements.add(notElements);
+    }
+
+    @Override
+    public void rendered(int size, long nanos) {
+        Stat stat = renders.get(size);
+        if (stat == null) {
+            stat = renders.computeIfAbsent(size, s -> new Stat());
+        }
+        stat.add(nanos);
+    }
+
+    @Override
+    public void encoded(int size, long nanos, int bytes) {
+        encodes.add(nanos);
+    }
+
+    @Override
+    public void written(int size, long nanos, long bytes) {
+        writes.add(nanos);
+        bytesWritten.add(bytes);
+    }
+
+    @Override
+    public void writeFailed(int size, IOException error) {
+        writeFailures.increment();
+        lastWriteFailure = size + "x" + size + ": " + error;
+    }
+
+    @Override
+    public long getParseCount() {
+        return parses.sum();
+    }
+
+    @Override
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    @Override
+    public Map<String, Long> getElementCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (int i = 0; i < ELEMENT_TYPES; i++) {
+            counts.put(TYPE_NAMES[i], elements[i].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getSyntaxErrorCount() {
+        return syntaxErrors.sum();
+    }
+
+    @Override
+    public long getNotElementCount() {
+        return notElements.sum();
+    }
+
+    @Override
+    public long getRenderCount() {
+        long count = 0;
+        for (Stat stat : renders.values()) {
+            count += stat.count.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public long getRenderNanos() {
+        long nanos = 0;
+        for (Stat stat : renders.values()) {
+            nanos += stat.nanos.sum();
+        }
+        return nanos;
+    }
+
+    @Override
+    public Map<Integer, Long> getRenderCountBySize() {
+        Map<Integer, Long> counts = new TreeMap<>();
+        for (Map.Entry<Integer, Stat> e : renders.entrySet()) {
+            counts.put(e.getKey(), e.getValue().count.sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<Integer, Long> getRenderNanosBySize() {
+        Map<Integer, Long> nanos = new TreeMap<>();
+        for (Map.Entry<Integer, Stat> e : renders.entrySet()) {
+            nanos.put(e.getKey(), e.getValue().nanos.sum());
+        }
+        return nanos;
+    }
+
+    @Override
+    public long getEncodeCount() {
+        return encodes.count.sum();
+    }
+
+    @Override
+    public long getEncodeNanos() {
+        return encodes.nanos.sum();
+    }
+
+    @Override
+    public long getWriteCount() {
+        return writes.count.sum();
+    }
+
+    @Override
+    public long getWriteNanos() {
+        return writes.nanos.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getWriteFailureCount() {
+        return writeFailures.sum();
+    }
+
+    @Override
+    public String getLastWriteFailure() {
+        return lastWriteFailure;
+    }
+
+    @Override
+    public void reset() {
+        parses.reset();
+        parseNanos.reset();
+        for (LongAdder count : elements) {
+            count.reset();
+        }
+        syntaxErrors.reset();
+        notElements.reset();
+        renders.clear();
+        encodes.count.reset();
+        encodes.nanos.reset();
+        writes.count.reset();
+        writes.nanos.reset();
+        bytesWritten.reset();
+        writeFailures.reset();
+        lastWriteFailure = null;
+    }
+
+    /**
+     * Count and total time of one kind of work.
+     */
+    private static final class Stat {
+
+        /**
+         * Number of times work was done.
+         */
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Total time, in nanoseconds.
+         */
+        private final LongAdder nanos = new LongAdder();
+
+        /**
+         * Adds one measure.
+         *
+         * @param time time spent, in nanoseconds.
+         */
+        private void add(long time) {
+            count.increment();
+            nanos.add(time);
+        }
+    }
+}
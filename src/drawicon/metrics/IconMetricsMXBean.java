@@ -0,0 +1,129 @@
+package drawicon.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@code IconMetrics}. Times are in nanoseconds and
+ * all counts are totals since metrics were created or last reset.
+ *
+ * @author thiago
+ */
+public interface IconMetricsMXBean {
+
+    /**
+     * Returns number of texts read.
+     *
+     * @return number of texts read.
+     */
+    public long getParseCount();
+
+    /**
+     * Returns time spent reading texts.
+     *
+     * @return time spent, in nanoseconds.
+     */
+    public long getParseNanos();
+
+    /**
+     * Returns number of elements of scenes read, by element type name.
+     *
+     * @return element counts, by type name.
+     */
+    public Map<String, Long> getElementCounts();
+
+    /**
+     * Returns number of lines read with syntax errors.
+     *
+     * @return number of lines with syntax errors.
+     */
+    public long getSyntaxErrorCount();
+
+    /**
+     * Returns number of lines read that are not elements.
+     *
+     * @return number of lines not recognized as elements.
+     */
+    public long getNotElementCount();
+
+    /**
+     * Returns number of images rendered.
+     *
+     * @return number of images rendered.
+     */
+    public long getRenderCount();
+
+    /**
+     * Returns time spent rendering images.
+     *
+     * @return time spent, in nanoseconds.
+     */
+    public long getRenderNanos();
+
+    /**
+     * Returns number of images rendered, by image size.
+     *
+     * @return render counts, by size in pixels.
+     */
+    public Map<Integer, Long> getRenderCountBySize();
+
+    /**
+     * Returns time spent rendering images, by image size.
+     *
+     * @return time spent in nanoseconds, by size in pixels.
+     */
+    public Map<Integer, Long> getRenderNanosBySize();
+
+    /**
+     * Returns number of icons encoded as PNG.
+     *
+     * @return number of icons encoded.
+     */
+    public long getEncodeCount();
+
+    /**
+     * Returns time spent encoding icons.
+     *
+     * @return time spent, in nanoseconds.
+     */
+    public long getEncodeNanos();
+
+    /**
+     * Returns number of icon files written.
+     *
+     * @return number of files written.
+     */
+    public long getWriteCount();
+
+    /**
+     * Returns time spent writing icon files.
+     *
+     * @return time spent, in nanoseconds.
+     */
+    public long getWriteNanos();
+
+    /**
+     * Returns bytes written to icon files.
+     *
+     * @return bytes written.
+     */
+    public long getBytesWritten();
+
+    /**
+     * Returns number of icons that couldn't be encoded or written.
+     *
+     * @return number of failures.
+     */
+    public long getWriteFailureCount();
+
+    /**
+     * Returns last error that stopped saving an icon.
+     *
+     * @return error message, or null if no icon failed.
+     */
+    public String getLastWriteFailure();
+
+    /**
+     * Sets all counts and times to zero.
+     */
+    public void reset();
+}
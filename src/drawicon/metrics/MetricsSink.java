@@ -0,0 +1,100 @@
+package drawicon.metrics;
+
+import java.io.IOException;
+
+/**
+ * A MetricsSink receives measures of the work done by an
+ * {@code IconDrawer}: parsing, rendering, encoding and writing of icons.
+ * Icons of one drawer may be saved concurrently, so implementations must be
+ * thread safe. Methods are called in the thread that did the work, so they
+ * should return quickly.
+ *
+ * @author thiago
+ */
+public interface MetricsSink {
+
+    /**
+     * Index of lines in element counts.
+     */
+    public static final int LINE = 0;
+
+    /**
+     * Index of circles in element counts.
+     */
+    public static final int CIRCLE = 1;
+
+    /**
+     * Index of ellipses in element counts.
+     */
+    public static final int ELLIPSE = 2;
+
+    /**
+     * Index of rectangles in element counts.
+     */
+    public static final int RECTANGLE = 3;
+
+    /**
+     * Index of poligons in element counts.
+     */
+    public static final int POLIGON = 4;
+
+    /**
+     * Index of regular poligons in element counts.
+     */
+    public static final int REGULAR_POLIGON = 5;
+
+    /**
+     * Index of other drawers in element counts.
+     */
+    public static final int OTHER = 6;
+
+    /**
+     * Number of element types.
+     */
+    public static final int ELEMENT_TYPES = 7;
+
+    /**
+     * Called after a text is read.
+     *
+     * @param nanos time spent reading, in nanoseconds.
+     * @param elementCounts number of elements of the scene read, indexed by
+     * element type. Array must not be kept.
+     * @param syntaxErrors number of lines with syntax errors.
+     * @param notElements number of lines not recognized as elements.
+     */
+    public void parsed(long nanos, int[] elementCounts, int syntaxErrors, int notElements);
+
+    /**
+     * Called after an image is rendered.
+     *
+     * @param size image size, in pixels.
+     * @param nanos time spent rendering, in nanoseconds.
+     */
+    public void rendered(int size, long nanos);
+
+    /**
+     * Called after an icon is encoded as PNG.
+     *
+     * @param size icon size, in pixels.
+     * @param nanos time spent encoding, in nanoseconds.
+     * @param bytes PNG size, in bytes.
+     */
+    public void encoded(int size, long nanos, int bytes);
+
+    /**
+     * Called after an icon file is written.
+     *
+     * @param size icon size, in pixels.
+     * @param nanos time spent writing, in nanoseconds.
+     * @param bytes bytes written.
+     */
+    public void written(int size, long nanos, long bytes);
+
+    /**
+     * Called when an icon couldn't be encoded or written.
+     *
+     * @param size icon size, in pixels.
+     * @param error error that stopped saving.
+     */
+    public void writeFailed(int size, IOException error);
+}